@@ -16,9 +16,9 @@ import com.pwn9.PwnFilter.minecraft.api.MinecraftServer;
 import com.pwn9.PwnFilter.minecraft.util.ColoredString;
 import com.pwn9.PwnFilter.rules.Rule;
 import com.pwn9.PwnFilter.util.EnhancedString;
-import com.pwn9.PwnFilter.util.SimpleString;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -35,15 +35,18 @@ import java.util.regex.Pattern;
 
 public class FilterTask {
     private final EnhancedString originalMessage; // Original message
-    private ColoredString modifiedMessage; // Modified message string
+    private EnhancedString modifiedMessage; // Modified message string
     private final MessageAuthor author; // Author that this event is connected to.
     private final FilterClient filterClient;
-    private final List<String> logMessages = new ArrayList<>(); // Rules can add strings to this array.  They will be output to log if log=true
+    private List<LogEvent> logEvents; // Rules add events to this list.  They will be output to log if log=true.  Created on first use.
     private boolean logging = false;  // If true, actions will be logged
     private boolean aborted = false; // If set true by a rule, will stop further processing.
     private boolean cancelled = false; // If set true, will cancel this event.
     private Rule rule; // Rule we currently match
     private Pattern pattern; // Pattern that we currently matched.
+    private boolean deterministic = true; // False if the outcome depends on more than the message and listener.
+    private List<Rule> matchedRules; // If recording, the rules whose pattern matched, in order.
+    private String originalUpperCase; // Lazily computed, shared by all the conditions checked.
 
     // NOTE: pattern should always match originalMessage, but may not match
     // the new message, if another rule has modified it.
@@ -52,11 +55,13 @@ public class FilterTask {
      * Class Constructor with the text string to act upon.  Colour codes must
      * already be converted to the section character (u00A7), otherwise they
      * will not be correctly processed.
+     * Use {@link ColoredString#forMessage(String)} to get the cheapest
+     * representation of a message.
      *  @param m The original text string to run rules against.
      * @param a  a {@link MessageAuthor} object.
      * @param l a {@link FilterClient} object.
      */
-    public FilterTask(ColoredString m, MessageAuthor a, FilterClient l) {
+    public FilterTask(EnhancedString m, MessageAuthor a, FilterClient l) {
         originalMessage = m;
         modifiedMessage = m;
         author = a;
@@ -70,7 +75,7 @@ public class FilterTask {
      * @param l The {@link FilterClient } that generated this message
      */
     public FilterTask(String s, MessageAuthor a, FilterClient l) {
-        this(new ColoredString(s), a, l);
+        this(ColoredString.forMessage(s), a, l);
     }
 
     /**
@@ -79,7 +84,7 @@ public class FilterTask {
      * @param uuid Unique ID of the Author
      * @param l Listener that is calling.
      */
-    public FilterTask(ColoredString m, UUID uuid, FilterClient l) {
+    public FilterTask(EnhancedString m, UUID uuid, FilterClient l) {
         originalMessage = m;
         modifiedMessage = m;
         filterClient = l;
@@ -95,16 +100,47 @@ public class FilterTask {
      * @param message A string containing the log message to be output.
      */
     public void addLogMessage (String message) {
-        logMessages.add(message);
+        addLogEvent(new LogEvent.Text(message));
+    }
+
+    /**
+     * Add a log message that is only formatted if it is going to be written.
+     *
+     * @param format A {@link String#format(String, Object...)} format string.
+     * @param args The arguments referenced by the format.
+     */
+    public void addLogMessage(String format, Object... args) {
+        addLogEvent(new LogEvent.Text(format, args));
+    }
+
+    /**
+     * Add an event to the list of things to log for this task.
+     *
+     * @param event The event.  It will only be formatted if it is written.
+     */
+    public void addLogEvent(LogEvent event) {
+        if (logEvents == null) logEvents = new ArrayList<>(4);
+        logEvents.add(event);
+    }
+
+    /**
+     * @return the events logged so far, in order.
+     */
+    public List<LogEvent> getLogEvents() {
+        return (logEvents == null) ? Collections.<LogEvent>emptyList() : logEvents;
     }
 
     /**
      * <p>Getter for the field <code>logMessages</code>.</p>
      *
-     * @return a {@link java.util.List} object.
+     * @return the log events so far, formatted.
      */
     public List<String> getLogMessages() {
-        return logMessages;
+        List<String> messages = new ArrayList<>();
+        for (LogEvent event : getLogEvents()) {
+            messages.add(event.toString());
+        }
+        return messages;
     }
     /**
      * <p>messageChanged.</p>
@@ -112,7 +148,9 @@ public class FilterTask {
      * @return true if the modified message is different than the original.
      */
     public boolean messageChanged() {
-        return !originalMessage.equals(modifiedMessage);
+        // EnhancedStrings are immutable, and return themselves if an action
+        // doesn't change anything, so an untouched message is the same object.
+        return modifiedMessage != originalMessage && !originalMessage.equals(modifiedMessage);
     }
 
     /**
@@ -168,12 +206,26 @@ public class FilterTask {
         return originalMessage;
     }
 
+    /**
+     * The original message in upper case, for case-insensitive comparisons.
+     * Computed the first time it's needed and then reused for the rest of the
+     * task, so conditions don't have to convert the message every time.
+     *
+     * @return the upper-cased plain text of the original message.
+     */
+    public String getOriginalMessageUpperCase() {
+        if (originalUpperCase == null) {
+            originalUpperCase = originalMessage.toString().toUpperCase();
+        }
+        return originalUpperCase;
+    }
+
     /**
      * <p>Getter for the field <code>modifiedMessage</code>.</p>
      *
      * @return a {@link EnhancedString} object.
      */
-    public ColoredString getModifiedMessage() {
+    public EnhancedString getModifiedMessage() {
         return modifiedMessage;
     }
 
@@ -182,7 +234,7 @@ public class FilterTask {
      *
      * @param newMessage a {@link EnhancedString} object.
      */
-    public void setModifiedMessage(ColoredString newMessage) {
+    public void setModifiedMessage(EnhancedString newMessage) {
         modifiedMessage = newMessage;
     }
 
@@ -221,4 +273,44 @@ public class FilterTask {
     public FilterClient getFilterClient() {
         return filterClient;
     }
+
+    /**
+     * @return true if the outcome of filtering so far depends only on the
+     * message and the listener, so the same message would always produce it.
+     */
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /**
+     * Mark this task's outcome as depending on something other than the
+     * message and the listener (the author, a random choice, the clock...)
+     */
+    public void setNondeterministic() {
+        this.deterministic = false;
+    }
+
+    /**
+     * Start recording the rules whose pattern matches this task.
+     */
+    public void recordMatchedRules() {
+        matchedRules = new ArrayList<>();
+    }
+
+    /**
+     * Called by a Rule when its pattern matches.  Only kept when recording.
+     *
+     * @param rule The rule that matched
+     */
+    public void addMatchedRule(Rule rule) {
+        if (matchedRules != null) matchedRules.add(rule);
+    }
+
+    /**
+     * @return the rules recorded since {@link #recordMatchedRules()}, or null
+     * if not recording.
+     */
+    public List<Rule> getMatchedRules() {
+        return matchedRules;
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter;
+
+import com.pwn9.PwnFilter.api.MessageAuthor;
+import com.pwn9.PwnFilter.rules.Condition;
+import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.util.EnhancedString;
+
+/**
+ * Something that happened while filtering a message, which may be written to
+ * the log.
+ * <p>
+ * Events only hold references to the objects involved (the rule, the author,
+ * the message at the time) and a few ints.  The log line is built by
+ * {@link #toString()}, which is only called if the event is actually going
+ * to be written somewhere.  See {@link FilterTask#getLogEvents()}.
+ */
+public abstract class LogEvent {
+
+    /**
+     * Append the log line for this event.
+     *
+     * @param sb The builder to append to
+     */
+    public abstract void appendTo(StringBuilder sb);
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    private static String authorName(MessageAuthor author) {
+        return (author == null) ? "null" : author.getName();
+    }
+
+    /**
+     * A free-form message, formatted with {@link String#format(String, Object...)}
+     * if there are any arguments.
+     */
+    public static final class Text extends LogEvent {
+        private final String format;
+        private final Object[] args;
+
+        public Text(String format, Object... args) {
+            this.format = format;
+            this.args = args;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append((args == null || args.length == 0) ? format : String.format(format, args));
+        }
+    }
+
+    /**
+     * A rule's pattern matched the message.
+     */
+    public static final class Match extends LogEvent {
+        private final String listener;
+        private final Rule rule;
+        private final MessageAuthor author;
+        private final EnhancedString message;
+        private final int start;
+        private final int end;
+
+        /**
+         * @param listener Short name of the listener
+         * @param rule The rule that matched
+         * @param author The author of the message
+         * @param message The message the pattern was matched against
+         * @param start Offset of the start of the match, or -1 if unknown
+         * @param end Offset of the end of the match, or -1 if unknown
+         */
+        public Match(String listener, Rule rule, MessageAuthor author, EnhancedString message, int start, int end) {
+            this.listener = listener;
+            this.rule = rule;
+            this.author = author;
+            this.message = message;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append('|').append(listener).append("| MATCH ");
+            if (!rule.getId().isEmpty()) sb.append('(').append(rule.getId()).append(')');
+            sb.append(" <").append(authorName(author)).append("> ").append(message);
+        }
+    }
+
+    /**
+     * A rule matched, but one of its conditions wasn't met.
+     */
+    public static final class ConditionNotMet extends LogEvent {
+        private final Condition condition;
+        private final EnhancedString message;
+
+        public ConditionNotMet(Condition condition, EnhancedString message) {
+            this.condition = condition;
+            this.message = message;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append("CONDITION not met <").append(condition).append("> ").append(message);
+        }
+    }
+
+    /**
+     * The (possibly modified) message was sent on.
+     */
+    public static final class Sent extends LogEvent {
+        private final String listener;
+        private final MessageAuthor author;
+        private final EnhancedString message;
+
+        public Sent(String listener, MessageAuthor author, EnhancedString message) {
+            this.listener = listener;
+            this.author = author;
+            this.message = message;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append('|').append(listener).append("| SENT <").append(authorName(author)).append("> ").append(message);
+        }
+    }
+
+    /**
+     * The message was cancelled.
+     */
+    public static final class Cancelled extends LogEvent {
+        private final MessageAuthor author;
+
+        public Cancelled(MessageAuthor author) {
+            this.author = author;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb) {
+            sb.append('<').append(authorName(author)).append("> Original message cancelled.");
+        }
+    }
+}
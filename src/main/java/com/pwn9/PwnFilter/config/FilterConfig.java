@@ -10,7 +10,11 @@
 
 package com.pwn9.PwnFilter.config;
 
+import com.pwn9.PwnFilter.rules.MatchEngine;
+
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Object to hold the configuration of the PwnFilter Engine
@@ -22,6 +26,9 @@ public class FilterConfig {
 
     private File textDir;
     private File rulesDir;
+    private MatchEngine defaultMatchEngine = MatchEngine.REGEX;
+    private final Map<String, MatchEngine> matchEngines = new ConcurrentHashMap<>();
+    private int verdictCacheSize = 1000;
 
     private static final FilterConfig _instance = new FilterConfig();
 
@@ -52,4 +59,39 @@ public class FilterConfig {
         this.rulesDir = rulesDir;
     }
 
+    /**
+     * Get the engine to use for matching the rules in a chain.
+     *
+     * @param configName Name of the rules file
+     * @return The engine configured for this file, or the default.
+     */
+    public MatchEngine getMatchEngine(String configName) {
+        return matchEngines.getOrDefault(configName, defaultMatchEngine);
+    }
+
+    public void setMatchEngine(String configName, MatchEngine engine) {
+        matchEngines.put(configName, engine);
+    }
+
+    public void setDefaultMatchEngine(MatchEngine engine) {
+        defaultMatchEngine = engine;
+    }
+
+    public void clearMatchEngines() {
+        matchEngines.clear();
+        defaultMatchEngine = MatchEngine.REGEX;
+    }
+
+    /**
+     * @return The number of recently filtered messages each rules file
+     * remembers the verdict for.  0 if the cache is disabled.
+     */
+    public int getVerdictCacheSize() {
+        return verdictCacheSize;
+    }
+
+    public void setVerdictCacheSize(int verdictCacheSize) {
+        this.verdictCacheSize = verdictCacheSize;
+    }
+
 }
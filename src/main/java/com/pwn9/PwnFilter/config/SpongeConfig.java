@@ -12,6 +12,9 @@ package com.pwn9.PwnFilter.config;
 
 import com.google.common.collect.Lists;
 import com.google.common.reflect.TypeToken;
+import com.pwn9.PwnFilter.rules.MatchEngine;
+import com.pwn9.PwnFilter.rules.RuleFileWatcher;
+import com.pwn9.PwnFilter.rules.RuleProfiler;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.rules.action.ActionFactory;
 import com.pwn9.PwnFilter.util.LogManager;
@@ -27,6 +30,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -74,9 +78,18 @@ public class SpongeConfig {
 			// Setup logging
 			LogManager.setRuleLogLevel(loggingNode.getNode("loglevel").getString("info"));
 			LogManager.setDebugMode(loggingNode.getNode("debug").getString("off"));
+			RuleProfiler.setEnabled(loggingNode.getNode("profiler").getBoolean(false));
 
 			setupPoints();
 
+			setupMatchEngines();
+
+			FilterConfig.getInstance().setVerdictCacheSize(
+					rootNode.getNode("FilterOptions").getNode("verdictcache").getInt(1000)
+			);
+
+			RuleFileWatcher.setEnabled(rootNode.getNode("FilterOptions").getNode("watchrules").getBoolean(false));
+
 			configManagerIn.save(rootNode);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -102,6 +115,27 @@ public class SpongeConfig {
 		}
 	}
 
+	private static void setupMatchEngines() {
+		CommentedConfigurationNode enginesSection = rootNode.getNode("Engines");
+		FilterConfig filterConfig = FilterConfig.getInstance();
+		filterConfig.clearMatchEngines();
+		filterConfig.setDefaultMatchEngine(parseMatchEngine(enginesSection.getNode("default").getString("regex")));
+		for (Map.Entry<Object, ? extends CommentedConfigurationNode> entry : enginesSection.getChildrenMap().entrySet()) {
+			String configName = entry.getKey().toString();
+			if (configName.equals("default")) continue;
+			filterConfig.setMatchEngine(configName, parseMatchEngine(entry.getValue().getString("regex")));
+		}
+	}
+
+	private static MatchEngine parseMatchEngine(String name) {
+		try {
+			return MatchEngine.valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			LogManager.warn("Unknown matching engine: " + name + ". Using regex.");
+			return MatchEngine.REGEX;
+		}
+	}
+
 	private static void parseThresholds(CommentedConfigurationNode pointsSection) {
 		CommentedConfigurationNode thresholdSection = pointsSection.getNode("thresholds");
 		for(CommentedConfigurationNode threshold : thresholdSection.getChildrenMap().values()) {
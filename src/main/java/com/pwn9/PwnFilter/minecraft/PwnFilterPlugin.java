@@ -22,6 +22,7 @@ import com.pwn9.PwnFilter.minecraft.api.SpongeAPI;
 import com.pwn9.PwnFilter.minecraft.command.ClearChatCommandExecutor;
 import com.pwn9.PwnFilter.minecraft.command.GlobalMuteCommandExecutor;
 import com.pwn9.PwnFilter.minecraft.command.ReloadCommandExecutor;
+import com.pwn9.PwnFilter.minecraft.command.StatsCommandExecutor;
 import com.pwn9.PwnFilter.minecraft.listener.PlayerCacheListener;
 import com.pwn9.PwnFilter.minecraft.listener.PwnFilterBookListener;
 import com.pwn9.PwnFilter.minecraft.listener.PwnFilterCommandListener;
@@ -39,6 +40,7 @@ import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.args.GenericArguments;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.config.ConfigDir;
 import org.spongepowered.api.config.DefaultConfig;
@@ -47,6 +49,7 @@ import org.spongepowered.api.event.game.state.GameInitializationEvent;
 import org.spongepowered.api.event.game.state.GamePostInitializationEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.service.economy.EconomyService;
+import org.spongepowered.api.text.Text;
 
 import java.io.File;
 import java.io.IOException;
@@ -112,6 +115,13 @@ public class PwnFilterPlugin {
         return _instance;
     }
 
+    /**
+     * @return the folder holding the plugin's configuration and rules.
+     */
+    public File getDataFolder() {
+        return dataFolder;
+    }
+
     /** {@inheritDoc} */
     @Listener
     public void onLoad(GameInitializationEvent event) {
@@ -157,6 +167,9 @@ public class PwnFilterPlugin {
         Sponge.getGame().getCommandManager().register(this, pfmuteCommandSpec, "pfmute");
         CommandSpec pfclsCommandSpec = CommandSpec.builder().executor(new ClearChatCommandExecutor()).permission("pwnfilter.cls").build();
         Sponge.getGame().getCommandManager().register(this, pfclsCommandSpec, "pfcls");
+        CommandSpec pfstatsCommandSpec = CommandSpec.builder().executor(new StatsCommandExecutor()).permission("pwnfilter.stats")
+                .arguments(GenericArguments.optional(GenericArguments.string(Text.of("action")))).build();
+        Sponge.getGame().getCommandManager().register(this, pfstatsCommandSpec, "pfstats");
 
     }
 
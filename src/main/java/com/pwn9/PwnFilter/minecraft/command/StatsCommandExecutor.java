@@ -0,0 +1,94 @@
+package com.pwn9.PwnFilter.minecraft.command;
+
+import com.pwn9.PwnFilter.minecraft.PwnFilterPlugin;
+import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.rules.RuleChain;
+import com.pwn9.PwnFilter.rules.RuleManager;
+import com.pwn9.PwnFilter.rules.RuleProfiler;
+import com.pwn9.PwnFilter.rules.VerdictCache;
+import com.pwn9.PwnFilter.util.LatencyHistogram;
+import com.pwn9.PwnFilter.util.LogManager;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.command.spec.CommandExecutor;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * /pfstats [on|off|reset|dump|&lt;count&gt;]
+ * <p>
+ * Lists the most expensive rules in each chain, turns the rule profiler on
+ * or off, clears the statistics, or dumps them all to a CSV file in the
+ * plugin's data folder.
+ */
+public class StatsCommandExecutor implements CommandExecutor {
+
+	private static final int DEFAULT_COUNT = 5;
+
+	@Override
+	public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+		String arg = args.<String>getOne("action").orElse("").toLowerCase();
+		List<RuleChain> chains = RuleManager.getInstance().getRuleChains();
+
+		switch (arg) {
+			case "on":
+				RuleProfiler.setEnabled(true);
+				src.sendMessage(Text.of(TextColors.RED, "Rule profiler enabled."));
+				LogManager.info("Rule profiler enabled by " + src.getName());
+				return CommandResult.success();
+			case "off":
+				RuleProfiler.setEnabled(false);
+				src.sendMessage(Text.of(TextColors.RED, "Rule profiler disabled."));
+				LogManager.info("Rule profiler disabled by " + src.getName());
+				return CommandResult.success();
+			case "reset":
+				RuleProfiler.reset(chains);
+				src.sendMessage(Text.of(TextColors.RED, "Rule statistics cleared."));
+				return CommandResult.success();
+			case "dump":
+				File file = new File(PwnFilterPlugin.getInstance().getDataFolder(),
+						"pfstats-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv");
+				try {
+					RuleProfiler.writeCsv(chains, file);
+				} catch (IOException e) {
+					throw new CommandException(Text.of("Unable to write " + file.getName() + ": " + e.getMessage()));
+				}
+				src.sendMessage(Text.of(TextColors.RED, "Rule statistics written to " + file.getName()));
+				LogManager.info("Rule statistics written to " + file.getAbsolutePath() + " by " + src.getName());
+				return CommandResult.success();
+		}
+
+		int count = DEFAULT_COUNT;
+		if (!arg.isEmpty()) {
+			try {
+				count = Integer.parseInt(arg);
+			} catch (NumberFormatException e) {
+				throw new CommandException(Text.of("Usage: /pfstats [on|off|reset|dump|<count>]"));
+			}
+		}
+
+		src.sendMessage(Text.of(TextColors.RED, "Rule profiler is " + (RuleProfiler.isEnabled() ? "on." : "off.  Enable it with /pfstats on")));
+		for (RuleChain chain : chains) {
+			VerdictCache cache = chain.getVerdictCache();
+			src.sendMessage(Text.of(TextColors.GOLD, chain.getConfigName() + ": " + chain.ruleCount() + " rules. Cache hits: " +
+					cache.getHitCount() + ", misses: " + cache.getMissCount()));
+			for (Rule rule : RuleProfiler.getTopRules(chain, count)) {
+				LatencyHistogram latency = rule.getProfile().getLatency();
+				String name = rule.getId().isEmpty() ? rule.toString() : rule.getId();
+				src.sendMessage(Text.of(TextColors.WHITE, String.format("  %s: %d evals, %d matches, %.2fms total, p99 %dus, %d timeouts",
+						name, rule.getEvaluationCount(), rule.getProfile().getMatchCount(), latency.getTotal() / 1e6,
+						latency.getPercentile(99) / 1000, rule.getLimitExceededCount())));
+			}
+		}
+		return CommandResult.success();
+	}
+
+}
@@ -58,7 +58,7 @@ public class PwnFilterBookListener extends BaseListener {
         if (bookMeta.hasTitle()) {
             // Run title through filter.
             message = bookMeta.getTitle();
-            FilterTask filterTask = new FilterTask(new ColoredString(message),
+            FilterTask filterTask = new FilterTask(ColoredString.forMessage(message),
                     MinecraftPlayer.getInstance(player), this);
             ruleChain.execute(filterTask);
             if (filterTask.isCancelled()) event.setCancelled(true);
@@ -73,7 +73,7 @@ public class PwnFilterBookListener extends BaseListener {
             List<String> newPages = new ArrayList<String>();
             boolean modified = false;
             for (String page : bookMeta.getPages()) {
-                FilterTask state = new FilterTask(new ColoredString(page),
+                FilterTask state = new FilterTask(ColoredString.forMessage(page),
                         MinecraftPlayer.getInstance(player.getUniqueId()), this);
                 ruleChain.execute(state);
                 if (state.isCancelled()) {
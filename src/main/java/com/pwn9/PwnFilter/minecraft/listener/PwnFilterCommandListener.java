@@ -102,7 +102,7 @@ public class PwnFilterCommandListener extends BaseListener implements EventListe
         String cmdmessage = event.getCommand();
 
 
-        FilterTask filterTask = new FilterTask(new ColoredString(message), minecraftPlayer, this);
+        FilterTask filterTask = new FilterTask(ColoredString.forMessage(message), minecraftPlayer, this);
 
         // Check to see if we should treat this command as chat (eg: /tell)
         if (SpongeConfig.getCmdchat().contains(cmdmessage)) {
@@ -65,7 +65,7 @@ public class PwnFilterInvListener extends BaseListener {
         if (itemMeta != null && itemMeta.hasDisplayName()) {
             message = itemMeta.getDisplayName();
 
-            FilterTask filterTask = new FilterTask(new ColoredString(message), MinecraftPlayer.getInstance(player), this);
+            FilterTask filterTask = new FilterTask(ColoredString.forMessage(message), MinecraftPlayer.getInstance(player), this);
 
             ruleChain.execute(filterTask);
             if (filterTask.isCancelled()) event.setCancelled(true);
@@ -93,7 +93,7 @@ public class PwnFilterPlayerListener extends BaseListener implements EventListen
         }
 
 
-        FilterTask state = new FilterTask(new ColoredString(message), bukkitPlayer, this);
+        FilterTask state = new FilterTask(ColoredString.forMessage(message), bukkitPlayer, this);
 
         // Global decolor
         if ((SpongeConfig.decolor()) && !(bukkitPlayer.hasPermission("pwnfilter.color"))) {
@@ -108,7 +108,7 @@ public class PwnFilterPlayerListener extends BaseListener implements EventListen
 
         // Only update the message if it has been changed.
         if (state.messageChanged()){
-            event.setMessage(TextSerializers.FORMATTING_CODE.deserialize((state.getModifiedMessage()).getColoredString()));
+            event.setMessage(TextSerializers.FORMATTING_CODE.deserialize(state.getModifiedMessage().getRaw()));
         }
         if (state.isCancelled()) event.setCancelled(true);
     }
@@ -62,7 +62,7 @@ public class PwnFilterServerCommandListener extends BaseListener implements Even
         if (!SpongeConfig.getCmdlist().isEmpty() && !SpongeConfig.getCmdlist().contains(cmdmessage)) return;
         if (SpongeConfig.getCmdblist().contains(cmdmessage)) return;
 
-        FilterTask state = new FilterTask(new ColoredString(command), MinecraftConsole.getInstance(), this);
+        FilterTask state = new FilterTask(ColoredString.forMessage(command), MinecraftConsole.getInstance(), this);
 
         // Take the message from the Command Event and send it through the filter.
 
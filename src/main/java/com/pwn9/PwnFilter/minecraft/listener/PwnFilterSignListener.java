@@ -93,7 +93,7 @@ public class PwnFilterSignListener extends BaseListener implements EventListener
         }
         String signLines = builder.toString().trim();
 
-        FilterTask filterTask = new FilterTask(new ColoredString(signLines), bukkitPlayer, this);
+        FilterTask filterTask = new FilterTask(ColoredString.forMessage(signLines), bukkitPlayer, this);
 
         ruleChain.execute(filterTask);
 
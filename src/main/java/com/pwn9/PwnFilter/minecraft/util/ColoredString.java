@@ -10,7 +10,9 @@
 
 package com.pwn9.PwnFilter.minecraft.util;
 
+import com.pwn9.PwnFilter.util.CharArraySequence;
 import com.pwn9.PwnFilter.util.EnhancedString;
+import com.pwn9.PwnFilter.util.SimpleString;
 
 import java.util.Arrays;
 import java.util.regex.Matcher;
@@ -34,6 +36,14 @@ import javax.annotation.Nonnull;
  *
  * The codes array maps codes to the character following it.  In the example above, plain[10] = 'b', codes[10] = "&4"
  *
+ * Internally, the codes aren't kept in an array as long as the text.  Most
+ * characters have no code, so only the positions that do are stored, in a
+ * sorted array of longs.  Each long holds a position and up to
+ * {@value #CODES_PER_ENTRY} codes, packed as 6-bit indexes into
+ * {@link #CODE_CHARS}; more codes at the same position take more entries.
+ * The order (and case) of the codes is kept, so the raw string comes back
+ * exactly as it went in.  A string without codes shares one empty array.
+ *
  * In any string modification action, the codes will be updated to reflect the new string.
  *
  * @author ptoal
@@ -41,9 +51,33 @@ import javax.annotation.Nonnull;
  */
 public final class ColoredString implements EnhancedString {
 
-    private final String[] codes; // The String array containing the color / formatting codes
+    private static final String CODE_CHARS = "0123456789AaBbCcDdEeFfKkLlMmNnOoRr";
+    private static final int CODE_BITS = 6;
+    private static final int CODES_PER_ENTRY = 4;
+    private static final int COUNT_SHIFT = CODE_BITS * CODES_PER_ENTRY;
+    private static final long[] NO_CODES = new long[0];
+
+    private final long[] codes; // Packed codes, sorted by position.  See codeEntry()
     private final char[] plain; // the plain text
     private final char formatPrefix;
+    private CharArraySequence plainText; // View of plain, created on first use.
+    private String plainString; // toString(), created on first use.
+    private String coloredString; // getColoredString(), created on first use.
+
+    /**
+     * Get the cheapest representation of a message.  Most messages have no
+     * format codes at all, so they are wrapped in a {@link SimpleString},
+     * which doesn't copy or parse anything.  A SimpleString turns into a
+     * ColoredString if a replacement adds codes to it.
+     *
+     * @param raw The message, with '&amp;' format codes.
+     * @return an {@link EnhancedString} for the message.
+     */
+    public static EnhancedString forMessage(String raw) {
+        // A prefix that doesn't start a valid code is just text, but it's
+        // rare enough that it isn't worth checking here.
+        return (raw.indexOf('&') < 0) ? new SimpleString(raw) : new ColoredString(raw);
+    }
 
     /**
      * <p>Constructor for ColoredString.</p>
@@ -63,28 +97,24 @@ public final class ColoredString implements EnhancedString {
     public ColoredString(String s, char prefix) {
         formatPrefix = prefix;
         char[] raw = s.toCharArray();
-        char[] tmpPlain = new char[raw.length];
-        String[] tmpCodes = new String[raw.length+1];
+        char[] tmpPlain = null; // Only needed once we find a code.
+        CodeBuilder tmpCodes = new CodeBuilder();
 
         int textpos = 0;
 
         for (int i = 0; i < raw.length ; i++) {
-            if (i != raw.length-1 && raw[i] == formatPrefix && "0123456789AaBbCcDdEeFfKkLlMmNnOoRr".indexOf(raw[i+1]) > -1) {
-                if (tmpCodes[textpos] == null) {
-                    tmpCodes[textpos] = new String(raw,i,2);
-                } else {
-                    tmpCodes[textpos] += new String(raw,i,2);
-                }
+            int code;
+            if (i != raw.length-1 && raw[i] == formatPrefix && (code = CODE_CHARS.indexOf(raw[i+1])) > -1) {
+                if (tmpPlain == null) tmpPlain = Arrays.copyOf(raw, raw.length);
+                tmpCodes.add(textpos, code);
                 i++; // Move past the code character.
             } else {
-                tmpPlain[textpos] = raw[i];
+                if (tmpPlain != null) tmpPlain[textpos] = raw[i];
                 textpos++;
             }
         }
-        plain = Arrays.copyOf(tmpPlain,textpos);
-        // Copy one more code than the plain string
-        // so we can capture any trailing format codes.
-        codes = Arrays.copyOf(tmpCodes,textpos+1);
+        plain = (tmpPlain == null) ? raw : Arrays.copyOf(tmpPlain,textpos);
+        codes = tmpCodes.toArray();
     }
 
     /**
@@ -93,7 +123,7 @@ public final class ColoredString implements EnhancedString {
      * @param c a {@link ColoredString} object.
      */
     public ColoredString(ColoredString c) {
-        // Create a copy of the original array.
+        // Both arrays are never modified, so they can be shared.
         codes = c.codes;
         plain = c.plain;
         formatPrefix = c.formatPrefix;
@@ -103,15 +133,120 @@ public final class ColoredString implements EnhancedString {
      * <p>Constructor for ColoredString.</p>
      *
      * @param plain an array of char.
-     * @param codes an array of {@link java.lang.String} objects.
+     * @param codes an array of {@link java.lang.String} objects, as returned by {@link #getCodeArray()}.
      * @param prefix a char.
+     * @throws IllegalArgumentException if a code is not a valid color or format code.
      */
     public ColoredString(char[] plain, String[] codes, char prefix) {
         this.plain = plain;
-        this.codes = Arrays.copyOf(codes,plain.length+1);
+        CodeBuilder tmpCodes = new CodeBuilder();
+        for (int i = 0; i < codes.length && i <= plain.length; i++) {
+            String c = codes[i];
+            if (c == null) continue;
+            for (int j = 1; j < c.length(); j += 2) {
+                int code = CODE_CHARS.indexOf(c.charAt(j));
+                if (code < 0) throw new IllegalArgumentException("Not a format code: " + c);
+                tmpCodes.add(i, code);
+            }
+        }
+        this.codes = tmpCodes.toArray();
         formatPrefix = prefix;
     }
 
+    private ColoredString(char[] plain, long[] codes, char prefix) {
+        this.plain = plain;
+        this.codes = codes;
+        this.formatPrefix = prefix;
+    }
+
+    /* Packed code entries */
+
+    private static long codeEntry(int position, int code) {
+        return ((long) position << 32) | (1L << COUNT_SHIFT) | code;
+    }
+
+    private static int position(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int codeCount(long entry) {
+        return (int) (entry >>> COUNT_SHIFT) & 0xff;
+    }
+
+    private static int code(long entry, int n) {
+        return (int) (entry >>> (n * CODE_BITS)) & ((1 << CODE_BITS) - 1);
+    }
+
+    /* Index of the first entry at or after position. */
+    private int firstEntryAt(int position) {
+        int lo = 0, hi = codes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (position(codes[mid]) < position) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /* The plain text, for SplicedString.  Must not be modified. */
+    char[] plainArray() {
+        return plain;
+    }
+
+    /* The format prefix, for SplicedString. */
+    char formatPrefix() {
+        return formatPrefix;
+    }
+
+    /* True if there are codes before the char at position (or trailing codes, at length()). */
+    boolean hasCodesAt(int position) {
+        int i = firstEntryAt(position);
+        return i < codes.length && position(codes[i]) == position;
+    }
+
+    private void appendCodes(StringBuilder sb, long entry) {
+        for (int n = 0; n < codeCount(entry); n++) {
+            sb.append(formatPrefix).append(CODE_CHARS.charAt(code(entry, n)));
+        }
+    }
+
+    /**
+     * Accumulates codes, in position order, into packed entries.
+     */
+    private static final class CodeBuilder {
+        private long[] entries;
+        private int size;
+
+        void add(int position, int code) {
+            if (size > 0) {
+                long last = entries[size - 1];
+                int count = codeCount(last);
+                if (position(last) == position && count < CODES_PER_ENTRY) {
+                    entries[size - 1] = (last & ~(0xffL << COUNT_SHIFT)) | ((long) (count + 1) << COUNT_SHIFT) |
+                            ((long) code << (count * CODE_BITS));
+                    return;
+                }
+            }
+            if (entries == null) {
+                entries = new long[4];
+            } else if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = codeEntry(position, code);
+        }
+
+        /* Add the codes of one entry, moved to a new position. */
+        void add(int position, long entry) {
+            for (int n = 0; n < codeCount(entry); n++) {
+                add(position, code(entry, n));
+            }
+        }
+
+        long[] toArray() {
+            return (size == 0) ? NO_CODES : Arrays.copyOf(entries, size);
+        }
+    }
+
     /* CharSequence methods */
     /**
      * <p>length.</p>
@@ -131,11 +266,34 @@ public final class ColoredString implements EnhancedString {
         return new String(Arrays.copyOfRange(plain,i,j));
     }
 
+    /**
+     * A read-only view of the plain text, for regex matching without copying
+     * it into a String.  The same view is returned every time, so every rule
+     * that looks at this version of a message reads the same buffer.
+     *
+     * @return the plain text, without codes.
+     */
+    @Override
+    public CharArraySequence getPlainText() {
+        CharArraySequence view = plainText;
+        if (view == null) {
+            // A harmless race: the view is immutable, so at worst two are made.
+            view = new CharArraySequence(plain);
+            plainText = view;
+        }
+        return view;
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull
     public String toString() {
-        return new String(plain);
+        String result = plainString;
+        if (result == null) {
+            result = new String(plain);
+            plainString = result;
+        }
+        return result;
     }
 
     // Return a string with color codes interleaved.
@@ -145,27 +303,49 @@ public final class ColoredString implements EnhancedString {
      * @return a {@link java.lang.String} object.
      */
     public String getColoredString() {
-        StringBuilder sb = new StringBuilder();
+        String result = coloredString;
+        if (result == null) {
+            result = (codes.length == 0) ? toString() : buildColoredString();
+            coloredString = result;
+        }
+        return result;
+    }
+
+    private String buildColoredString() {
+        StringBuilder sb = new StringBuilder(plain.length + 2 * CODES_PER_ENTRY * codes.length);
 
-        for (int i = 0 ; i < plain.length ; i++ ) {
-            if ( codes[i] != null ) sb.append(codes[i]);
-            sb.append(plain[i]);
+        int textpos = 0;
+        for (long entry : codes) {
+            int position = position(entry);
+            sb.append(plain, textpos, position - textpos);
+            textpos = position;
+            appendCodes(sb, entry);
         }
-        // Check to see if there is a code at the end of the text
-        // If so, append it to the end of the string.
-        if (codes[codes.length-1] != null)
-            sb.append(codes[codes.length-1]);
+        // Codes at the end of the text are already appended.
+        sb.append(plain, textpos, plain.length - textpos);
         return sb.toString();
     }
 
     // Return the char array with the code information.
     /**
-     * <p>getCodeArray.</p>
+     * Build an array, one longer than the plain text, with the codes that
+     * come before each character (or null if there aren't any).  The last
+     * element holds any codes at the end of the text.
      *
      * @return an array of {@link java.lang.String} objects.
      */
     public String[] getCodeArray() {
-        return codes;
+        String[] result = new String[plain.length + 1];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            appendCodes(sb, codes[i]);
+            int position = position(codes[i]);
+            if (i == codes.length - 1 || position(codes[i + 1]) != position) {
+                result[position] = sb.toString();
+                sb.setLength(0);
+            }
+        }
+        return result;
     }
 
 
@@ -187,92 +367,129 @@ public final class ColoredString implements EnhancedString {
      * replace baz with nothing:
      * Test &1&2
      *
+     * Codes inside a match are dropped.  The codes just before and just after
+     * a match are kept, as are the codes in the replacement.
+     *
      * @param p Regex Pattern
      * @param rText Replacement Text
      * @return a {@link ColoredString} object.
      */
     @Override
     public ColoredString replaceText(Pattern p, String rText) {
-        Matcher m = p.matcher(new String(plain));
-        ColoredString replacement = new ColoredString(rText);
-
-        // Start with an empty set of arrays.  These will be incrementally added
-        // to, as we replace each match.
-        char[] lastMatchText = new char[0];
-        String[] lastMatchCodes = new String[1];
-
-        int currentPosition = 0;
-
-        while (m.find()) {
-            int mStart = m.start();
-            int mEnd = m.end();
+        Matcher m = p.matcher(getPlainText());
+        if (!m.find()) return this;
 
-            int lastMatchTextLength = lastMatchText.length;
-            int middleLen = mStart - currentPosition;
-
-            int newLength = lastMatchTextLength + middleLen + replacement.length();
-
-            char[] currentText = new char[newLength];
-            String[] currentCodes = new String[newLength+1];
-
-            // Copy all of the text up to the end of the last match.
-            System.arraycopy(lastMatchText,0,currentText,0,lastMatchTextLength);
-            // Copy any text between the end of the last match and the start
-            // of this match.
-            System.arraycopy(plain,currentPosition,currentText,lastMatchTextLength ,middleLen);
-            // Append replacement text in place of current text.
-            System.arraycopy(replacement.plain,0,currentText,lastMatchTextLength+middleLen,replacement.length());
-
-            /*
-             Now, copy the format codes.  If there are "trailing" format codes
-             from the previous match, prepend them to the codes for the next character.
-            */
-
-            // First, the codes up to the end of the last match, including any trailing codes.
-            System.arraycopy(lastMatchCodes,0,currentCodes,0,lastMatchTextLength+1);
-
-            // Append the first code to the trailing code.
-            currentCodes[lastMatchTextLength] = mergeCodes(currentCodes[lastMatchTextLength],codes[currentPosition]);
-
-            // Copy the codes from between the last match and this one.
-            System.arraycopy(codes,currentPosition+1,currentCodes,lastMatchTextLength+1,middleLen);
-
-            // Append the first replacement code to the trailing code.
-            currentCodes[lastMatchTextLength+middleLen] = mergeCodes(currentCodes[lastMatchTextLength+middleLen],replacement.codes[0]);
-
-            // Copy the codes from the replacement text.
-            if (replacement.codes.length > 1)
-                System.arraycopy(replacement.codes,1,currentCodes,lastMatchTextLength+1+middleLen,replacement.length());
-
-
-            currentPosition = mEnd; // Set the position in the original string to the end of the match
+        ColoredString replacement = new ColoredString(rText);
+        Builder result = new Builder(formatPrefix, plain.length + replacement.length());
+
+        int currentPosition = 0; // Position in this string
+        do {
+            // Copy the text between the end of the last match and the start of
+            // this one, including the codes before the match, then the
+            // replacement with all of its codes.  Its trailing codes come
+            // before the first code after the match.
+            result.append(this, currentPosition, m.start()).append(replacement);
+            currentPosition = m.end(); // Set the position in the original string to the end of the match
+        } while (m.find());
 
-            lastMatchText = currentText;
-            lastMatchCodes = currentCodes;
+        // Copy the original text from the end of the last match to the end
+        // of the string, and the codes, including the trailing code.
+        return result.append(this, currentPosition, plain.length).build();
+    }
 
+    /**
+     * Builds a ColoredString from pieces of others, appending each piece
+     * once.  Codes that end up at the same position (for example, the
+     * trailing codes of one piece and the leading codes of the next) are
+     * kept in the order they were appended.
+     */
+    public static final class Builder {
+        private final char formatPrefix;
+        private char[] text;
+        private int length;
+        private final CodeBuilder codes = new CodeBuilder();
+
+        /**
+         * @param prefix The format prefix of the result
+         * @param capacity Expected length of the plain text
+         */
+        public Builder(char prefix, int capacity) {
+            formatPrefix = prefix;
+            text = new char[Math.max(capacity, 16)];
         }
 
-        char[] tempText = new char[lastMatchText.length + plain.length - currentPosition];
-        String[] tempCodes = new String[lastMatchText.length + plain.length - currentPosition + 1 ];
-
-        // Copy the text we've processed in previous matches.
-        System.arraycopy(lastMatchText,0,tempText,0,lastMatchText.length);
-        // ... and copy the formats
-        System.arraycopy(lastMatchCodes,0,tempCodes,0,lastMatchText.length);
-
-        // Copy the original text from the end of the last match to the end
-        // of the string.
-        System.arraycopy(plain,currentPosition,tempText,lastMatchText.length,plain.length - currentPosition);
+        /**
+         * Append the plain text source[start..end), with the codes before
+         * each of those characters, and the codes before source[end] (or
+         * the trailing codes, if end is the length of source).
+         *
+         * @param source The string to copy from
+         * @param start Offset of the first char to copy
+         * @param end Offset after the last char to copy
+         * @return this Builder
+         */
+        public Builder append(ColoredString source, int start, int end) {
+            long[] sourceCodes = source.codes;
+            for (int i = source.firstEntryAt(start); i < sourceCodes.length; i++) {
+                int position = position(sourceCodes[i]);
+                if (position > end) break;
+                codes.add(length + position - start, sourceCodes[i]);
+            }
+            int count = end - start;
+            if (length + count > text.length) {
+                text = Arrays.copyOf(text, Math.max(length + count, text.length * 2));
+            }
+            System.arraycopy(source.plain, start, text, length, count);
+            length += count;
+            return this;
+        }
 
-        // Merge the codes from the end of the last segment and the beginning of this one
-        tempCodes[lastMatchText.length] = mergeCodes(lastMatchCodes[lastMatchText.length],codes[currentPosition]);
+        /**
+         * Append text that has no codes.
+         *
+         * @param source The text to copy from
+         * @param start Offset of the first char to copy
+         * @param end Offset after the last char to copy
+         * @return this Builder
+         */
+        public Builder appendPlain(CharSequence source, int start, int end) {
+            int count = end - start;
+            if (length + count > text.length) {
+                text = Arrays.copyOf(text, Math.max(length + count, text.length * 2));
+            }
+            if (source instanceof String) {
+                ((String) source).getChars(start, end, text, length);
+                length += count;
+            } else {
+                for (int i = start; i < end; i++) {
+                    text[length++] = source.charAt(i);
+                }
+            }
+            return this;
+        }
 
-        // Copy the remaining codes (not the first one, it was already appended),
-        // as well as the trailing code.
-        System.arraycopy(codes,currentPosition+1,tempCodes,lastMatchText.length+1,plain.length - currentPosition);
+        /**
+         * Append all of source, including its trailing codes.
+         *
+         * @param source The string to copy
+         * @return this Builder
+         */
+        public Builder append(ColoredString source) {
+            return append(source, 0, source.plain.length);
+        }
 
-        return new ColoredString(tempText, tempCodes, formatPrefix);
+        /**
+         * @return the length of the plain text so far.
+         */
+        public int length() {
+            return length;
+        }
 
+        public ColoredString build() {
+            char[] result = (length == text.length) ? text : Arrays.copyOf(text, length);
+            text = result; // Full, so appending more will copy it rather than change the result.
+            return new ColoredString(result, codes.toArray(), formatPrefix);
+        }
     }
 
     /**
@@ -282,16 +499,20 @@ public final class ColoredString implements EnhancedString {
      * @return a {@link ColoredString} object.
      */
     public ColoredString patternToLower (Pattern p) {
-        char[] modified = plain.clone();
+        char[] modified = null; // Only copied once a char actually changes.
 
-        Matcher m = p.matcher(new String(plain));
+        Matcher m = p.matcher(getPlainText());
 
         while (m.find()) {
             for (int i = m.start(); i < m.end(); i++) {
-                modified[i] = Character.toLowerCase(modified[i]);
+                char c = Character.toLowerCase(plain[i]);
+                if (c != plain[i]) {
+                    if (modified == null) modified = plain.clone();
+                    modified[i] = c;
+                }
             }
         }
-        return new ColoredString(modified, codes, formatPrefix);
+        return (modified == null) ? this : new ColoredString(modified, codes, formatPrefix);
     }
 
     /**
@@ -301,44 +522,46 @@ public final class ColoredString implements EnhancedString {
      * @return a {@link ColoredString} object.
      */
     public ColoredString patternToUpper (Pattern p) {
-        char[] modified = plain.clone();
+        char[] modified = null; // Only copied once a char actually changes.
 
-        Matcher m = p.matcher(new String(plain));
+        Matcher m = p.matcher(getPlainText());
 
         while (m.find()) {
             for (int i = m.start(); i < m.end(); i++) {
-                modified[i] = Character.toUpperCase(modified[i]);
+                char c = Character.toUpperCase(plain[i]);
+                if (c != plain[i]) {
+                    if (modified == null) modified = plain.clone();
+                    modified[i] = c;
+                }
             }
         }
-        return new ColoredString(modified, codes, formatPrefix);
-    }
-
-    /**
-     * Returns a concatenation of two strings, a + b.  If a or b are null, they
-     * are converted to an empty string.  If both a and b are null, returns null.
-     * @param a First string to concatenate
-     * @param b Second string to concatenate
-     * @return Concatenation of a and b, or null if they are both null.
-     */
-    private String mergeCodes(String a, String b) {
-        String result = (a == null)?"":a;
-        if (b != null) {
-            result += b;
-        }
-        return (result.isEmpty())?null:result;
-
+        return (modified == null) ? this : new ColoredString(modified, codes, formatPrefix);
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof ColoredString ) {
-            return ((ColoredString) obj).getColoredString().equals(getColoredString());
+        if (obj == this) return true;
+        if (obj instanceof EnhancedString && !(obj instanceof ColoredString)) {
+            return getColoredString().equals(((EnhancedString) obj).getRaw());
+        } else if (obj instanceof ColoredString ) {
+            ColoredString other = (ColoredString) obj;
+            // Codes are always packed the same way, so equal arrays mean equal
+            // strings.  Different arrays can still give the same string, though
+            // (eg: a '&' followed by a '1' looks like a code), so check that too.
+            if (other.formatPrefix == formatPrefix && Arrays.equals(other.plain, plain) &&
+                    Arrays.equals(other.codes, codes)) return true;
+            return other.getColoredString().equals(getColoredString());
         } else {
             return getColoredString().equals(obj);
         }
     }
 
+    @Override
+    public int hashCode() {
+        return getColoredString().hashCode();
+    }
+
     @Override
     public String getRaw() {
         return getColoredString();
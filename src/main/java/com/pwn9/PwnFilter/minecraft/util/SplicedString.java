@@ -0,0 +1,250 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.minecraft.util;
+
+import com.pwn9.PwnFilter.util.CharArraySequence;
+import com.pwn9.PwnFilter.util.EnhancedString;
+import com.pwn9.PwnFilter.util.SimpleString;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A message made of pieces of other messages, for running many replacements
+ * in a row without rebuilding the whole string each time.
+ * <p>
+ * Each piece is a range of a {@link ColoredString} or {@link SimpleString}:
+ * the original message, or the text of a replacement.
+ * {@link #replaceText(Pattern, String)} only rearranges the pieces, and
+ * patterns are matched against a plain-text copy, without the codes.
+ * {@link #join()} builds the real message once, at the end.
+ * <p>
+ * A piece includes the codes at both of its ends, like
+ * {@link ColoredString.Builder#append(ColoredString, int, int)}, so the
+ * joined message is exactly what the same calls to
+ * {@link ColoredString#replaceText(Pattern, String)} would have produced.
+ * <p>
+ * Like the other EnhancedStrings, this is immutable.
+ */
+public final class SplicedString implements EnhancedString {
+
+    private final EnhancedString original; // The message we started from, if nothing has been replaced.
+    private final EnhancedString[] sources;
+    private final int[] starts; // Offset of each piece in its source
+    private final int[] offsets; // Offset of each piece in this string.  offsets[pieceCount] is the length.
+    private final int pieceCount;
+    private final char formatPrefix; // Of the message we started from, for the joined message.
+    private EnhancedString joined;
+    private CharArraySequence plainText;
+
+    private SplicedString(EnhancedString original, EnhancedString[] sources, int[] starts, int[] offsets,
+                          int pieceCount, char formatPrefix) {
+        this.original = original;
+        this.sources = sources;
+        this.starts = starts;
+        this.offsets = offsets;
+        this.pieceCount = pieceCount;
+        this.formatPrefix = formatPrefix;
+    }
+
+    /**
+     * @param message A ColoredString or SimpleString
+     * @return a SplicedString with the message as its only piece, or null if
+     * the message is some other kind of EnhancedString.
+     */
+    public static SplicedString of(EnhancedString message) {
+        if (message instanceof SplicedString) return (SplicedString) message;
+        if (!(message instanceof ColoredString || message instanceof SimpleString)) return null;
+        // A SimpleString that gets codes becomes a ColoredString with the default prefix.
+        char prefix = (message instanceof ColoredString) ? ((ColoredString) message).formatPrefix() : '&';
+        return new SplicedString(message, new EnhancedString[]{message}, new int[]{0},
+                new int[]{0, message.length()}, 1, prefix);
+    }
+
+    /**
+     * Build the message.  If nothing was replaced, this is the message the
+     * SplicedString was made from.
+     *
+     * @return the message, as a ColoredString (or the original message).
+     */
+    public EnhancedString join() {
+        if (original != null) return original;
+        EnhancedString result = joined;
+        if (result == null) {
+            ColoredString.Builder builder = new ColoredString.Builder(formatPrefix, length());
+            for (int k = 0; k < pieceCount; k++) {
+                int start = starts[k], end = start + offsets[k + 1] - offsets[k];
+                if (sources[k] instanceof ColoredString) {
+                    builder.append((ColoredString) sources[k], start, end);
+                } else {
+                    builder.appendPlain(sources[k].getPlainText(), start, end);
+                }
+            }
+            result = builder.build();
+            joined = result;
+        }
+        return result;
+    }
+
+    @Override
+    public int length() {
+        return offsets[pieceCount];
+    }
+
+    @Override
+    public char charAt(int index) {
+        return getPlainText().charAt(index);
+    }
+
+    /* The last piece starting at or before index.  Empty pieces never contain index, so it's never one of those. */
+    private int pieceAt(int index) {
+        int lo = 0, hi = pieceCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= index) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getPlainText().subSequence(start, end);
+    }
+
+    /**
+     * Replace all occurrences of the pattern.  The result shares the pieces
+     * of this string, plus a piece for the replacement text.
+     *
+     * @param p Regex Pattern
+     * @param rText Replacement Text
+     * @return a new SplicedString, or this one if the pattern doesn't match.
+     */
+    @Override
+    public SplicedString replaceText(Pattern p, String rText) {
+        Matcher m = p.matcher(getPlainText());
+        if (!m.find()) return this;
+
+        EnhancedString replacement = ColoredString.forMessage(rText);
+        Pieces result = new Pieces(pieceCount + 4);
+        int currentPosition = 0;
+        do {
+            copyRange(result, currentPosition, m.start());
+            result.add(replacement, 0, replacement.length());
+            currentPosition = m.end();
+        } while (m.find());
+        copyRange(result, currentPosition, length());
+        return new SplicedString(null, result.sources, result.starts, result.offsets, result.count, formatPrefix);
+    }
+
+    /* Add the pieces covering from..to, with the codes at both ends. */
+    private void copyRange(Pieces target, int from, int to) {
+        // Start at the first piece that ends at or after from.
+        int k = (from == 0) ? 0 : pieceAt(from - 1);
+        for (; k < pieceCount && offsets[k] <= to; k++) {
+            if (offsets[k + 1] < from) continue;
+            int start = Math.max(from, offsets[k]), end = Math.min(to, offsets[k + 1]);
+            target.add(sources[k], starts[k] + start - offsets[k], starts[k] + end - offsets[k]);
+        }
+    }
+
+    /* Accumulates pieces for a new SplicedString. */
+    private static final class Pieces {
+        EnhancedString[] sources;
+        int[] starts;
+        int[] offsets;
+        int count;
+
+        Pieces(int capacity) {
+            sources = new EnhancedString[capacity];
+            starts = new int[capacity];
+            offsets = new int[capacity + 1];
+        }
+
+        void add(EnhancedString source, int start, int end) {
+            // An empty piece only matters if it brings codes with it.
+            if (start == end && !(source instanceof ColoredString && ((ColoredString) source).hasCodesAt(start))) {
+                return;
+            }
+            if (count == sources.length) {
+                sources = Arrays.copyOf(sources, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            sources[count] = source;
+            starts[count] = start;
+            offsets[count + 1] = offsets[count] + end - start;
+            count++;
+        }
+    }
+
+    @Override
+    public EnhancedString patternToLower(Pattern p) {
+        EnhancedString message = join();
+        EnhancedString result = message.patternToLower(p);
+        return (result == message) ? this : result;
+    }
+
+    @Override
+    public EnhancedString patternToUpper(Pattern p) {
+        EnhancedString message = join();
+        EnhancedString result = message.patternToUpper(p);
+        return (result == message) ? this : result;
+    }
+
+    @Override
+    public String getRaw() {
+        return join().getRaw();
+    }
+
+    /**
+     * The plain text is copied out of the pieces the first time it's needed,
+     * which is a lot cheaper than building the whole message with its codes,
+     * and much faster to match against than the pieces themselves.
+     */
+    @Override
+    public CharSequence getPlainText() {
+        if (original != null) return original.getPlainText();
+        CharArraySequence result = plainText;
+        if (result == null) {
+            char[] chars = new char[length()];
+            for (int k = 0; k < pieceCount; k++) {
+                int start = starts[k], length = offsets[k + 1] - offsets[k];
+                if (sources[k] instanceof ColoredString) {
+                    System.arraycopy(((ColoredString) sources[k]).plainArray(), start, chars, offsets[k], length);
+                } else {
+                    sources[k].getPlainText().toString().getChars(start, start + length, chars, offsets[k]);
+                }
+            }
+            result = new CharArraySequence(chars);
+            plainText = result;
+        }
+        return result;
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return join().toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return join().equals((obj instanceof SplicedString) ? ((SplicedString) obj).join() : obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return join().hashCode();
+    }
+}
@@ -10,8 +10,12 @@
 
 package com.pwn9.PwnFilter.minecraft.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Plugin Metrics Tracker class (courtesy of mbaxter)
+ * <p>
+ * Events are filtered on many threads at once, so the counter is atomic.
  *
  * @author ptoal
  * @version $Id: $Id
@@ -19,7 +23,8 @@ package com.pwn9.PwnFilter.minecraft.util;
 public class Tracker extends Metrics.Plotter {
 
     private final String name;
-    private int value, last;
+    private final AtomicInteger value = new AtomicInteger();
+    private volatile int last;
 
     /**
      * <p>Constructor for Tracker.</p>
@@ -28,7 +33,6 @@ public class Tracker extends Metrics.Plotter {
      */
     public Tracker(String name) {
         this.name = name;
-        this.value = 0;
         this.last = 0;
     }
 
@@ -41,21 +45,22 @@ public class Tracker extends Metrics.Plotter {
     /** {@inheritDoc} */
     @Override
     public int getValue() {
-        this.last = this.value;
-        return this.value;
+        int current = this.value.get();
+        this.last = current;
+        return current;
     }
 
     /**
      * <p>increment.</p>
      */
     public void increment() {
-        this.value++;
+        this.value.incrementAndGet();
     }
 
     /** {@inheritDoc} */
     @Override
     public void reset() {
-        this.value = this.value - this.last;
+        this.value.addAndGet(-this.last);
     }
 
 }
@@ -82,6 +82,22 @@ public interface Chain {
      */
     void addActionGroup(String name, List<Action> aGroup);
 
+    /**
+     * Set the time limit for each regex match, for rules in this chain that
+     * don't set their own.
+     *
+     * @param timeoutMillis Time limit in milliseconds.  0 for no limit.
+     */
+    void setTimeout(int timeoutMillis);
+
+    /**
+     * Set the maximum number of characters the regex engine may read in a
+     * single match, for rules in this chain that don't set their own.
+     *
+     * @param stepLimit Maximum number of characters.  0 for no limit.
+     */
+    void setStepLimit(long stepLimit);
+
     /**
      * <p>isEmpty.</p>
      *
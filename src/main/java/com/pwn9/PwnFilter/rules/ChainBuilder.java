@@ -0,0 +1,213 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.regex.MultiPatternAutomaton;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the entries and groups of a chain while it is being parsed, and
+ * compiles them into an immutable {@link CompiledChain}.
+ * <p>
+ * A builder is only ever used by the thread loading the chain; nothing
+ * filters against it until it has been built and published.
+ */
+public class ChainBuilder implements Chain {
+
+    private final String configName;
+    private final List<ChainEntry> entries = new ArrayList<>();
+    private final Multimap<String, Action> actionGroups = ArrayListMultimap.create();
+    private final Multimap<String, Condition> conditionGroups = ArrayListMultimap.create();
+    private final Set<String> files = new LinkedHashSet<>();
+    private int timeoutMillis = Rule.MATCH_TIMEOUT_MILLIS;
+    private long stepLimit = 0;
+
+    /**
+     * @param configName Name of the chain being built.
+     */
+    public ChainBuilder(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * Start a builder with the entries and groups of an existing snapshot.
+     *
+     * @param from The snapshot to copy
+     */
+    public ChainBuilder(CompiledChain from) {
+        this(from.getConfigName());
+        entries.addAll(from.getSources());
+        actionGroups.putAll(from.getActionGroups());
+        conditionGroups.putAll(from.getConditionGroups());
+        files.addAll(from.getFiles());
+        timeoutMillis = from.getTimeout();
+        stepLimit = from.getStepLimit();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getConfigName() {
+        return configName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void append(ChainEntry r) {
+        if (r.isValid()) {
+            entries.add(r);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Multimap<String, Action> getActionGroups() {
+        return actionGroups;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Multimap<String, Condition> getConditionGroups() {
+        return conditionGroups;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void resetChain() {
+        entries.clear();
+        actionGroups.clear();
+        conditionGroups.clear();
+        files.clear();
+        timeoutMillis = Rule.MATCH_TIMEOUT_MILLIS;
+        stepLimit = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addConditionGroup(String name, List<Condition> cGroup) {
+        if (name != null && cGroup != null)
+            if (conditionGroups.get(name).isEmpty()) {
+                conditionGroups.get(name).addAll(cGroup);
+            } else {
+                LogManager.getInstance().debugLow("Condition Group named '" + name + "' already exists in chain: " + getConfigName());
+            }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addActionGroup(String name, List<Action> aGroup) {
+        if (name != null && aGroup != null)
+            if (!actionGroups.containsKey(name)) {
+                actionGroups.get(name).addAll(aGroup);
+            } else {
+                LogManager.getInstance().debugLow("Action Group named '" + name + "' already exists in chain: " + getConfigName());
+            }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setStepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+    }
+
+    /**
+     * Record the files the chain was loaded from.
+     *
+     * @param fileNames Names of rule and shortcut files
+     */
+    public void addFiles(Collection<String> fileNames) {
+        files.addAll(fileNames);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Compile the entries collected so far.  Nested RuleChains are replaced
+     * by the entries of their current snapshot.
+     *
+     * @return A new immutable snapshot.
+     */
+    public CompiledChain build() {
+        List<ChainEntry> flat = new ArrayList<>(entries.size());
+        List<Integer> timeouts = new ArrayList<>(entries.size());
+        List<Long> stepLimits = new ArrayList<>(entries.size());
+        for (ChainEntry entry : entries) {
+            if (entry instanceof RuleChain) {
+                CompiledChain nested = ((RuleChain) entry).getCompiledChain();
+                for (int i = 0; i < nested.size(); i++) {
+                    flat.add(nested.getEntry(i));
+                    timeouts.add(nested.getTimeout(i));
+                    stepLimits.add(nested.getStepLimit(i));
+                }
+            } else {
+                flat.add(entry);
+                // Rules can override the chain's limits.
+                Rule rule = (entry instanceof Rule) ? (Rule) entry : null;
+                timeouts.add((rule != null && rule.getTimeout() != Rule.UNSET) ? rule.getTimeout() : timeoutMillis);
+                stepLimits.add((rule != null && rule.getStepLimit() != Rule.UNSET) ? rule.getStepLimit() : stepLimit);
+            }
+        }
+        int[] entryTimeouts = new int[flat.size()];
+        long[] entryStepLimits = new long[flat.size()];
+        for (int i = 0; i < flat.size(); i++) {
+            entryTimeouts[i] = timeouts.get(i);
+            entryStepLimits[i] = stepLimits.get(i);
+        }
+
+        MultiPatternAutomaton automaton = null;
+        if (FilterConfig.getInstance().getMatchEngine(configName) == MatchEngine.AUTOMATON) {
+            List<Pattern> patterns = new ArrayList<>(flat.size());
+            for (ChainEntry entry : flat) {
+                patterns.add((entry instanceof Rule) ? ((Rule) entry).getPattern() : null);
+            }
+            automaton = MultiPatternAutomaton.compile(patterns);
+            LogManager.getInstance().debugMedium("Automaton for " + configName + " matches " +
+                    automaton.supportedCount() + " of " + flat.size() + " entries.");
+        }
+
+        CompiledChain compiled = new CompiledChain(configName, new ArrayList<>(entries),
+                flat.toArray(new ChainEntry[flat.size()]),
+                ImmutableListMultimap.copyOf(actionGroups), ImmutableListMultimap.copyOf(conditionGroups),
+                ImmutableSet.copyOf(files),
+                timeoutMillis, stepLimit, entryTimeouts, entryStepLimits, automaton);
+        LogManager.getInstance().debugMedium("Literal prefilter for " + configName + " indexes " +
+                compiled.getPrefilter().filteredCount() + " of " + flat.size() + " entries.");
+        return compiled;
+    }
+}
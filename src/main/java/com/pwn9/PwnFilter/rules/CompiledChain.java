@@ -0,0 +1,440 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.minecraft.util.SplicedString;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.core.Log;
+import com.pwn9.PwnFilter.rules.action.core.Replace;
+import com.pwn9.PwnFilter.rules.action.core.Rewrite;
+import com.pwn9.PwnFilter.util.EnhancedString;
+import com.pwn9.PwnFilter.util.LimitedRegexCharSequence;
+import com.pwn9.PwnFilter.util.PatternPool;
+import com.pwn9.PwnFilter.util.regex.MultiPatternAutomaton;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, ready-to-run snapshot of a RuleChain.
+ * <p>
+ * A snapshot is built completely by a {@link ChainBuilder}, and then
+ * published by the RuleChain in one volatile write.  Event threads read the
+ * current snapshot once per message, so a reload never exposes a partially
+ * loaded chain, and never blocks filtering.
+ * <p>
+ * Entries are stored as an array, with any nested RuleChains replaced by
+ * their own entries.  The match indexes for the chain (the
+ * {@link LiteralPrefilter}, and the automaton if enabled) are built with it.
+ */
+public final class CompiledChain {
+
+    private static final AtomicLong epochs = new AtomicLong();
+
+    // Whether runs of replace rules share a SplicedString.  Only turned off
+    // by tests, to check that the runs give the same result.
+    static boolean spliceRuns = true;
+
+    private final String configName;
+    private final long epoch;
+    private final List<ChainEntry> sources;
+    private final ChainEntry[] entries;
+    private final ImmutableListMultimap<String, Action> actionGroups;
+    private final ImmutableListMultimap<String, Condition> conditionGroups;
+    private final ImmutableSet<String> files;
+    private final Set<String> permissions;
+    private final LiteralPrefilter prefilter;
+    private final MultiPatternAutomaton automaton;
+    private final int timeoutMillis;
+    private final long stepLimit;
+    private final int[] entryTimeouts;
+    private final long[] entryStepLimits;
+    // Indexes of the entries that apply to each listener.  Null if no rule is limited to some events.
+    private final Map<String, int[]> listenerEntries;
+    private final int[] unlistedEntries;
+    // For entries in a run of rules that only replace text, the index of the last rule in the run.  Otherwise -1.
+    private final int[] runLast;
+    private final ThreadLocal<Context> contexts;
+
+    CompiledChain(String configName, List<ChainEntry> sources, ChainEntry[] entries,
+                  ImmutableListMultimap<String, Action> actionGroups,
+                  ImmutableListMultimap<String, Condition> conditionGroups, ImmutableSet<String> files,
+                  int timeoutMillis, long stepLimit, int[] entryTimeouts, long[] entryStepLimits,
+                  MultiPatternAutomaton automaton) {
+        this.configName = configName;
+        this.epoch = epochs.incrementAndGet();
+        this.sources = Collections.unmodifiableList(sources);
+        this.entries = entries;
+        this.actionGroups = actionGroups;
+        this.conditionGroups = conditionGroups;
+        this.files = files;
+        this.timeoutMillis = timeoutMillis;
+        this.stepLimit = stepLimit;
+        this.entryTimeouts = entryTimeouts;
+        this.entryStepLimits = entryStepLimits;
+        this.automaton = automaton;
+        this.prefilter = LiteralPrefilter.build(Arrays.asList(entries));
+        // The contexts mustn't refer back to this snapshot, or the threads
+        // holding them would keep it from being collected once it's replaced.
+        final int size = entries.length;
+        final LiteralPrefilter index = prefilter;
+        this.contexts = ThreadLocal.withInitial(() -> new Context(size, index));
+
+        Set<String> listenerNames = new HashSet<>();
+        for (ChainEntry entry : entries) {
+            if (entry instanceof Rule) {
+                listenerNames.addAll(((Rule) entry).includeEvents);
+                listenerNames.addAll(((Rule) entry).excludeEvents);
+            }
+        }
+        if (listenerNames.isEmpty()) {
+            this.listenerEntries = null;
+            this.unlistedEntries = entriesFor(null);
+        } else {
+            Map<String, int[]> byListener = new HashMap<>();
+            for (String listenerName : listenerNames) {
+                byListener.put(listenerName, entriesFor(listenerName));
+            }
+            this.listenerEntries = byListener;
+            // A listener no rule mentions only gets the rules without an include list.
+            this.unlistedEntries = entriesFor("");
+        }
+
+        this.runLast = findReplaceRuns(entries);
+
+        ImmutableSet.Builder<String> perms = ImmutableSet.builder();
+        for (ChainEntry entry : entries) {
+            perms.addAll(entry.getPermissionList());
+        }
+        this.permissions = perms.build();
+    }
+
+    /**
+     * @param configName Name of the chain
+     * @return a snapshot with no entries.
+     */
+    public static CompiledChain empty(String configName) {
+        return new CompiledChain(configName, Collections.<ChainEntry>emptyList(), new ChainEntry[0],
+                ImmutableListMultimap.<String, Action>of(), ImmutableListMultimap.<String, Condition>of(),
+                ImmutableSet.<String>of(), Rule.MATCH_TIMEOUT_MILLIS, 0, new int[0], new long[0], null);
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * @return a number, unique to this snapshot, which increases every time a
+     * chain is compiled.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the entries as they were appended to the chain, before nested
+     * chains were flattened.
+     */
+    public List<ChainEntry> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the number of (flattened) entries in this snapshot.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    public ChainEntry getEntry(int index) {
+        return entries[index];
+    }
+
+    public ImmutableListMultimap<String, Action> getActionGroups() {
+        return actionGroups;
+    }
+
+    public ImmutableListMultimap<String, Condition> getConditionGroups() {
+        return conditionGroups;
+    }
+
+    /**
+     * @return the names of the rule and shortcut files this snapshot was
+     * loaded from.  See {@link com.pwn9.PwnFilter.rules.parser.FileParser#getFiles()}.
+     */
+    public ImmutableSet<String> getFiles() {
+        return files;
+    }
+
+    public Set<String> getPermissionList() {
+        return permissions;
+    }
+
+    /**
+     * Retain the patterns of this snapshot's rules in the {@link PatternPool},
+     * while it's published.
+     */
+    void retainPatterns() {
+        for (Pattern pattern : patterns()) {
+            PatternPool.retain(pattern);
+        }
+    }
+
+    /**
+     * Release the patterns retained by {@link #retainPatterns()}.
+     */
+    void releasePatterns() {
+        for (Pattern pattern : patterns()) {
+            PatternPool.release(pattern);
+        }
+    }
+
+    private Set<Pattern> patterns() {
+        Set<Pattern> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ChainEntry entry : entries) {
+            if (entry instanceof Rule && ((Rule) entry).getPattern() != null) {
+                result.add(((Rule) entry).getPattern());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The chain's default time limit for a regex match, in milliseconds.
+     */
+    public int getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return The chain's default step limit for a regex match.
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * @return The time limit that applies to the entry at this index.
+     */
+    public int getTimeout(int index) {
+        return entryTimeouts[index];
+    }
+
+    /**
+     * @return The step limit that applies to the entry at this index.
+     */
+    public long getStepLimit(int index) {
+        return entryStepLimits[index];
+    }
+
+    /*
+     * Censor lists are long runs of rules that just replace what they match.
+     * While a run is applied, the message is a SplicedString, so each
+     * replacement only rearranges pieces, and the message is built once at
+     * the end of the run.  The rules are still applied one at a time, in
+     * order, so the result is the same.
+     */
+    private static int[] findReplaceRuns(ChainEntry[] entries) {
+        int[] runLast = new int[entries.length];
+        Arrays.fill(runLast, -1);
+        if (!spliceRuns) return runLast;
+        for (int i = 0; i < entries.length; i++) {
+            if (!onlyReplaces(entries[i])) continue;
+            int last = i;
+            while (last + 1 < entries.length && onlyReplaces(entries[last + 1])) last++;
+            if (last > i) Arrays.fill(runLast, i, last + 1, last);
+            i = last;
+        }
+        return runLast;
+    }
+
+    /* True for a rule with no conditions, whose actions only replace text or turn on logging. */
+    private static boolean onlyReplaces(ChainEntry entry) {
+        if (!(entry instanceof Rule)) return false;
+        Rule rule = (Rule) entry;
+        if (!rule.getConditions().isEmpty() || rule.getActions().isEmpty()) return false;
+        for (Action action : rule.getActions()) {
+            if (!(action instanceof Replace || action instanceof Rewrite || action instanceof Log)) return false;
+        }
+        return true;
+    }
+
+    /* Indexes of the entries that apply to a listener, or all of them if listenerName is null. */
+    private int[] entriesFor(String listenerName) {
+        int[] indexes = new int[entries.length];
+        int count = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (listenerName == null || !(entries[i] instanceof Rule) || ((Rule) entries[i]).appliesTo(listenerName)) {
+                indexes[count++] = i;
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
+    /**
+     * @param listenerName Short name of a FilterClient, eg: CHAT
+     * @return the indexes of the entries that apply to messages from this
+     * listener, in order.  See {@link Rule#appliesTo(String)}.
+     */
+    public int[] getEntriesFor(String listenerName) {
+        if (listenerEntries == null) return unlistedEntries;
+        int[] indexes = listenerEntries.get(listenerName);
+        return (indexes != null) ? indexes : unlistedEntries;
+    }
+
+    LiteralPrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    MultiPatternAutomaton getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Apply the entries of this snapshot to the task, in order.
+     * <p>
+     * Rules that can't match the current message are skipped without running
+     * their regex.  If the chain uses the {@link MatchEngine#AUTOMATON}
+     * engine, one pass of the automaton decides which of the rules it supports
+     * match.  Otherwise, the {@link LiteralPrefilter} rules out rules whose
+     * required literals are missing from the message.
+     * <p>
+     * Each thread keeps its own Matchers and scratch space for this snapshot,
+     * so evaluating rules that don't match allocates nothing.
+     * <p>
+     * Rules limited to some events (with the 'events' keyword) are sorted
+     * into a list per listener when the snapshot is built, so only the rules
+     * for the task's listener are visited.
+     *
+     * @param filterTask The task to filter
+     */
+    public void apply(FilterTask filterTask) {
+        Context context = contexts.get();
+        if (context.busy) {
+            // An action has triggered filtering on this thread again; don't clobber the outer state.
+            context = new Context(entries.length, prefilter);
+        }
+        context.busy = true;
+        try {
+            apply(filterTask, context);
+        } finally {
+            context.busy = false;
+        }
+    }
+
+    private void apply(FilterTask filterTask, Context context) {
+        BitSet candidates = null;
+        boolean dfaScan = false;
+        EnhancedString scanned = null;
+        int[] order = getEntriesFor(filterTask.getListenerName());
+        int runEnd = -1; // If in a run of replace rules, the index of its last rule.
+
+        for (int k = 0; k < order.length; k++) {
+            if (filterTask.isAborted()) break;
+            int i = order[k];
+            if (runEnd >= 0 && i > runEnd) {
+                scanned = endRun(filterTask, scanned);
+                runEnd = -1;
+            }
+            if (runEnd < 0 && runLast[i] >= 0) {
+                EnhancedString message = filterTask.getModifiedMessage();
+                SplicedString spliced = SplicedString.of(message);
+                if (spliced != null) {
+                    filterTask.setModifiedMessage(spliced);
+                    if (scanned == message) scanned = spliced; // Same text, no need to rescan.
+                    runEnd = runLast[i];
+                }
+            }
+            boolean useDfa = automaton != null && automaton.supports(i);
+            if (useDfa || prefilter.isFiltered(i)) {
+                // Rules see the modified message, so rescan if an earlier rule changed it.
+                EnhancedString message = filterTask.getModifiedMessage();
+                if (message != scanned) {
+                    scanned = message;
+                    CharSequence text = message.getPlainText();
+                    candidates = context.scanner.scan(text);
+                    dfaScan = automaton != null && automaton.canScan(text);
+                    if (dfaScan) {
+                        context.matches.clear();
+                        automaton.scan(text, context);
+                    }
+                }
+                if (useDfa && dfaScan) {
+                    if (!context.matches.get(i)) continue;
+                } else if (prefilter.isFiltered(i) && !candidates.get(i)) {
+                    continue;
+                }
+            }
+            ChainEntry entry = entries[i];
+            if (entry instanceof Rule) {
+                Rule rule = (Rule) entry;
+                Matcher matcher = context.matchers[i];
+                if (matcher == null && rule.getPattern() != null) {
+                    matcher = rule.getPattern().matcher(context.text);
+                    context.matchers[i] = matcher;
+                }
+                context.text.setLimits(entryTimeouts[i], entryStepLimits[i]);
+                rule.apply(filterTask, matcher, context.text);
+            } else {
+                // Matches inside other kinds of entries can't be recorded for replay.
+                filterTask.setNondeterministic();
+                entry.apply(filterTask);
+            }
+        }
+        if (runEnd >= 0) endRun(filterTask, scanned);
+    }
+
+    /* Build the message at the end of a run of replace rules.  Returns what scanned should now be. */
+    private static EnhancedString endRun(FilterTask filterTask, EnhancedString scanned) {
+        EnhancedString message = filterTask.getModifiedMessage();
+        if (!(message instanceof SplicedString)) return scanned;
+        EnhancedString joined = ((SplicedString) message).join();
+        filterTask.setModifiedMessage(joined);
+        return (scanned == message) ? joined : scanned;
+    }
+
+    /*
+     * One thread's reusable state for evaluating a snapshot.  It's static, so
+     * it doesn't refer to the snapshot; only the snapshot's apply() uses it.
+     */
+    private static final class Context implements MultiPatternAutomaton.MatchHandler {
+        final Matcher[] matchers;
+        final LimitedRegexCharSequence text = new LimitedRegexCharSequence(Rule.MATCH_TIMEOUT_MILLIS);
+        final LiteralPrefilter.Scanner scanner;
+        final BitSet matches;
+        boolean busy;
+
+        Context(int size, LiteralPrefilter prefilter) {
+            matchers = new Matcher[size];
+            scanner = prefilter.newScanner();
+            matches = new BitSet(size);
+        }
+
+        @Override
+        public boolean onMatch(int index, int end) {
+            matches.set(index);
+            return true;
+        }
+    }
+}
@@ -11,7 +11,17 @@
 package com.pwn9.PwnFilter.rules;
 
 import com.pwn9.PwnFilter.FilterTask;
-
+import com.pwn9.PwnFilter.util.AhoCorasick;
+import com.pwn9.PwnFilter.util.Patterns;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * <p>Condition class.</p>
@@ -33,6 +43,8 @@ public class Condition {
     final CondType type;
     final CondFlag flag;
     final String parameters;
+    final String[] permissions; // Only for permission conditions, otherwise empty.
+    private final Predicate<FilterTask> predicate;
 
 
     /**
@@ -41,11 +53,78 @@ public class Condition {
      * @param t a {@link com.pwn9.PwnFilter.rules.Condition.CondType} object.
      * @param f a {@link com.pwn9.PwnFilter.rules.Condition.CondFlag} object.
      * @param p a {@link java.lang.String} object.
+     * @throws PatternSyntaxException if a command condition has an invalid pattern.
      */
     private Condition(CondType t, CondFlag f, String p) {
         type = t;
         flag = f;
         parameters = p;
+        permissions = (t == CondType.permission) ? splitWords(p) : new String[0];
+        predicate = compile(t, p, permissions);
+    }
+
+    /*
+     * Do all the splitting, case folding and pattern compiling once, when the
+     * rule is parsed, instead of every time the condition is checked.
+     */
+    private static Predicate<FilterTask> compile(CondType type, String parameters, String[] permissions) {
+        switch (type) {
+            case user:
+                Set<String> users = new HashSet<>();
+                for (String name : splitWords(parameters)) {
+                    users.add(name.toLowerCase(Locale.ENGLISH));
+                }
+                return state -> state.getAuthor() != null &&
+                        users.contains(state.getAuthor().getName().toLowerCase(Locale.ENGLISH));
+            case permission:
+                return state -> {
+                    for (String perm : permissions) {
+                        if (state.playerHasPermission(perm)) return true;
+                    }
+                    return false;
+                };
+            case string:
+                List<String> keys = new ArrayList<>();
+                for (String check : parameters.split("\\|")) {
+                    // An empty alternative is contained in every message.
+                    if (check.isEmpty()) return state -> true;
+                    keys.add(check.toUpperCase());
+                }
+                AhoCorasick strings = new AhoCorasick(keys, false);
+                return state -> strings.containsAny(state.getOriginalMessageUpperCase());
+            case command:
+                String[] checks = parameters.split("\\|");
+                Pattern[] commands = new Pattern[checks.length];
+                for (int i = 0; i < checks.length; i++) {
+                    commands[i] = Pattern.compile(checks[i].toUpperCase());
+                }
+                return state -> {
+                    if (!state.getListenerName().equals("COMMAND")) return false;
+                    String command = commandName(state.getOriginalMessageUpperCase());
+                    for (Pattern p : commands) {
+                        if (p.matcher(command).matches()) return true;
+                    }
+                    return false;
+                };
+        }
+        return state -> false;
+    }
+
+    /* Split on whitespace, skipping empty words. */
+    private static String[] splitWords(String s) {
+        List<String> words = new ArrayList<>();
+        for (String word : s.split("\\s")) {
+            if (!word.isEmpty()) words.add(word);
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /* The first word of the message, without its leading slash. */
+    private static String commandName(String message) {
+        int end = 0;
+        while (end < message.length() && !Patterns.isRegexSpace(message.charAt(end))) end++;
+        int start = (end > 0 && message.charAt(0) == '/') ? 1 : 0;
+        return message.substring(start, end);
     }
 
     /**
@@ -95,7 +174,11 @@ public class Condition {
             newParameters = "";
         }
 
-        return new Condition(newType, newFlag, newParameters);
+        try {
+            return new Condition(newType, newFlag, newParameters);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
     }
 
     /**
@@ -121,29 +204,11 @@ public class Condition {
      * @return true if this condition is met, false otherwise
      */
     public boolean check(FilterTask state) {
-        boolean matched = false;
-        switch (type) {
-            case user:
-                for (String check : parameters.split("\\s")) {
-                    if (state.getAuthor().getName().equalsIgnoreCase(check)) matched = true;
-                }
-            case permission:
-                for (String check: parameters.split("\\s")) {
-                    if (state.playerHasPermission(check)) matched = true;
-                }
-            case string:
-                for (String check: parameters.split("\\|")) {
-                    if (state.getOriginalMessage().toString().toUpperCase().contains(check.toUpperCase())) matched=true;
-                }
-            case command:
-                for (String check: parameters.split("\\|")) {
-                    if (state.getListenerName().equals("COMMAND")) {
-                        String command = state.getOriginalMessage().toString().split("\\s")[0].replaceFirst("^\\/","");
-                        if (command.toUpperCase().matches(check.toUpperCase())) matched = true;
-                    }
-                }
-
+        if (type == CondType.user || type == CondType.permission) {
+            // The outcome depends on who sent the message, not just what it says.
+            state.setNondeterministic();
         }
+        boolean matched = predicate.test(state);
         switch (flag) {
             case ignore:
                 return !matched;
@@ -154,5 +219,10 @@ public class Condition {
         return false;
     }
 
+    @Override
+    public String toString() {
+        return flag + " " + type + " " + parameters;
+    }
+
 }
 
@@ -0,0 +1,144 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.util.AhoCorasick;
+import com.pwn9.PwnFilter.util.regex.RegexParser;
+import com.pwn9.PwnFilter.util.regex.RequiredLiterals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the literal strings each rule in a chain requires, used to
+ * skip rules whose pattern cannot possibly match a message.
+ * <p>
+ * When the chain is loaded, each Rule's pattern is analyzed for the literals
+ * it needs (see {@link RequiredLiterals}), and all of them are built into one
+ * {@link AhoCorasick} automaton.  A single scan of the message then yields the
+ * set of candidate rules; only those need to run their regex.  Rules with no
+ * usable literals (and entries that aren't Rules) are always candidates.
+ * <p>
+ * The prefilter never changes the result of a chain: a rule it skips is one
+ * whose regex would not have matched.
+ */
+public final class LiteralPrefilter {
+
+    private final int size;
+    private final BitSet alwaysRun;
+    private final AhoCorasick automaton;
+    private final int[][] keyEntries; // Chain entries that are satisfied by each key.
+
+    private LiteralPrefilter(int size, BitSet alwaysRun, AhoCorasick automaton, int[][] keyEntries) {
+        this.size = size;
+        this.alwaysRun = alwaysRun;
+        this.automaton = automaton;
+        this.keyEntries = keyEntries;
+    }
+
+    /**
+     * Analyze a list of chain entries.
+     *
+     * @param entries The entries of a chain, in order.
+     * @return A prefilter, where entry indexes correspond to the list given.
+     */
+    public static LiteralPrefilter build(List<? extends ChainEntry> entries) {
+        BitSet alwaysRun = new BitSet(entries.size());
+        Map<String, List<Integer>> literalEntries = new HashMap<>();
+
+        for (int i = 0; i < entries.size(); i++) {
+            Set<String> literals = requiredLiterals(entries.get(i));
+            if (literals == null) {
+                alwaysRun.set(i);
+                continue;
+            }
+            for (String literal : literals) {
+                literalEntries.computeIfAbsent(literal, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<String> keys = new ArrayList<>(literalEntries.keySet());
+        int[][] keyEntries = new int[keys.size()][];
+        for (int k = 0; k < keys.size(); k++) {
+            List<Integer> list = literalEntries.get(keys.get(k));
+            keyEntries[k] = new int[list.size()];
+            for (int j = 0; j < list.size(); j++) keyEntries[k][j] = list.get(j);
+        }
+
+        AhoCorasick automaton = keys.isEmpty() ? null : new AhoCorasick(keys, true);
+        return new LiteralPrefilter(entries.size(), alwaysRun, automaton, keyEntries);
+    }
+
+    private static Set<String> requiredLiterals(ChainEntry entry) {
+        if (!(entry instanceof Rule)) return null;
+        Rule rule = (Rule) entry;
+        if (rule.getPattern() == null) return null;
+        try {
+            return RequiredLiterals.of(RegexParser.parse(rule.getPattern()));
+        } catch (RegexParser.UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param index Index of a chain entry
+     * @return true if the entry should only be applied when it is in the
+     * candidate set for the current message.
+     */
+    public boolean isFiltered(int index) {
+        return index < size && !alwaysRun.get(index);
+    }
+
+    /**
+     * @return the number of entries that can be skipped by this prefilter.
+     */
+    public int filteredCount() {
+        return size - alwaysRun.cardinality();
+    }
+
+    /**
+     * @return a new Scanner for this prefilter.
+     */
+    public Scanner newScanner() {
+        return new Scanner();
+    }
+
+    /**
+     * Finds the candidate entries for a message.  A Scanner is reusable, but
+     * not thread-safe.
+     */
+    public final class Scanner implements AhoCorasick.MatchHandler {
+        private final BitSet hits = new BitSet(size);
+
+        /**
+         * Scan a message for the literals in this index.
+         *
+         * @param text The (plain) text of the message.
+         * @return A BitSet (owned by this Scanner, and overwritten by the next
+         * scan), with a bit set for each filtered entry that could match the text.
+         */
+        public BitSet scan(CharSequence text) {
+            hits.clear();
+            if (automaton != null) automaton.scan(text, this);
+            return hits;
+        }
+
+        @Override
+        public boolean onMatch(int keyIndex, int end) {
+            for (int entry : keyEntries[keyIndex]) hits.set(entry);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+/**
+ * The ways a RuleChain can find which of its rules match a message.
+ */
+public enum MatchEngine {
+    /**
+     * Test each rule's Pattern against the message in turn.
+     */
+    REGEX,
+    /**
+     * Compile all of the chain's patterns into one automaton, which finds
+     * every matching rule in a single pass over the message.  Rules the
+     * automaton can't express fall back to their Pattern.
+     */
+    AUTOMATON
+}
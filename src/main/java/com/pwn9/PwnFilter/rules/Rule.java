@@ -11,13 +11,17 @@
 package com.pwn9.PwnFilter.rules;
 
 import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.LogEvent;
 import com.pwn9.PwnFilter.minecraft.PwnFilterPlugin;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.util.LimitedRegexCharSequence;
 import com.pwn9.PwnFilter.util.LogManager;
 import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.WordList;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,15 +29,31 @@ import java.util.regex.Pattern;
  * Rule object
  * <p/>
  * <P>Each Rule has a single match Pattern, an ArrayList of {@link com.pwn9.PwnFilter.rules.Condition}'s and an ArrayList of {@link com.pwn9.PwnFilter.rules.action.Action}'s</P>
+ * <P>Instead of a Pattern, a rule can match the words in a {@link WordList}.</P>
  *
  * @author ptoal
  * @version $Id: $Id
  */
 @SuppressWarnings("UnusedDeclaration")
 public class Rule implements ChainEntry {
+    /** Default time limit for a single regex match, in milliseconds. */
+    public static final int MATCH_TIMEOUT_MILLIS = 100;
+    /** Value of a limit that hasn't been set on this rule. */
+    public static final int UNSET = -1;
+
     private Pattern pattern;
+    private WordList wordList;
     private String description = "";
     private String id = "";
+    private int timeoutMillis = UNSET;
+    private long stepLimit = UNSET;
+
+    // Cost statistics
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder accesses = new LongAdder();
+    private final LongAdder limitsExceeded = new LongAdder();
+    private final AtomicLong maxAccesses = new AtomicLong();
+    private final RuleProfile profile = new RuleProfile();
 
     final List<Condition> conditions = new ArrayList<>();
     final List<Action> actions = new ArrayList<>();
@@ -103,6 +123,32 @@ public class Rule implements ChainEntry {
         this.pattern = Patterns.compilePattern(pattern);
     }
 
+    /**
+     * Set the pattern, already compiled with {@link Patterns#compile(String)}.
+     *
+     * @param pattern a {@link java.util.regex.Pattern} object.
+     */
+    public void setPattern(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @return The list of words this rule matches, or null if it matches a pattern.
+     */
+    public WordList getWordList() {
+        return wordList;
+    }
+
+    /**
+     * Match the words in this list, instead of a pattern.
+     *
+     * @param wordList a {@link com.pwn9.PwnFilter.util.WordList} object.
+     */
+    public void setWordList(WordList wordList) {
+        this.wordList = wordList;
+        this.pattern = null;
+    }
+
     /**
      * <p>Setter for the field <code>description</code>.</p>
      *
@@ -121,11 +167,99 @@ public class Rule implements ChainEntry {
         this.id = id;
     }
 
+    /**
+     * @return The time limit for a match of this rule's pattern, in
+     * milliseconds, or UNSET to use the chain's limit.
+     */
+    public int getTimeout() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param timeoutMillis Time limit for a match, in milliseconds.  0 for no limit.
+     */
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return The maximum number of characters the regex engine may read
+     * during a match of this rule's pattern, or UNSET to use the chain's limit.
+     */
+    public long getStepLimit() {
+        return stepLimit;
+    }
+
+    /**
+     * @param stepLimit Maximum number of characters read in a match.  0 for no limit.
+     */
+    public void setStepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+    }
+
+    /**
+     * @return The number of times this rule's pattern has been tested.
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return The total number of characters the regex engine has read
+     * while testing this rule's pattern.  This is a measure of its cost.
+     */
+    public long getAccessCount() {
+        return accesses.sum();
+    }
+
+    /**
+     * @return The most characters read by a single test of this rule's pattern.
+     */
+    public long getMaxAccessCount() {
+        return maxAccesses.get();
+    }
+
+    /**
+     * @return The number of tests of this rule's pattern that were stopped
+     * by the time or step limit.
+     */
+    public long getLimitExceededCount() {
+        return limitsExceeded.sum();
+    }
+
+    /**
+     * @param listenerName Short name of a FilterClient, eg: CHAT
+     * @return true if this rule applies to messages from that listener,
+     * according to its includeEvents and excludeEvents.
+     */
+    public boolean appliesTo(String listenerName) {
+        return (includeEvents.isEmpty() || includeEvents.contains(listenerName)) &&
+                !excludeEvents.contains(listenerName);
+    }
+
+    /**
+     * @return Statistics collected while the {@link RuleProfiler} is enabled.
+     */
+    public RuleProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Clear the cost statistics and profile of this rule.
+     */
+    public void resetStatistics() {
+        evaluations.reset();
+        accesses.reset();
+        limitsExceeded.reset();
+        maxAccesses.set(0);
+        profile.reset();
+    }
+
     /** {@inheritDoc} */
     @Override
     public Set<String> getPermissionList() {
         Set<String> permList = new HashSet<>();
-        conditions.stream().filter(c -> c.type == Condition.CondType.permission).forEach(c -> Collections.addAll(permList, c.parameters.split("\\|")));
+        conditions.stream().filter(c -> c.type == Condition.CondType.permission).forEach(c -> Collections.addAll(permList, c.permissions));
         return permList;
     }
 
@@ -137,6 +271,40 @@ public class Rule implements ChainEntry {
      * apply this action to the current message / event.  May trigger other bukkit events.
      */
     public void apply(FilterTask filterTask) {
+        LimitedRegexCharSequence text = new LimitedRegexCharSequence("",
+                (timeoutMillis == UNSET) ? MATCH_TIMEOUT_MILLIS : timeoutMillis,
+                (stepLimit == UNSET) ? 0 : stepLimit);
+        apply(filterTask, (pattern == null) ? null : pattern.matcher(text), text);
+    }
+
+    /**
+     * Apply this rule, reusing a Matcher for this rule's pattern, and a
+     * LimitedRegexCharSequence.  Both are reset to the current message before
+     * use.  Nothing is allocated unless the pattern matches.  The caller sets
+     * the limits on the LimitedRegexCharSequence.
+     *
+     * @param filterTask The task to filter
+     * @param matcher A Matcher created from this rule's pattern, or null if it has a word list
+     * @param text A LimitedRegexCharSequence to wrap the message in
+     */
+    void apply(FilterTask filterTask, Matcher matcher, LimitedRegexCharSequence text) {
+        if (!RuleProfiler.isEnabled()) {
+            match(filterTask, matcher, text);
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            match(filterTask, matcher, text);
+        } finally {
+            profile.recordLatency(System.nanoTime() - started);
+        }
+    }
+
+    private void match(FilterTask filterTask, Matcher matcher, LimitedRegexCharSequence text) {
+        if (wordList != null) {
+            matchWords(filterTask);
+            return;
+        }
 
         // Check if action matches the current state of the message
 
@@ -144,33 +312,82 @@ public class Rule implements ChainEntry {
             LogManager.info("Testing Pattern: '" + pattern.toString() + "' on string: '" + filterTask.getModifiedMessage().toString()+"'");
         }
 
-            LimitedRegexCharSequence limitedRegexCharSequence = new LimitedRegexCharSequence(filterTask.getModifiedMessage().toString(),100);
-            final Matcher matcher = pattern.matcher(limitedRegexCharSequence);
+        matcher.reset(text.reset(filterTask.getModifiedMessage().getPlainText()));
         // If we don't match, return immediately with the original message
+        boolean found;
         try {
-            if (!matcher.find()) return;
+            found = matcher.find();
         } catch (RuntimeException ex) {
-            LogManager.error("Regex match timed out! Regex: " + pattern.toString());
-            LogManager.error("Failed string was: " + limitedRegexCharSequence);
+            recordCost(text.getAccessCount());
+            limitsExceeded.increment();
+            // Whether a match runs out of time depends on more than the message.
+            filterTask.setNondeterministic();
+            LogManager.error("Regex match timed out! Regex: " + pattern.toString() + " (" + ex.getMessage() +
+                    ", " + text.getAccessCount() + " characters read)");
+            LogManager.error("Failed string was: " + text);
             return;
         }
+        recordCost(text.getAccessCount());
+        if (!found) return;
+
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.low) >= 0) {
+            LogManager.getInstance().debugLow("Match String: " + matcher.group());
+        }
+        filterTask.addMatchedRule(this);
+        applyMatched(filterTask, matcher.start(), matcher.end());
+    }
+
+    /* A word list can't run away like a regex, so there are no limits to check. */
+    private void matchWords(FilterTask filterTask) {
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.high) >= 0) {
+            LogManager.info("Testing " + wordList + " on string: '" + filterTask.getModifiedMessage().toString() + "'");
+        }
+        CharSequence text = filterTask.getModifiedMessage().getPlainText();
+        long match = wordList.find(text, 0);
+        recordCost(text.length());
+        if (match < 0) return;
+
+        int start = (int) (match >>> 32), end = (int) match;
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.low) >= 0) {
+            LogManager.getInstance().debugLow("Match String: " + text.subSequence(start, end));
+        }
+        filterTask.addMatchedRule(this);
+        applyMatched(filterTask, start, end);
+    }
+
+    /**
+     * Process a message this rule's pattern has matched: check the conditions,
+     * and if they are all met, execute the actions.  This is also used to
+     * replay a cached match, see {@link VerdictCache}.
+     *
+     * @param filterTask The task to filter
+     */
+    void applyMatched(FilterTask filterTask) {
+        applyMatched(filterTask, -1, -1);
+    }
 
-        filterTask.setPattern(pattern);
+    private void applyMatched(FilterTask filterTask, int start, int end) {
+        // The actions get a pattern for just the words in this message.
+        Pattern matched = pattern;
+        if (wordList != null) {
+            matched = wordList.patternFor(filterTask.getModifiedMessage().getPlainText());
+            if (matched == null) return;
+        }
+        boolean profiling = RuleProfiler.isEnabled();
+        if (profiling) profile.recordMatch();
+        filterTask.setPattern(matched);
         filterTask.setRule(this);
 
         // If Match, log it and then check any conditions.
-        filterTask.addLogMessage("|" + filterTask.getListenerName() + "| MATCH " +
-                (id.isEmpty() ? "" : "(" + id + ")") +
-                " <" +
-                filterTask.getAuthor().getName() + "> " + filterTask.getModifiedMessage().toString());
-        LogManager.getInstance().debugLow("Match String: " + matcher.group());
-
+        filterTask.addLogEvent(new LogEvent.Match(filterTask.getListenerName(), this, filterTask.getAuthor(),
+                filterTask.getModifiedMessage(), start, end));
 
-        for (Condition c : conditions) {
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition c = conditions.get(i);
             // This checks that EVERY condition is met (conditions are AND)
             if (!c.check(filterTask)) {
-                filterTask.addLogMessage("CONDITION not met <" + c.flag.toString() +
-                        " " + c.type.toString() + " " + c.parameters + "> " + filterTask.getOriginalMessage());
+                if (profiling) profile.recordConditionRejection();
+                filterTask.addLogEvent(new LogEvent.ConditionNotMet(c, filterTask.getOriginalMessage()));
                 return;
             }
 
@@ -183,12 +400,20 @@ public class Rule implements ChainEntry {
         }
 
         // If we get this far, execute the actions
-        for (Action a : actions) {
-            a.execute(filterTask);
+        for (int i = 0; i < actions.size(); i++) {
+            actions.get(i).execute(filterTask);
         }
 
     }
 
+    private void recordCost(long accessCount) {
+        evaluations.increment();
+        accesses.add(accessCount);
+        if (accessCount > maxAccesses.get()) {
+            maxAccesses.accumulateAndGet(accessCount, Math::max);
+        }
+    }
+
     /**
      * <p>isValid.</p>
      *
@@ -196,7 +421,7 @@ public class Rule implements ChainEntry {
      */
     public boolean isValid() {
         // Check that we have a valid pattern and at least one action
-        return this.pattern != null && this.actions != null;
+        return (this.pattern != null || this.wordList != null) && this.actions != null;
     }
 
     /**
@@ -205,7 +430,7 @@ public class Rule implements ChainEntry {
      * @return a {@link java.lang.String} object.
      */
     public String toString() {
-        return pattern.toString();
+        return (wordList != null) ? wordList.toString() : pattern.toString();
     }
 
     /**
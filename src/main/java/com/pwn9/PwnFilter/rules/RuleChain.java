@@ -10,14 +10,17 @@
 
 package com.pwn9.PwnFilter.rules;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.LogEvent;
+import com.pwn9.PwnFilter.config.FilterConfig;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.rules.parser.FileParser;
+import com.pwn9.PwnFilter.rules.parser.ParseCache;
 import com.pwn9.PwnFilter.util.LogManager;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 
 /**
@@ -29,6 +32,11 @@ import java.util.*;
  * The Event Handler calls the RuleSet.appply() method with the signature of the event
  * The apply() method iterates over the rules, one at a time, matching, checking conditions,
  * and executing actions based on the message and the rules.
+ * <p>
+ * The rules themselves are held in an immutable {@link CompiledChain}.  Loading
+ * (or changing) the chain builds a complete new snapshot, and publishes it with
+ * a single volatile write, so filtering always sees either the old chain or
+ * the new one, and never waits for a reload.
  *
  * User: ptoal
  * Date: 13-04-05
@@ -37,18 +45,16 @@ import java.util.*;
  * @author ptoal
  * @version $Id: $Id
  */
-public class RuleChain implements Chain,ChainEntry {
+public class RuleChain implements Chain,ChainEntry,RuleChainListener {
     enum ChainState {
         INIT,  // Chain was reset and needs to be reloaded before use.
-        PARTIAL, // Chain is in the process of loading
         READY // Chain is fully loaded and ready to use.
     }
 
-    private ChainState chainState;
-    private final List<ChainEntry> chain = new ArrayList<>();
-    private final Multimap<String, Action> actionGroups = ArrayListMultimap.create();
-    private final Multimap<String, Condition> conditionGroups = ArrayListMultimap.create();
-    private final Set<RuleChainListener> listeners = new HashSet<>();
+    private volatile ChainState chainState;
+    private volatile CompiledChain compiled;
+    private volatile VerdictCache verdictCache;
+    private final Set<RuleChainListener> listeners = new CopyOnWriteArraySet<>();
 
     private final String configName;
 
@@ -60,6 +66,8 @@ public class RuleChain implements Chain,ChainEntry {
      */
     public RuleChain(String configName) {
         this.configName = configName;
+        this.compiled = CompiledChain.empty(configName);
+        this.verdictCache = new VerdictCache(FilterConfig.getInstance().getVerdictCacheSize());
         chainState = ChainState.INIT;
     }
 
@@ -69,21 +77,75 @@ public class RuleChain implements Chain,ChainEntry {
      * @return Success or failure
      */
     public boolean loadConfigFile() {
+        ParseCache cache = new ParseCache();
+        try {
+            CompiledChain newChain = compileConfigFile(cache);
+            if (newChain == null) {
+                resetChain();
+                return false;
+            }
+            publish(newChain);
+            return true;
+        } finally {
+            cache.release();
+        }
+    }
 
-        resetChain();
-
-        // While loading, we are in a PARTIAL state.
-        chainState = ChainState.PARTIAL;
+    /**
+     * Parse this rulechain's config file into a new snapshot, without
+     * changing the rules currently in use.
+     *
+     * @param cache The cache to compile patterns with, which should be
+     *              released once the snapshot is published.
+     * @return The new snapshot, or null if the file could not be loaded.
+     */
+    public CompiledChain compileConfigFile(ParseCache cache) {
+        ChainBuilder builder = new ChainBuilder(configName);
+        FileParser parser = new FileParser(configName, cache);
 
-        FileParser parser = new FileParser(configName);
+        if (parser.parseRules(builder)) {
+            builder.addFiles(parser.getFiles());
+            return builder.build();
+        } else {
+            return null;
+        }
+    }
 
-        if (parser.parseRules(this)) {
+    /**
+     * Replace the rules in use with a new snapshot, and notify listeners.
+     *
+     * @param newChain a {@link CompiledChain} object.
+     */
+    public void publish(CompiledChain newChain) {
+        synchronized (this) {
+            setCompiled(newChain);
             chainState = ChainState.READY;
-            notifyUpdate();
-            return true;
-        } else {
-            return false;
+            // Cached verdicts are for the old snapshot; start over, at the currently configured size.
+            verdictCache = new VerdictCache(FilterConfig.getInstance().getVerdictCacheSize());
         }
+        notifyUpdate();
+    }
+
+    /* Replace our snapshot, moving our hold on its patterns over to the new one. */
+    private void setCompiled(CompiledChain newChain) {
+        newChain.retainPatterns();
+        compiled.releasePatterns();
+        compiled = newChain;
+    }
+
+    /**
+     * @return the snapshot of the rules currently in use.
+     */
+    public CompiledChain getCompiledChain() {
+        return compiled;
+    }
+
+    /**
+     * @return the cache of verdicts for messages recently filtered by
+     * {@link #execute(FilterTask)}, with its hit and miss counts.
+     */
+    public VerdictCache getVerdictCache() {
+        return verdictCache;
     }
 
     /**
@@ -99,13 +161,7 @@ public class RuleChain implements Chain,ChainEntry {
      * @return a int.
      */
     public int ruleCount() {
-        Integer count = 0;
-        for (ChainEntry c : chain) {
-            if (c instanceof RuleChain) {
-                count += ((RuleChain) c).ruleCount();
-            } else count++;
-        }
-        return count;
+        return compiled.size();
     }
 
     /**
@@ -117,12 +173,11 @@ public class RuleChain implements Chain,ChainEntry {
      * actions in sequential order.  If the Rule sets the stop=true of the FilterTask,
      * stop processing rules.  If not, continue along the rule chain, checking the
      * (possibly modified) message against subsequent rules.
+     *
+     * See {@link CompiledChain#apply(FilterTask)}.
      */
     public void apply(FilterTask filterTask) throws IllegalStateException {
-        for (ChainEntry entry : chain) {
-            if (filterTask.isAborted()) break;
-            entry.apply(filterTask);
-        }
+        compiled.apply(filterTask);
     }
 
     /**
@@ -134,48 +189,94 @@ public class RuleChain implements Chain,ChainEntry {
 
         LogManager logManager = LogManager.getInstance();
 
-        apply(state);
+        // Read the snapshot once, so the verdict is cached against the rules that produced it.
+        verdictCache.apply(compiled, state);
 
-        if (state.getPattern() != null) {
-            logManager.debugHigh("Debug last match: " + state.getPattern().pattern());
-            logManager.debugHigh("Debug original: " + state.getOriginalMessage().getRaw());
-            logManager.debugHigh("Debug current: " + state.getModifiedMessage().getRaw());
-            logManager.debugHigh("Debug log: " + (state.loggingOn() ? "yes" : "no"));
-            logManager.debugHigh("Debug deny: " + (state.isCancelled() ? "yes" : "no"));
-        } else {
-            logManager.debugHigh("[PwnFilter] Debug no match: " + state.getOriginalMessage().getRaw());
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.high) >= 0) {
+            if (state.getPattern() != null) {
+                logManager.debugHigh("Debug last match: " + state.getPattern().pattern());
+                logManager.debugHigh("Debug original: " + state.getOriginalMessage().getRaw());
+                logManager.debugHigh("Debug current: " + state.getModifiedMessage().getRaw());
+                logManager.debugHigh("Debug log: " + (state.loggingOn() ? "yes" : "no"));
+                logManager.debugHigh("Debug deny: " + (state.isCancelled() ? "yes" : "no"));
+            } else {
+                logManager.debugHigh("[PwnFilter] Debug no match: " + state.getOriginalMessage().getRaw());
+            }
         }
 
+        // Don't build any log lines if nothing is going to write them.
+        if (!LogManager.isRuleLogWanted(state.loggingOn())) return;
+
         if (state.isCancelled()){
-            state.addLogMessage("<"+state.getAuthor().getName() + "> Original message cancelled.");
+            state.addLogEvent(new LogEvent.Cancelled(state.getAuthor()));
         } else if (state.getPattern() != null) {
-            state.addLogMessage("|" + state.getListenerName() + "| SENT <" +
-                    state.getAuthor().getName() + "> " + state.getModifiedMessage().toString());
+            state.addLogEvent(new LogEvent.Sent(state.getListenerName(), state.getAuthor(), state.getModifiedMessage()));
         }
 
-        for (String s : state.getLogMessages()) {
+        for (LogEvent event : state.getLogEvents()) {
             if (state.loggingOn()) {
-                LogManager.info(s);
+                LogManager.info(event.toString());
             } else {
-                LogManager.log(s);
+                LogManager.log(event.toString());
             }
         }
     }
 
-    /** {@inheritDoc} */
-    public void append(ChainEntry r) {
-        if (r.isValid()) {
-            chain.add(r); // Add the Rule to this chain
+    /**
+     * {@inheritDoc}
+     *
+     * Appending builds and publishes a new snapshot with the entry added.
+     */
+    public synchronized void append(ChainEntry r) {
+        if (!r.isValid()) return;
+        if (r instanceof RuleChain) {
+            RuleChain nested = (RuleChain) r;
+            if (nested.includes(this)) {
+                LogManager.warn("Unable to add chain: " + nested.getConfigName() + " to " + configName +
+                        ". It already includes " + configName);
+                return;
+            }
+            // Our snapshot holds a flattened copy of the nested chain, so rebuild it when that changes.
+            nested.addListener(this);
         }
+        ChainBuilder builder = new ChainBuilder(compiled);
+        builder.append(r);
+        setCompiled(builder.build());
+    }
+
+    private boolean includes(RuleChain other) {
+        if (other == this) return true;
+        for (ChainEntry entry : compiled.getSources()) {
+            if (entry instanceof RuleChain && ((RuleChain) entry).includes(other)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rebuild our snapshot when a nested chain is updated.
+     *
+     * @param ruleChain The nested chain
+     */
+    @Override
+    public void ruleChainUpdated(RuleChain ruleChain) {
+        synchronized (this) {
+            if (!compiled.getSources().contains(ruleChain)) {
+                ruleChain.removeListener(this);
+                return;
+            }
+            setCompiled(new ChainBuilder(compiled).build());
+        }
+        notifyUpdate();
     }
 
     /**
      * <p>Getter for the field <code>chain</code>.</p>
      *
-     * @return a {@link java.util.List} object.
+     * @return an unmodifiable {@link java.util.List} of the entries in the
+     * current snapshot.
      */
     public List<ChainEntry> getChain() {
-        return chain;
+        return compiled.getSources();
     }
 
     /**
@@ -184,7 +285,7 @@ public class RuleChain implements Chain,ChainEntry {
      * @return a boolean.
      */
     public boolean isEmpty() {
-        return chain.isEmpty();
+        return compiled.size() == 0;
     }
 
     /**
@@ -203,59 +304,60 @@ public class RuleChain implements Chain,ChainEntry {
      */
     @Override
     public Set<String> getPermissionList() {
-        TreeSet<String> permList = new TreeSet<>();
-
-        for (ChainEntry r : chain) {
-            permList.addAll(r.getPermissionList());
-        }
-        return permList;
+        return new TreeSet<>(compiled.getPermissionList());
     }
 
     /**
      * <p>Getter for the field <code>actionGroups</code>.</p>
      *
-     * @return a {@link com.google.common.collect.Multimap} object.
+     * @return an immutable {@link com.google.common.collect.Multimap} object.
      */
     public Multimap<String, Action> getActionGroups() {
-        return actionGroups;
+        return compiled.getActionGroups();
     }
 
     /**
      * <p>Getter for the field <code>conditionGroups</code>.</p>
      *
-     * @return a {@link com.google.common.collect.Multimap} object.
+     * @return an immutable {@link com.google.common.collect.Multimap} object.
      */
     public Multimap<String, Condition> getConditionGroups() {
-        return conditionGroups;
+        return compiled.getConditionGroups();
     }
     /**
      * Delete all rules in the chain, and reset its state to INIT
      */
-    public void resetChain() {
-        chain.clear();
-        conditionGroups.clear();
-        actionGroups.clear();
+    public synchronized void resetChain() {
+        setCompiled(CompiledChain.empty(configName));
         chainState = ChainState.INIT;
     }
 
     /** {@inheritDoc} */
-    public void addConditionGroup(String name, List<Condition> cGroup) {
-        if (name != null && cGroup != null)
-            if(conditionGroups.get(name).isEmpty()) {
-                conditionGroups.get(name).addAll(cGroup);
-            } else {
-                LogManager.getInstance().debugLow("Condition Group named '"+name+"' already exists in chain: " + getConfigName());
-            }
+    public synchronized void addConditionGroup(String name, List<Condition> cGroup) {
+        ChainBuilder builder = new ChainBuilder(compiled);
+        builder.addConditionGroup(name, cGroup);
+        setCompiled(builder.build());
     }
 
     /** {@inheritDoc} */
-    public void addActionGroup(String name, List<Action> aGroup) {
-        if (name != null && aGroup != null)
-            if(!actionGroups.containsKey(name)) {
-                actionGroups.get(name).addAll(aGroup);
-            } else {
-                LogManager.getInstance().debugLow("Action Group named '"+name+"' already exists in chain: " + getConfigName());
-            }
+    public synchronized void addActionGroup(String name, List<Action> aGroup) {
+        ChainBuilder builder = new ChainBuilder(compiled);
+        builder.addActionGroup(name, aGroup);
+        setCompiled(builder.build());
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void setTimeout(int timeoutMillis) {
+        ChainBuilder builder = new ChainBuilder(compiled);
+        builder.setTimeout(timeoutMillis);
+        setCompiled(builder.build());
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void setStepLimit(long stepLimit) {
+        ChainBuilder builder = new ChainBuilder(compiled);
+        builder.setStepLimit(stepLimit);
+        setCompiled(builder.build());
     }
 
     public void addListener(RuleChainListener listener) {
@@ -0,0 +1,159 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.util.LogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the rules directory, and reloads the chains that depend on a rule
+ * or shortcut file when it changes.
+ * <p>
+ * Each chain knows which files it was loaded from, including the files it
+ * includes and the shortcut files they use (see
+ * {@link CompiledChain#getFiles()}), so a change to sign.txt only reloads the
+ * sign chain, and a change to a shared file reloads every chain that
+ * includes it.  The new snapshots are published the same way as by
+ * /pfreload, so filtering never stops.  A chain that doesn't load cleanly
+ * (eg: a file saved half-written, or with a typo in a rule) keeps the rules
+ * it had until it's fixed, rather than losing the rules that didn't load.
+ * <p>
+ * Editors often write a file in several steps, so changes are collected until
+ * the directory has been quiet for {@link #DEBOUNCE_MILLIS}.
+ */
+public final class RuleFileWatcher implements Runnable {
+
+    /** How long the rules directory must be quiet before reloading. */
+    public static final long DEBOUNCE_MILLIS = 500;
+
+    private static RuleFileWatcher running;
+
+    private final Path rulesDir;
+    private final WatchService watchService;
+
+    private RuleFileWatcher(Path rulesDir) throws IOException {
+        this.rulesDir = rulesDir;
+        this.watchService = rulesDir.getFileSystem().newWatchService();
+        registerTree(rulesDir);
+    }
+
+    public static synchronized boolean isEnabled() {
+        return running != null;
+    }
+
+    /**
+     * Start or stop watching the rules directory.  If it's already being
+     * watched, but the directory has been changed, the new one is watched.
+     *
+     * @param enabled true to watch the rules directory
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        File dir = FilterConfig.getInstance().getRulesDir();
+        Path rulesDir = (dir == null) ? null : dir.toPath().toAbsolutePath();
+        if (running != null) {
+            if (enabled && running.rulesDir.equals(rulesDir)) return;
+            running.stop();
+            running = null;
+        }
+        if (!enabled || rulesDir == null) return;
+
+        try {
+            running = new RuleFileWatcher(rulesDir);
+        } catch (IOException e) {
+            LogManager.warn("Unable to watch rules directory " + rulesDir + ": " + e.getMessage());
+            return;
+        }
+        Thread thread = new Thread(running, "PwnFilter rule watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LogManager.getInstance().debugLow("Watching " + rulesDir + " for changes.");
+    }
+
+    private void stop() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /* Includes can be in subdirectories, so watch all of them. */
+    private void registerTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(Files::isDirectory)
+                    .forEach(d -> {
+                        try {
+                            d.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                        } catch (IOException e) {
+                            LogManager.getInstance().debugLow("Unable to watch " + d + ": " + e.getMessage());
+                        }
+                    });
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                do {
+                    collect(key, changed);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (!changed.isEmpty()) {
+                    try {
+                        RuleManager.getInstance().reloadChangedFiles(changed);
+                    } catch (RuntimeException e) {
+                        LogManager.error("Error reloading rules after changes to " + changed + ": " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped.
+        }
+    }
+
+    /* Add the names of the changed files, relative to the rules directory, as used in rule files. */
+    private void collect(WatchKey key, Set<String> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // We've lost track of what changed, so look at everything.
+                for (RuleChain ruleChain : RuleManager.getInstance().getRuleChains()) {
+                    changed.addAll(ruleChain.getCompiledChain().getFiles());
+                }
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    registerTree(path);
+                } catch (IOException e) {
+                    LogManager.getInstance().debugLow("Unable to watch " + path + ": " + e.getMessage());
+                }
+                continue;
+            }
+            changed.add(rulesDir.relativize(path).toString().replace(File.separatorChar, '/'));
+        }
+        key.reset();
+    }
+}
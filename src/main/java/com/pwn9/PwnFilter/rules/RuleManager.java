@@ -10,12 +10,19 @@
 
 package com.pwn9.PwnFilter.rules;
 
+import com.pwn9.PwnFilter.rules.parser.FileParser;
+import com.pwn9.PwnFilter.rules.parser.ParseCache;
 import com.pwn9.PwnFilter.util.LogManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Manage RuleSets, rulefiles, etc.  All ruleChains that are to be managed by
@@ -61,13 +68,19 @@ public class RuleManager {
      * @return a {@link com.pwn9.PwnFilter.rules.RuleChain} object.
      */
     public RuleChain getRuleChain(String configName) {
-        if (ruleChains.containsKey(configName)) {
-            return ruleChains.get(configName);
-        } else {
-            RuleChain newRuleChain = new RuleChain(configName);
-            ruleChains.put(configName,newRuleChain);
-            return newRuleChain;
+        return ruleChains.computeIfAbsent(configName, RuleChain::new);
+    }
+
+    /**
+     * @return a copy of the list of loaded rule chains, sorted by name.
+     */
+    public List<RuleChain> getRuleChains() {
+        List<RuleChain> chains;
+        synchronized (ruleChains) {
+            chains = new ArrayList<>(ruleChains.values());
         }
+        chains.sort(Comparator.comparing(RuleChain::getConfigName));
+        return chains;
     }
 
     /*
@@ -76,35 +89,112 @@ public class RuleManager {
     /**
      * <p>reloadAllConfigs.</p>
      */
-    public void reloadAllConfigs() {
+    public synchronized void reloadAllConfigs() {
+        // Reload all the shortcuts
+        ShortCutManager.getInstance().reloadFiles();
 
-        // We do this as a separate loop, to invalidate all ruleChains before
-        // starting to reload the configs.  This ensures we check for cyclic
-        // references properly.
+        reload(getRuleChains(), true);
+    }
 
-        // Invalidate all ruleChains
-        synchronized (ruleChains) {
-            ruleChains.values().forEach(RuleChain::resetChain);
+    /**
+     * Reload only the chains that were loaded from any of the given rule or
+     * shortcut files (see {@link CompiledChain#getFiles()}).  A chain that
+     * doesn't load cleanly (see {@link FileParser#isClean()}) keeps the rules
+     * it had, and is tried again the next time one of its files changes.
+     *
+     * @param fileNames Names of files in the rules directory that have changed
+     */
+    public synchronized void reloadChangedFiles(Collection<String> fileNames) {
+        for (String fileName : fileNames) {
+            ShortCutManager.getInstance().reloadFile(fileName);
+        }
 
-            // Reload all the shortcuts
-            ShortCutManager.getInstance().reloadFiles();
+        List<RuleChain> chains = new ArrayList<>();
+        for (RuleChain ruleChain : getRuleChains()) {
+            if (!Collections.disjoint(ruleChain.getCompiledChain().getFiles(), fileNames)) {
+                chains.add(ruleChain);
+            }
+        }
+        if (chains.isEmpty()) return;
+
+        List<String> names = new ArrayList<>(chains.size());
+        for (RuleChain ruleChain : chains) {
+            names.add(ruleChain.getConfigName());
+        }
+        LogManager.info("Reloading " + String.join(", ", names) + " after changes to: " + String.join(", ", fileNames));
+        // A file may have been caught half-saved, or have a typo, which would
+        // silently drop rules, so keep filtering with the rules we have until
+        // it loads without errors.
+        reload(chains, false);
+    }
+
+    /*
+     * Reload the chains.  If dropFailed, the chains that fail to load are reset
+     * and removed (as by /pfreload), and those that load with errors are
+     * published without the bad rules; otherwise, a chain that doesn't load
+     * cleanly keeps its current rules.
+     */
+    private void reload(List<RuleChain> chains, boolean dropFailed) {
+
+        // Every chain is compiled into a new snapshot before any of them are
+        // published.  Until then, events keep being filtered against the old
+        // rules, so nothing ever sees a partially loaded chain.
+
+        // Now, reparse the configs.  The files are all read at once, on the
+        // fork-join pool, and their patterns compiled there too.  Each parser
+        // holds on to its messages and rules until finish(), which is called
+        // for each chain in turn, so the log reads the same as a sequential
+        // load, and so do the chains.  Files included by several chains
+        // share their compiled patterns through the cache.
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ParseCache cache = new ParseCache();
+        try {
+            List<FileParser> parsers = new ArrayList<>(chains.size());
+            List<ChainBuilder> builders = new ArrayList<>(chains.size());
+            List<ForkJoinTask<?>> reads = new ArrayList<>(chains.size());
+            for (RuleChain ruleChain : chains) {
+                FileParser parser = new FileParser(ruleChain.getConfigName(), cache);
+                ChainBuilder builder = new ChainBuilder(ruleChain.getConfigName());
+                parsers.add(parser);
+                builders.add(builder);
+                reads.add(pool.submit(() -> parser.read(builder)));
+            }
 
-            // Now, reparse the configs
-            for (Map.Entry <String, RuleChain> entry : ruleChains.entrySet()) {
-                if (entry.getValue().loadConfigFile()) {
-                    LogManager.getInstance().debugMedium("Re-loaded RuleChain from config: " + entry.getValue().getConfigName());
+            List<ForkJoinTask<CompiledChain>> builds = new ArrayList<>(chains.size());
+            for (int i = 0; i < chains.size(); i++) {
+                reads.get(i).join();
+                FileParser parser = parsers.get(i);
+                ChainBuilder builder = builders.get(i);
+                if (parser.finish() && (dropFailed || parser.isClean())) {
+                    builder.addFiles(parser.getFiles());
+                    builds.add(pool.submit(builder::build));
                 } else {
-                    LogManager.getInstance().debugMedium("Unable to load RuleChain from config: " + entry.getValue().getConfigName());
+                    builds.add(null);
                 }
             }
 
-            // Now remove the ones that aren't fully loaded.
-            for (Iterator<Map.Entry <String, RuleChain>>it = ruleChains.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry <String, RuleChain> e = it.next();
-                if (!e.getValue().isValid()) {
-                    it.remove();
+            Map<RuleChain, CompiledChain> compiled = new HashMap<>();
+            for (int i = 0; i < chains.size(); i++) {
+                compiled.put(chains.get(i), (builds.get(i) == null) ? null : builds.get(i).join());
+            }
+
+            // Publish the new snapshots, and deal with the chains that failed to load.
+            for (RuleChain ruleChain : chains) {
+                CompiledChain newChain = compiled.get(ruleChain);
+                if (newChain != null) {
+                    ruleChain.publish(newChain);
+                    LogManager.getInstance().debugMedium("Re-loaded RuleChain from config: " + ruleChain.getConfigName());
+                } else if (!dropFailed) {
+                    LogManager.warn("Unable to reload " + ruleChain.getConfigName() + " without errors. Keeping the rules loaded before.");
+                } else {
+                    ruleChain.resetChain();
+                    ruleChains.remove(ruleChain.getConfigName(), ruleChain);
+                    LogManager.getInstance().debugMedium("Unable to load RuleChain from config: " + ruleChain.getConfigName());
                 }
             }
+        } finally {
+            // The published chains now hold the patterns they use, so the rest can go.
+            cache.release();
         }
     }
 
@@ -0,0 +1,66 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters collected for a single Rule while the {@link RuleProfiler} is
+ * enabled.  The evaluation and limit counts are kept by the Rule itself, all
+ * of the time.
+ */
+public class RuleProfile {
+
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder conditionRejections = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void recordMatch() {
+        matches.increment();
+    }
+
+    void recordConditionRejection() {
+        conditionRejections.increment();
+    }
+
+    void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * @return The number of times the rule's pattern matched.
+     */
+    public long getMatchCount() {
+        return matches.sum();
+    }
+
+    /**
+     * @return The number of matches where a condition wasn't met.
+     */
+    public long getConditionRejectionCount() {
+        return conditionRejections.sum();
+    }
+
+    /**
+     * @return The time taken to apply the rule (match, conditions and actions).
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public void reset() {
+        matches.reset();
+        conditionRejections.reset();
+        latency.reset();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.util.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An opt-in profiler for finding the rules that use the most CPU.
+ * <p>
+ * While enabled, each Rule records how often it matches, how often its
+ * conditions reject a match, and a histogram of the time it takes to apply.
+ * When disabled, the only cost is reading one volatile flag per rule.
+ */
+public final class RuleProfiler {
+
+    private static volatile boolean enabled = false;
+
+    private RuleProfiler() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RuleProfiler.enabled = enabled;
+    }
+
+    /**
+     * @param chain A rule chain
+     * @return the rules in the chain's current snapshot, once each.
+     */
+    public static List<Rule> getRules(RuleChain chain) {
+        CompiledChain compiled = chain.getCompiledChain();
+        Set<Rule> rules = new LinkedHashSet<>();
+        for (int i = 0; i < compiled.size(); i++) {
+            ChainEntry entry = compiled.getEntry(i);
+            if (entry instanceof Rule) rules.add((Rule) entry);
+        }
+        return new ArrayList<>(rules);
+    }
+
+    /**
+     * Find the most expensive rules in a chain: those that have taken the
+     * most time in total, or if the profiler hasn't been run, those that
+     * have read the most characters.
+     *
+     * @param chain A rule chain
+     * @param count Maximum number of rules to return
+     * @return the rules, most expensive first.
+     */
+    public static List<Rule> getTopRules(RuleChain chain, int count) {
+        List<Rule> rules = getRules(chain);
+        rules.sort(Comparator.comparingLong((Rule r) -> r.getProfile().getLatency().getTotal())
+                .thenComparingLong(Rule::getAccessCount).reversed());
+        return rules.subList(0, Math.min(count, rules.size()));
+    }
+
+    /**
+     * Clear the statistics of every rule in these chains.
+     */
+    public static void reset(Collection<RuleChain> chains) {
+        for (RuleChain chain : chains) {
+            for (Rule rule : getRules(chain)) {
+                rule.resetStatistics();
+            }
+        }
+    }
+
+    /**
+     * Write the statistics of every rule in these chains to a CSV file.
+     *
+     * @param chains The chains to report on
+     * @param file The file to (over)write
+     * @throws IOException if the file can't be written.
+     */
+    public static void writeCsv(Collection<RuleChain> chains, File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("chain,id,pattern,evaluations,matches,condition_rejections,limits_exceeded," +
+                    "chars_read,max_chars_read,total_ns,mean_ns,p50_ns,p99_ns,max_ns");
+            for (RuleChain chain : chains) {
+                for (Rule rule : getRules(chain)) {
+                    RuleProfile profile = rule.getProfile();
+                    LatencyHistogram latency = profile.getLatency();
+                    out.println(csv(chain.getConfigName()) + ',' + csv(rule.getId()) + ',' + csv(rule.toString()) + ',' +
+                            rule.getEvaluationCount() + ',' + profile.getMatchCount() + ',' +
+                            profile.getConditionRejectionCount() + ',' + rule.getLimitExceededCount() + ',' +
+                            rule.getAccessCount() + ',' + rule.getMaxAccessCount() + ',' +
+                            latency.getTotal() + ',' + latency.getMean() + ',' + latency.getPercentile(50) + ',' +
+                            latency.getPercentile(99) + ',' + latency.getMax());
+                }
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
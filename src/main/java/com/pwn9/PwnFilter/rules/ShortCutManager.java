@@ -12,15 +12,14 @@ package com.pwn9.PwnFilter.rules;
 
 import com.pwn9.PwnFilter.config.FilterConfig;
 import com.pwn9.PwnFilter.util.LogManager;
-import com.pwn9.PwnFilter.util.Patterns;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manage all the shortcut mappings
@@ -35,6 +34,8 @@ public class ShortCutManager {
     // TODO: Create a "ShortCuts" object to pass around, instead of HashMaps.
     private static ShortCutManager _instance;
     private static final Map<String, Map<String,String>> shortcutFiles = new HashMap<>();
+    // Lines already expanded, for each of the loaded maps.
+    private static final Map<Map<String,String>, Map<String,String>> expansions = new IdentityHashMap<>();
 
     private ShortCutManager() {}
 
@@ -52,6 +53,11 @@ public class ShortCutManager {
 
     /**
      * <p>replace.</p>
+     * <p>
+     * Replace each &lt;var&gt; (up to 3 letters or underscores) with its
+     * shortcut.  Lines expanded with a map loaded by this manager are
+     * remembered until the map is reloaded, as the same lines appear in many
+     * rule files.
      *
      * @param shortcuts a {@link java.util.Map} object.
      * @param lineData a {@link java.lang.String} object.
@@ -61,27 +67,49 @@ public class ShortCutManager {
         // If we don't have a shortcuts file to process, just return what we were given.
         if (shortcuts == null) return lineData;
 
-        Pattern shortcutMatch = Patterns.compilePattern("<[a-zA-Z_]{0,3}>");
-        Matcher matcher = shortcutMatch.matcher(lineData);
-        StringBuffer newLineData = new StringBuffer();
-        while (matcher.find()) {
-            String thisMatch = matcher.group();
-            String var = thisMatch.substring(1,thisMatch.length()-1);
+        Map<String, String> expanded;
+        synchronized (expansions) {
+            expanded = expansions.get(shortcuts);
+        }
+        String result = (expanded == null) ? null : expanded.get(lineData);
+        if (result != null) return result;
+
+        StringBuilder newLineData = null;
+        boolean complete = true;
+        int last = 0;
+        for (int start = lineData.indexOf('<'); start >= 0; start = lineData.indexOf('<', start + 1)) {
+            int end = start + 1;
+            while (end < lineData.length() && end - start <= 3 && isShortcutChar(lineData.charAt(end))) end++;
+            if (end == lineData.length() || lineData.charAt(end) != '>') continue;
+
+            String var = lineData.substring(start + 1, end);
             String replacement = shortcuts.get(var.toLowerCase());
+            if (newLineData == null) newLineData = new StringBuilder(lineData.length() + 64);
+            newLineData.append(lineData, last, start);
             if (replacement == null || replacement.isEmpty()) {
                 LogManager.warn("Could not find shortcut: <"+var+">" +
                         "when parsing: '"+lineData+"'");
-                matcher.appendReplacement(newLineData,"");
+                // Don't remember this line, so it's reported again next time.
+                complete = false;
             } else {
-                matcher.appendReplacement(newLineData, Matcher.quoteReplacement(replacement));
+                newLineData.append(replacement);
             }
+            last = end + 1;
+            start = end;
         }
-        matcher.appendTail(newLineData);
-        if (!newLineData.toString().equals(lineData)) {
-            LogManager.getInstance().debugHigh("Original regex: " + lineData + "\n New regex: " + newLineData);
+        if (newLineData == null) {
+            result = lineData;
+        } else {
+            result = newLineData.append(lineData, last, lineData.length()).toString();
+            LogManager.getInstance().debugHigh("Original regex: " + lineData + "\n New regex: " + result);
         }
-        return newLineData.toString();
+        if (expanded != null && complete) expanded.put(lineData, result);
+        return result;
+
+    }
 
+    private static boolean isShortcutChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
     }
 
     /**
@@ -90,7 +118,7 @@ public class ShortCutManager {
      * @param mapFileName a {@link java.lang.String} object.
      * @return a {@link java.util.Map} object.
      */
-    public Map<String, String> getShortcutMap(String mapFileName) {
+    public synchronized Map<String, String> getShortcutMap(String mapFileName) {
         Map<String, String> returnValue = shortcutFiles.get(mapFileName);
 
         if (returnValue != null) {
@@ -104,9 +132,26 @@ public class ShortCutManager {
     /**
      * <p>reloadFiles.</p>
      */
-    public void reloadFiles() {
+    public synchronized void reloadFiles() {
         // Just wipe out the old.  They will be reloaded on first access.
         shortcutFiles.clear();
+        synchronized (expansions) {
+            expansions.clear();
+        }
+    }
+
+    /**
+     * Forget one shortcut file, so it's read again the next time it's used.
+     *
+     * @param fileName The name of the shortcut file
+     */
+    public synchronized void reloadFile(String fileName) {
+        Map<String, String> varset = shortcutFiles.remove(fileName);
+        if (varset != null) {
+            synchronized (expansions) {
+                expansions.remove(varset);
+            }
+        }
     }
 
     /**
@@ -152,6 +197,9 @@ public class ShortCutManager {
         }
 
         shortcutFiles.put(fileName,varset);
+        synchronized (expansions) {
+            expansions.put(varset, new ConcurrentHashMap<>());
+        }
     }
 
     /**
@@ -0,0 +1,174 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.util.LogManager;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which rules matched recently filtered messages, so an identical
+ * message doesn't have to be run through every pattern in the chain again.
+ * <p>
+ * Spam bots and sign shops send the same strings over and over.  The first
+ * time a message is seen, the chain runs as usual, and the rules whose
+ * patterns matched are recorded.  When the same raw message arrives on the
+ * same listener, and the chain hasn't been recompiled since (the key includes
+ * the {@link CompiledChain#getEpoch() epoch}), only the recorded rules are
+ * applied: their conditions are checked and their actions run, exactly as if
+ * the patterns had matched again.  Actions with side effects (kick, notify,
+ * points, etc.) therefore still happen on every hit, and log messages are
+ * written for the new author.
+ * <p>
+ * Outcomes that depend on more than the message are never cached: a user or
+ * permission condition was checked, a random replacement was made, or a
+ * pattern ran out of time.  See {@link FilterTask#setNondeterministic()}.
+ */
+public final class VerdictCache {
+
+    private final int maximumSize;
+    private final Cache<Key, Verdict> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder uncacheable = new LongAdder();
+
+    /**
+     * @param maximumSize Number of messages to remember.  0 disables the cache.
+     */
+    public VerdictCache(int maximumSize) {
+        this.maximumSize = Math.max(0, maximumSize);
+        this.cache = (this.maximumSize > 0) ? CacheBuilder.newBuilder().maximumSize(this.maximumSize).build() : null;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Apply a chain to a task, using a cached verdict if there is one.
+     *
+     * @param chain The snapshot of the chain to apply
+     * @param filterTask The task to filter
+     */
+    public void apply(CompiledChain chain, FilterTask filterTask) {
+        if (cache == null) {
+            chain.apply(filterTask);
+            return;
+        }
+        Key key = new Key(chain.getEpoch(), filterTask.getListenerName(), filterTask.getOriginalMessage().getRaw());
+        Verdict verdict = cache.getIfPresent(key);
+        if (verdict != null) {
+            hits.increment();
+            if (!verdict.replay(filterTask)) {
+                // Shouldn't happen, but if an action didn't do what it did last time, don't trust the entry.
+                cache.invalidate(key);
+                LogManager.getInstance().debugLow("Discarded cached verdict for: " + key.message);
+            }
+            return;
+        }
+
+        misses.increment();
+        filterTask.recordMatchedRules();
+        chain.apply(filterTask);
+        if (filterTask.isDeterministic()) {
+            cache.put(key, new Verdict(filterTask));
+        } else {
+            uncacheable.increment();
+        }
+    }
+
+    /**
+     * @return the number of messages that were filtered using a cached verdict.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of messages that were run through the whole chain.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of misses whose outcome could not be cached.
+     */
+    public long getUncacheableCount() {
+        return uncacheable.sum();
+    }
+
+    /**
+     * @return the number of verdicts currently cached.
+     */
+    public long size() {
+        return (cache == null) ? 0 : cache.size();
+    }
+
+    public void invalidateAll() {
+        if (cache != null) cache.invalidateAll();
+    }
+
+    private static final class Key {
+        final long epoch;
+        final String listener;
+        final String message;
+        final int hash;
+
+        Key(long epoch, String listener, String message) {
+            this.epoch = epoch;
+            this.listener = listener;
+            this.message = message;
+            this.hash = (31 * Long.hashCode(epoch) + listener.hashCode()) * 31 + message.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hash == other.hash && epoch == other.epoch && listener.equals(other.listener)
+                    && message.equals(other.message);
+        }
+    }
+
+    /* The outcome of filtering one message. */
+    private static final class Verdict {
+        final Rule[] matchedRules;
+        final String modifiedMessage;
+        final boolean cancelled;
+
+        Verdict(FilterTask filterTask) {
+            List<Rule> rules = filterTask.getMatchedRules();
+            this.matchedRules = rules.toArray(new Rule[rules.size()]);
+            this.modifiedMessage = filterTask.getModifiedMessage().getRaw();
+            this.cancelled = filterTask.isCancelled();
+        }
+
+        /* Returns false if the replay didn't produce the recorded outcome. */
+        boolean replay(FilterTask filterTask) {
+            for (Rule rule : matchedRules) {
+                if (filterTask.isAborted()) break;
+                rule.applyMatched(filterTask);
+            }
+            return filterTask.isCancelled() == cancelled &&
+                    filterTask.getModifiedMessage().getRaw().equals(modifiedMessage);
+        }
+    }
+}
@@ -11,7 +11,6 @@
 package com.pwn9.PwnFilter.rules.action.core;
 
 import com.pwn9.PwnFilter.FilterTask;
-import com.pwn9.PwnFilter.minecraft.util.ColoredString;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.util.EnhancedString;
 
@@ -34,6 +33,6 @@ public class Lower implements Action {
     public void execute(final FilterTask filterTask) {
         EnhancedString cs = filterTask.getModifiedMessage();
         filterTask.addLogMessage("Converting to lowercase.");
-        filterTask.setModifiedMessage((ColoredString) cs.patternToLower(filterTask.getPattern()));
+        filterTask.setModifiedMessage(cs.patternToLower(filterTask.getPattern()));
     }
 }
@@ -61,7 +61,7 @@ public class Points implements Action {
 
         pm.addPoints(p.getID(), pointsAmount);
 
-        filterTask.addLogMessage(String.format("Points Accumulated %s : %f. Total: %f", p.getName(), pointsAmount, pm.getPoints(p)));
+        filterTask.addLogMessage("Points Accumulated %s : %f. Total: %f", p.getName(), pointsAmount, pm.getPoints(p));
 
         if (!messageString.isEmpty()) {
           p.sendMessage(messageString);
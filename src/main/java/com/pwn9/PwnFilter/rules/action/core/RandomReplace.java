@@ -37,6 +37,7 @@ public class RandomReplace implements Action {
 
     /** {@inheritDoc} */
     public void execute(final FilterTask filterTask) {
+        filterTask.setNondeterministic();
         int randomInt = random.nextInt(toRand.length);
         filterTask.setModifiedMessage(filterTask.getModifiedMessage().replaceText(filterTask.getPattern(),toRand[randomInt]));
     }
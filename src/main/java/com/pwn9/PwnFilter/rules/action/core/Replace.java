@@ -14,7 +14,7 @@ import com.pwn9.PwnFilter.FilterTask;
 import com.pwn9.PwnFilter.helpers.ChatColor;
 import com.pwn9.PwnFilter.minecraft.util.ColoredString;
 import com.pwn9.PwnFilter.rules.action.Action;
-import com.pwn9.PwnFilter.util.SimpleString;
+import com.pwn9.PwnFilter.util.EnhancedString;
 
 /**
  * Decolor the whole string and replace the matched text with the replacement string.
@@ -36,6 +36,19 @@ public class Replace implements Action {
 
     /** {@inheritDoc} */
     public void execute(final FilterTask filterTask) {
-        filterTask.setModifiedMessage(new ColoredString(filterTask.getModifiedMessage().getColoredString()).replaceText(filterTask.getPattern(), messageString));
+        EnhancedString message = filterTask.getModifiedMessage();
+        // Reading the raw text back in can only change the message if a '&'
+        // in the text would look like a code.  Otherwise, don't rebuild it.
+        if (contains(message.getPlainText(), '&')) {
+            message = ColoredString.forMessage(message.getRaw());
+        }
+        filterTask.setModifiedMessage(message.replaceText(filterTask.getPattern(), messageString));
+    }
+
+    private static boolean contains(CharSequence text, char c) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) return true;
+        }
+        return false;
     }
 }
@@ -11,7 +11,6 @@
 package com.pwn9.PwnFilter.rules.action.core;
 
 import com.pwn9.PwnFilter.FilterTask;
-import com.pwn9.PwnFilter.minecraft.util.ColoredString;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.util.EnhancedString;
 
@@ -32,7 +31,7 @@ public class Upper implements Action {
 
     /** {@inheritDoc} */
     public void execute(final FilterTask filterTask) {
-        ColoredString cs = filterTask.getModifiedMessage();
+        EnhancedString cs = filterTask.getModifiedMessage();
         filterTask.addLogMessage("Converting to uppercase.");
         filterTask.setModifiedMessage(cs.patternToUpper(filterTask.getPattern()));
 
@@ -49,10 +49,10 @@ public class Fine implements Action {
 
             MinecraftPlayer p = (MinecraftPlayer)filterTask.getAuthor();
             if (p.withdrawMoney(fineAmount, messageString)) {
-                filterTask.addLogMessage(String.format("Fined %s : %f", filterTask.getAuthor().getName(), fineAmount));
+                filterTask.addLogMessage("Fined %s : %f", filterTask.getAuthor().getName(), fineAmount);
             } else {
-                filterTask.addLogMessage(String.format("Failed to fine %s.",
-                        filterTask.getAuthor().getName()));
+                filterTask.addLogMessage("Failed to fine %s.",
+                        filterTask.getAuthor().getName());
             }
 
         }
@@ -19,15 +19,29 @@ import com.pwn9.PwnFilter.rules.ShortCutManager;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.rules.action.ActionFactory;
 import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.WordList;
+import com.pwn9.PwnFilter.util.regex.BacktrackingAnalyzer;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Text-file Rule Parser
+ * <p>
+ * Rule patterns are compiled on the fork-join pool while the rest of the file
+ * is read, and the rules are only added to the chain by {@link #finish()}, in
+ * file order.  Messages logged while reading are held back until then too,
+ * so several files can be read at once (see
+ * {@link com.pwn9.PwnFilter.rules.RuleManager#reloadAllConfigs()}), and each
+ * one still reports its errors in order, and ends up with the same chain as
+ * if it had been read alone.
+ * <p>
+ * A file that loads without errors is also saved as a {@link RuleBundle}, which is
+ * loaded instead of the files until one of them changes.
+ * <p>
  * User: ptoal
  * Date: 13-11-16
  * Time: 3:17 PM
@@ -44,6 +58,31 @@ public class FileParser {
     private int lineNo;
     private Map<String, String> shortcuts = null;
     private Chain chain;
+    private boolean fileRead;
+    private boolean fromBundle;
+    private boolean clean;
+    private long startTime;
+
+    // Work left for finish(), in file order: held log messages, and rules
+    // waiting for their patterns.  Included files share their parent's list.
+    private final List<Runnable> deferred;
+
+    // The rule and shortcut files this chain depends on, whether or not they
+    // could be read, and what we've read, for saving a RuleBundle.  Also
+    // shared with included files.
+    private final Set<String> files;
+    private final RuleBundle bundle;
+    private final Map<Action, String[]> actionSources;
+
+    // Patterns and conditions shared with the other chains being loaded.
+    private final ParseCache cache;
+    // Whether we made the cache ourselves, and so release it when we're done.
+    private boolean ownsCache;
+
+    // Regex cost report for this file
+    private int rulesAnalyzed, possessiveCount, polynomialRules, exponentialRules;
+    private BacktrackingAnalyzer.Report worstCase;
+    private int worstCaseLine;
 
     /**
      * <p>Constructor for FileParser.</p>
@@ -53,9 +92,19 @@ public class FileParser {
      * @param createFile a boolean.
      */
     public FileParser(String filename, FileParser parent, boolean createFile) {
+        this(filename, parent, createFile, (parent == null) ? new ParseCache() : parent.cache);
+        this.ownsCache = (parent == null);
+    }
+
+    private FileParser(String filename, FileParser parent, boolean createFile, ParseCache cache) {
         this.filename = filename;
         this.parent = parent;
         this.createFile = createFile;
+        this.deferred = (parent == null) ? new ArrayList<>() : parent.deferred;
+        this.files = (parent == null) ? new LinkedHashSet<>() : parent.files;
+        this.bundle = (parent == null) ? new RuleBundle(filename) : parent.bundle;
+        this.actionSources = (parent == null) ? new IdentityHashMap<>() : parent.actionSources;
+        this.cache = cache;
     }
 
     /**
@@ -67,6 +116,17 @@ public class FileParser {
         this(filename, null, true);
     }
 
+    /**
+     * A parser for a top-level file, which shares compiled patterns and
+     * conditions with the other parsers using the same cache.
+     *
+     * @param filename a {@link java.lang.String} object.
+     * @param cache a {@link com.pwn9.PwnFilter.rules.parser.ParseCache} object.
+     */
+    public FileParser(String filename, ParseCache cache) {
+        this(filename, null, true, cache);
+    }
+
     /**
      * <p>Getter for the field <code>filename</code>.</p>
      *
@@ -85,6 +145,15 @@ public class FileParser {
         return parent;
     }
 
+    /**
+     * @return the names of the rule and shortcut files that were (or would
+     * have been) read, including included files.  A change to any of them
+     * could change the chain.
+     */
+    public Set<String> getFiles() {
+        return Collections.unmodifiableSet(files);
+    }
+
     /**
      * <p>getParentFiles.</p>
      *
@@ -104,12 +173,96 @@ public class FileParser {
 
     /**
      * Load rules from a Reader stream.  This is the top-level parser for the file.
+     * Same as {@link #read(Chain)} followed by {@link #finish()}.
      *
      * @return true on successful read.  false if file was not found, or an IOException occurred.
      * @param chain a {@link com.pwn9.PwnFilter.rules.Chain} object.
      */
     public boolean parseRules(Chain chain) {
-        RuleStreamReader reader;
+        read(chain);
+        return finish();
+    }
+
+    /**
+     * Read the file into the chain, except for the rules themselves, which are
+     * added by {@link #finish()}.  Log messages are held back until then.
+     * If the file has a saved {@link RuleBundle}, and none of its files have
+     * changed, that's loaded instead.
+     * This may run on another thread, as long as it has returned before
+     * finish() is called.
+     *
+     * @param chain a {@link com.pwn9.PwnFilter.rules.Chain} object.
+     */
+    public void read(Chain chain) {
+        if (parent != null) {
+            fileRead = readFile(chain);
+            return;
+        }
+        startTime = System.nanoTime();
+        LogManager.holdMessages(deferred);
+        try {
+            if (RuleBundle.load(filename, chain, files, cache)) {
+                this.chain = chain;
+                fromBundle = true;
+                fileRead = true;
+            } else {
+                fileRead = readFile(chain);
+            }
+        } finally {
+            LogManager.releaseMessages();
+        }
+    }
+
+    /**
+     * Log the messages held back by {@link #read(Chain)}, and add the rules to
+     * the chain, waiting for their patterns to compile if need be.
+     *
+     * @return true if the file was read, and the chain has rules.
+     */
+    public boolean finish() {
+        // Hold on to the messages once more, to find out whether there were any.
+        List<Runnable> messages = new ArrayList<>();
+        LogManager.holdMessages(messages);
+        try {
+            for (Runnable work : deferred) {
+                work.run();
+            }
+        } finally {
+            LogManager.releaseMessages();
+        }
+        deferred.clear();
+        for (Runnable message : messages) {
+            message.run();
+        }
+
+        // The load was clean if nothing but the regex cost report was logged.
+        // Only then is the bundle saved (and one is only loaded if it was).
+        boolean loaded = fileRead && !chain.isEmpty();
+        clean = loaded && (fromBundle || messages.size() == bundle.getMessageCount());
+        if (clean && !fromBundle) {
+            bundle.save();
+        }
+        LogManager.getInstance().debugLow(String.format("Loaded %s from %s in %.1f ms.", filename,
+                fromBundle ? "compiled rules" : "rule files", (System.nanoTime() - startTime) / 1e6));
+        if (ownsCache) cache.release();
+        return loaded;
+    }
+
+    /**
+     * Whether the last {@link #finish()} loaded every rule in the files.  A
+     * rule with an error is logged and left out, and a file that was caught
+     * half-written may just have fewer rules, so a chain can load, but not
+     * cleanly.
+     *
+     * @return true if the chain loaded, and nothing but the regex cost report
+     * was logged while loading it.
+     */
+    public boolean isClean() {
+        return clean;
+    }
+
+    private boolean readFile(Chain chain) {
+        RuleLexer reader;
 
         this.chain = chain;
         // Check to make sure this file isn't already in the parent chain
@@ -119,83 +272,97 @@ public class FileParser {
         }
 
         // Open the file for reading.
+        files.add(filename);
         File ruleFile = FileUtil.getFile(FilterConfig.getInstance().getRulesDir(), filename, createFile);
         if(ruleFile == null) {
             LogManager.warn("File not found: " + filename + ". Aborting parsing.");
             return false;
         }
         try {
-            reader = new RuleStreamReader(new FileReader(ruleFile));
-        } catch (FileNotFoundException ex) {
+            byte[] data = Files.readAllBytes(ruleFile.toPath());
+            bundle.addSource(filename, data);
+            reader = new RuleLexer(data);
+        } catch (IOException ex) {
             LogManager.warn("File not found: " + filename + ". Aborting parsing.");
             return false;
         }
 
         // Now read the file.  This loop reads the top-level instructions, and passes
         // second-level handling off to individual methods.
-        try {
-            String line;
+        String line;
 
-            while ((line = reader.readLine()) != null) {
+        while ((line = reader.readLine()) != null) {
 
-                // Outside of a section, we ignore blank lines.
-                if (line.isEmpty()) continue;
+            // Outside of a section, we ignore blank lines.
+            if (line.isEmpty()) continue;
 
-                TokenString tokenString = new TokenString(line);
-                String command = tokenString.popToken();
-                lineNo = reader.getLineNumber();
+            TokenString tokenString = new TokenString(line);
+            String command = tokenString.popToken();
+            lineNo = reader.getLineNumber();
 
-                try {
-                    // Process an Action Group
-                    if (command.equalsIgnoreCase("actiongroup")) {
-                        String groupName = tokenString.popToken();
-                        parseActionGroup(groupName,reader.readSection());
-                    }
-                    // Process a Condition Group
-                    else if (command.equalsIgnoreCase("conditiongroup")) {
-                        String groupName = tokenString.popToken();
-                        parseConditionGroup(groupName,reader.readSection());
-                    }
-                    // Check if this is a toggle for shortcuts.
-                    else if (command.equalsIgnoreCase("shortcuts")) {
-                        String fileName = tokenString.popToken();
-                        toggleShortcuts(fileName);
-                    }
-                    // Process an included file
-                    else if (command.equalsIgnoreCase("include")) {
-                        String fileName = tokenString.popToken();
-                        processIncludedFile(fileName);
-                    }
-                    // Parse a rule starting with the pattern
-                    else if (command.matches("match|catch|replace|rewrite")) {
-                        String pattern = ShortCutManager.replace(shortcuts,tokenString.getString());
-                        parseRule(new Rule(pattern), reader.readSection());
-                    }
-                    // Parse a rule starting with the ID/Description
-                    else if (command.matches("rule")) {
-                        String id = tokenString.popToken();
-                        String descr = tokenString.getString();
-                        parseRule(new Rule(id, descr), reader.readSection());
-                    }
-                } catch (ParserException e) {
-                    parserError(e.getLineNo(),e.getMessage());
+            try {
+                // Process an Action Group
+                if (command.equalsIgnoreCase("actiongroup")) {
+                    String groupName = tokenString.popToken();
+                    parseActionGroup(groupName,reader.readSection());
                 }
-
+                // Process a Condition Group
+                else if (command.equalsIgnoreCase("conditiongroup")) {
+                    String groupName = tokenString.popToken();
+                    parseConditionGroup(groupName,reader.readSection());
+                }
+                // Check if this is a toggle for shortcuts.
+                else if (command.equalsIgnoreCase("shortcuts")) {
+                    String fileName = tokenString.popToken();
+                    toggleShortcuts(fileName);
+                }
+                // Default regex limits for the rules in this chain
+                else if (command.equalsIgnoreCase("timeout")) {
+                    int timeout = (int) parseLimit(tokenString.popToken(), lineNo);
+                    chain.setTimeout(timeout);
+                    bundle.recordTimeout(timeout);
+                }
+                else if (command.equalsIgnoreCase("steplimit")) {
+                    long stepLimit = parseLimit(tokenString.popToken(), lineNo);
+                    chain.setStepLimit(stepLimit);
+                    bundle.recordStepLimit(stepLimit);
+                }
+                // Process an included file
+                else if (command.equalsIgnoreCase("include")) {
+                    String fileName = tokenString.popToken();
+                    processIncludedFile(fileName);
+                }
+                // Parse a rule starting with the pattern
+                else if (command.equals("match") || command.equals("catch") || command.equals("replace") || command.equals("rewrite")) {
+                    String pattern = ShortCutManager.replace(shortcuts,tokenString.getString());
+                    parseRule(new Rule(), pattern, null, reader.readSection());
+                }
+                // Parse a rule matching the words in a file
+                else if (command.equalsIgnoreCase("wordlist")) {
+                    String fileName = tokenString.popToken();
+                    parseRule(new Rule(), null, fileName, reader.readSection());
+                }
+                // Parse a rule starting with the ID/Description
+                else if (command.equals("rule")) {
+                    String id = tokenString.popToken();
+                    String descr = tokenString.getString();
+                    parseRule(new Rule(id, descr), null, null, reader.readSection());
+                }
+            } catch (ParserException e) {
+                parserError(e.getLineNo(),e.getMessage());
             }
 
-            reader.close();
-
-        } catch (IOException e) {
-            LogManager.error("IO Exception during processing: " + e.getMessage());
-            return false;
         }
-        return !chain.isEmpty();
+
+        deferred.add(this::logCostReport);
+
+        return true;
     }
 
 
     /* Private Parser Methods */
 
-    private void parseRule(Rule rule, List<NumberedLine> lines) throws ParserException {
+    private void parseRule(Rule rule, String pattern, String wordFile, List<NumberedLine> lines) throws ParserException {
 
         for (NumberedLine line : lines) {
             TokenString tokenString = new TokenString(line.string);
@@ -207,7 +374,21 @@ public class FileParser {
                 rule.setDescription(tokenString.getString()); // Second argument is the Description
             }
             else if (command.equalsIgnoreCase("match")) {
-                rule.setPattern(ShortCutManager.replace(shortcuts, tokenString.getString()));
+                pattern = ShortCutManager.replace(shortcuts, tokenString.getString());
+                wordFile = null;
+            }
+            // wordlist <file>
+            else if (command.equalsIgnoreCase("wordlist")) {
+                wordFile = tokenString.popToken();
+                pattern = null;
+            }
+            // timeout <milliseconds>
+            else if (command.equalsIgnoreCase("timeout")) {
+                rule.setTimeout((int) parseLimit(tokenString.popToken(), line.number));
+            }
+            // steplimit <characters>
+            else if (command.equalsIgnoreCase("steplimit")) {
+                rule.setStepLimit(parseLimit(tokenString.popToken(), line.number));
             }
             // conditions <conditiongroup>
             else if (command.equalsIgnoreCase("conditions")) {
@@ -227,7 +408,7 @@ public class FileParser {
             else if (command.equalsIgnoreCase("then")) {
                 String actionName = tokenString.popToken();
                 try {
-                    Action newAction = ActionFactory.getAction(actionName,tokenString.getString());
+                    Action newAction = newAction(actionName,tokenString.getString());
                     if (!rule.addAction(newAction)) {
                         throw new ParserException(line.number,"Unable to add action to rule: " + actionName);
                     }
@@ -238,36 +419,146 @@ public class FileParser {
             // condition <parameters>
             else if ( Condition.isCondition(command))  {
                 // This is a condition.  Add a new condition to this rule.
-                Condition newCondition = Condition.newCondition(tokenString.getOriginalString());
+                Condition newCondition = cache.condition(tokenString.getOriginalString());
                 if (!rule.addCondition(newCondition)) {
                     throw new ParserException(line.number,"Could not parse condition: " + tokenString.getOriginalString());
                 }
             }
             // events [not] <event>,<event>...
             else if (command.equalsIgnoreCase("events")) {
-                parserError(line.number, "Deprecation warning: 'events' keyword is deprecated.  Please add " +
-                        "rules to the correct file instead of using 'events' (eg: command.txt, chat.txt, etc.)");
-                List<String> eventlist;
-                if (tokenString.getString().matches("^not\b")) {
+                // Saved with the bundle, so a file using 'events' can still be loaded from one.
+                String warning = String.format("Parser Error (%s:%d) Deprecation warning: 'events' keyword is " +
+                        "deprecated.  Please add rules to the correct file instead of using 'events' " +
+                        "(eg: command.txt, chat.txt, etc.)", filename, line.number);
+                LogManager.warn(warning);
+                bundle.recordMessage(true, warning);
+                List<String> eventlist = rule.includeEvents;
+                String token = tokenString.popToken();
+                if (token.equalsIgnoreCase("not")) {
                     eventlist = rule.excludeEvents;
-                } else {
-                    eventlist = rule.includeEvents;
+                    token = tokenString.popToken();
                 }
-                String token;
-                while (!(token = tokenString.popToken()).isEmpty()) {
+                while (!token.isEmpty()) {
                     for (String subtoken : token.split(",")) {
-                        eventlist.add(subtoken.trim().toUpperCase());
+                        if (!subtoken.trim().isEmpty()) eventlist.add(subtoken.trim().toUpperCase());
                     }
+                    token = tokenString.popToken();
                 }
             }
         }
-        if (rule != null && rule.isValid()) {
-            chain.append(rule);
+        if (wordFile != null) {
+            final int line = lineNo;
+            ForkJoinTask<WordList> words = readWordList(wordFile);
+            deferred.add(() -> addRule(rule, words.join(), line));
             return;
         }
+        if (pattern == null) {
+            throw new ParserException(lineNo,"Unable to parse a valid rule.");
+        }
+
+        // Compile the pattern while we read on (unless another file already
+        // has).  finish() adds the rule.
+        final int line = lineNo;
+        ForkJoinTask<ParseCache.CompiledPattern> compiled = cache.compile(pattern);
+        deferred.add(() -> addRule(rule, compiled.join(), line));
+    }
+
+    private void addRule(Rule rule, ParseCache.CompiledPattern compiled, int line) {
+        if (compiled.error != null) {
+            LogManager.warn("Failed to compile regex: " + compiled.regex);
+            LogManager.warn(compiled.error.getMessage());
+        } else {
+            rule.setPattern(compiled.pattern);
+        }
+        if (rule.isValid()) {
+            analyzeCost(compiled.report, line);
+            chain.append(rule);
+            bundle.recordRule(rule, sourcesOf(rule.getActions()));
+        } else {
+            parserError(line, "Unable to parse a valid rule.");
+        }
+    }
+
+    private ForkJoinTask<WordList> readWordList(String name) throws ParserException {
+        files.add(name);
+        File wordFile = FileUtil.getFile(FilterConfig.getInstance().getRulesDir(), name, false);
+        if (wordFile == null) {
+            throw new ParserException(lineNo, "Could not load word list: " + name);
+        }
+        try {
+            // Lists can be huge, so they're hashed as they're read, not read onto the heap.
+            byte[] hash = bundle.addSource(name, wordFile);
+            return cache.wordList(name, hash, wordFile);
+        } catch (IOException e) {
+            throw new ParserException(lineNo, "Could not load word list: " + name + " (" + e.getMessage() + ")");
+        }
+    }
 
-        throw new ParserException(lineNo,"Unable to parse a valid rule.");
+    private void addRule(Rule rule, WordList words, int line) {
+        rule.setWordList(words);
+        if (words.size() == 0) {
+            parserError(line, "Empty word list: " + words.getName());
+        } else if (rule.isValid()) {
+            LogManager.getInstance().debugMedium(String.format("Loaded %d words from %s", words.size(), words.getName()));
+            chain.append(rule);
+            bundle.recordRule(rule, sourcesOf(rule.getActions()));
+        } else {
+            parserError(line, "Unable to parse a valid rule.");
+        }
+    }
 
+    /**
+     * Add a rule's pattern, as written, to the cost report for this file, and
+     * warn if it can backtrack catastrophically.
+     */
+    private void analyzeCost(BacktrackingAnalyzer.Report report, int line) {
+        rulesAnalyzed++;
+        possessiveCount += report.getPossessiveCount();
+        switch (report.getRisk()) {
+            case EXPONENTIAL:
+                exponentialRules++;
+                break;
+            case POLYNOMIAL:
+                polynomialRules++;
+                break;
+            default:
+                return;
+        }
+        String warning = String.format("Regex Warning (%s:%d) %s backtracking in: %s (%s)", filename, line,
+                report.getComplexity(), report.getPattern(), String.join("; ", report.getProblems()));
+        LogManager.warn(warning);
+        bundle.recordMessage(true, warning);
+        if (worstCase == null || report.getEstimatedSteps() > worstCase.getEstimatedSteps()) {
+            worstCase = report;
+            worstCaseLine = line;
+        }
+    }
+
+    private void logCostReport() {
+        if (rulesAnalyzed == 0) return;
+        String summary = String.format("Regex cost for %s: %d rules, %d possessive quantifiers, %d polynomial, %d exponential.",
+                filename, rulesAnalyzed, possessiveCount, polynomialRules, exponentialRules);
+        if (worstCase == null) {
+            LogManager.getInstance().debugLow(summary + " Worst case: O(n)");
+        } else {
+            String report = String.format("%s Worst case: %s at line %d, ~%.1e steps for a %d character message.",
+                    summary, worstCase.getComplexity(), worstCaseLine, worstCase.getEstimatedSteps(),
+                    BacktrackingAnalyzer.MESSAGE_LENGTH);
+            LogManager.info(report);
+            bundle.recordMessage(false, report);
+        }
+    }
+
+    /**
+     * Parse a regex limit: a non-negative number, where 0 means no limit.
+     */
+    private long parseLimit(String value, int line) throws ParserException {
+        try {
+            long limit = Long.parseLong(value);
+            if (limit >= 0 && limit <= Integer.MAX_VALUE) return limit;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new ParserException(line, "Invalid limit: '" + value + "'.  Expected a number, or 0 for no limit.");
     }
 
     /**
@@ -285,7 +576,7 @@ public class FileParser {
             String command  = tString.popToken();
 
             if (command.equals("then")) command = tString.popToken();
-            Action thisAction = ActionFactory.getAction(command,tString.getString());
+            Action thisAction = newAction(command,tString.getString());
 
             if (thisAction != null) {
                 actionGroup.add(thisAction);
@@ -298,6 +589,7 @@ public class FileParser {
             throw new ParserException(lineNo,"Empty actionGroup found: " + groupName);
         } else {
             chain.addActionGroup(groupName,actionGroup);
+            bundle.recordActionGroup(groupName, sourcesOf(actionGroup));
         }
 
     }
@@ -329,10 +621,29 @@ public class FileParser {
             throw new ParserException(lineNo,"Empty Condition Group found: " + groupName);
         } else {
             chain.addConditionGroup(groupName,conditionGroup);
+            bundle.recordConditionGroup(groupName, conditionGroup);
         }
 
     }
 
+    /* Create an action, remembering what it was made from for the RuleBundle. */
+    private Action newAction(String name, String parameters) {
+        Action action = ActionFactory.getAction(name, parameters);
+        if (action != null) actionSources.put(action, new String[]{name, parameters});
+        return action;
+    }
+
+    /* The names and parameters of the actions, or null if we didn't make one of them. */
+    private List<String[]> sourcesOf(List<Action> actions) {
+        List<String[]> sources = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            String[] source = actionSources.get(action);
+            if (source == null) return null;
+            sources.add(source);
+        }
+        return sources;
+    }
+
     private void processIncludedFile(String lineData) throws ParserException {
         // Major change to the way this is done.  It used to be its own chain, which was linked.
         // Now, we are going to import each statement into this chain.  We will apply this chain's
@@ -346,7 +657,7 @@ public class FileParser {
 
         FileParser includedChainParser = new FileParser(lineData,this, false);
 
-        includedChainParser.parseRules(chain);
+        includedChainParser.read(chain);
 
     }
 
@@ -355,10 +666,16 @@ public class FileParser {
         if (name.isEmpty()) {
             shortcuts = null;
         } else {
+            files.add(name);
             shortcuts = ShortCutManager.getInstance().getShortcutMap(name);
             if (shortcuts == null || shortcuts.isEmpty()) {
                 throw new ParserException(lineNo,"Could not load shortcuts file: " + name);
             }
+            try {
+                bundle.addSource(name, new File(FilterConfig.getInstance().getRulesDir(), name));
+            } catch (IOException e) {
+                bundle.invalidate();
+            }
         }
     }
 
@@ -0,0 +1,188 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import com.pwn9.PwnFilter.rules.Condition;
+import com.pwn9.PwnFilter.util.PatternPool;
+import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.WordList;
+import com.pwn9.PwnFilter.util.regex.BacktrackingAnalyzer;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiled patterns, word lists and conditions, shared by the chains loaded
+ * together.
+ * <p>
+ * Most rule files include the same lists (swear words, hate speech, ...), so
+ * without this, each chain would compile and analyze every one of those
+ * patterns again, and keep its own copy of them.  Patterns and conditions
+ * are immutable, so the chains can share them.  The Rules themselves are
+ * not shared, as their actions and action groups belong to the chain that
+ * included the file.
+ * <p>
+ * Patterns are looked up by their text after shortcuts have been replaced,
+ * so the same line only shares a pattern between files that had the same
+ * shortcuts active.  They come from the {@link PatternPool}, so the lines
+ * already in use by a loaded chain aren't compiled again, and the cache
+ * retains each of them until {@link #release()}.
+ * <p>
+ * A cache is only used for one load (see
+ * {@link com.pwn9.PwnFilter.rules.RuleManager#reloadAllConfigs()}), and
+ * released once the chains are published, so it never holds on to patterns
+ * that are no longer used.
+ */
+public final class ParseCache {
+
+    private final ConcurrentMap<String, ForkJoinTask<CompiledPattern>> compiled = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Condition> conditions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ForkJoinTask<WordList>> wordLists = new ConcurrentHashMap<>();
+    private final Queue<Pattern> retained = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Compile (and harden) a rule's pattern on the fork-join pool, unless
+     * it's already been done for this load.
+     */
+    ForkJoinTask<CompiledPattern> compile(String regex) {
+        ForkJoinTask<CompiledPattern> task = compiled.get(regex);
+        if (task == null) {
+            ForkJoinTask<CompiledPattern> newTask = ForkJoinTask.adapt(() -> new CompiledPattern(regex, this));
+            task = compiled.putIfAbsent(regex, newTask);
+            if (task == null) {
+                task = newTask;
+                ForkJoinPool.commonPool().execute(task);
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Get a word list on the fork-join pool (see {@link WordListStore}),
+     * unless it's already been done for this load.
+     *
+     * @param name The name of the file, in the rules directory
+     * @param hash The SHA-256 of the file
+     * @param source The file, which is only read if the list has to be built
+     */
+    ForkJoinTask<WordList> wordList(String name, byte[] hash, File source) {
+        ForkJoinTask<WordList> task = wordLists.get(name);
+        if (task == null) {
+            ForkJoinTask<WordList> newTask = ForkJoinTask.adapt(() -> WordListStore.get(name, hash, source));
+            task = wordLists.putIfAbsent(name, newTask);
+            if (task == null) {
+                task = newTask;
+                ForkJoinPool.commonPool().execute(task);
+            }
+        }
+        return task;
+    }
+
+    /**
+     * An already hardened pattern, from a {@link RuleBundle}.
+     */
+    Pattern pattern(String source, int flags) {
+        return patterns.computeIfAbsent(key(source, flags), key -> {
+            Pattern pattern = PatternPool.acquire(source, flags);
+            if (pattern == null) pattern = PatternPool.intern(null, Pattern.compile(source, flags));
+            retained.add(pattern);
+            return pattern;
+        });
+    }
+
+    /* The pooled pattern for this regex, or null if there isn't one yet. */
+    private Pattern acquire(String regex) {
+        Pattern pattern = PatternPool.acquire(regex);
+        if (pattern != null) retained.add(pattern);
+        return pattern;
+    }
+
+    private Pattern intern(String regex, Pattern pattern) {
+        Pattern shared = PatternPool.intern(regex, pattern);
+        retained.add(shared);
+        return shared;
+    }
+
+    /**
+     * Release the patterns retained by this cache.  The chains that were
+     * loaded retain the ones they use when they're published.
+     */
+    public void release() {
+        Pattern pattern;
+        while ((pattern = retained.poll()) != null) {
+            PatternPool.release(pattern);
+        }
+    }
+
+    private static String key(String source, int flags) {
+        return flags + ":" + source;
+    }
+
+    /**
+     * @see Condition#newCondition(String)
+     * @return the condition, or null if the line couldn't be parsed.
+     */
+    Condition condition(String line) {
+        Condition condition = conditions.get(line);
+        if (condition == null) {
+            condition = Condition.newCondition(line);
+            if (condition != null) {
+                Condition existing = conditions.putIfAbsent(line, condition);
+                if (existing != null) condition = existing;
+            }
+        }
+        return condition;
+    }
+
+    /**
+     * A rule's pattern, compiled (and hardened) and checked for catastrophic
+     * backtracking.  Only holds the results, so the work can be done on any
+     * thread.
+     */
+    static final class CompiledPattern {
+        final String regex;
+        final Pattern pattern;
+        final PatternSyntaxException error;
+        final BacktrackingAnalyzer.Report report;
+
+        CompiledPattern(String regex, ParseCache cache) {
+            Pattern compiled = null;
+            PatternSyntaxException failure = null;
+            BacktrackingAnalyzer.Report analysis = null;
+            try {
+                // The regex as written is analyzed once, both to harden it
+                // (like Patterns.compile()) and for the cost report.
+                compiled = cache.acquire(regex);
+                if (compiled != null) {
+                    analysis = BacktrackingAnalyzer.analyze(regex, compiled.flags());
+                } else {
+                    Pattern original = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+                    analysis = BacktrackingAnalyzer.analyze(original);
+                    compiled = cache.intern(regex, Patterns.harden(original, analysis));
+                }
+            } catch (PatternSyntaxException e) {
+                failure = e;
+            }
+            this.regex = regex;
+            this.pattern = compiled;
+            this.error = failure;
+            this.report = analysis;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.rules.Chain;
+import com.pwn9.PwnFilter.rules.Condition;
+import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.ActionFactory;
+import com.pwn9.PwnFilter.util.LogManager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A rule file, already parsed, saved in the "rulecache" directory next to the
+ * rules directory, so the next start can skip reading the file, expanding
+ * shortcuts and analyzing every regex.
+ * <p>
+ * The bundle holds the SHA-256 of every file that went into it (the rule
+ * file, the files it includes, and the shortcut files and word lists they
+ * use), and is only used while all of them are unchanged.  It holds the
+ * chain's settings and groups, and for each rule the final (hardened)
+ * pattern (or the name of its word list, which is read again), and the
+ * conditions and actions in the form they're parsed from, so loading one
+ * gives the same chain as parsing the files.  The prefilter and automaton
+ * are built from the patterns as usual.
+ * <p>
+ * The regex cost warnings, and warnings about the deprecated 'events' keyword,
+ * are saved too, and logged again when the bundle is loaded.  Files with any
+ * other problem aren't saved, so those are reported from the files
+ * themselves on every start.
+ */
+class RuleBundle {
+
+    private static final int MAGIC = 0x50464231; // "PFB1"
+    private static final int VERSION = 3; // Change this when a file could parse or harden differently.
+
+    private static final byte TIMEOUT = 1;
+    private static final byte STEP_LIMIT = 2;
+    private static final byte ACTION_GROUP = 3;
+    private static final byte CONDITION_GROUP = 4;
+    private static final byte RULE = 5;
+    private static final byte WARNING = 6;
+    private static final byte INFO = 7;
+    private static final byte WORD_RULE = 8;
+
+    private final String configName;
+    private final List<String> sourceNames = new ArrayList<>();
+    private final List<byte[]> sourceHashes = new ArrayList<>();
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(content);
+    private boolean broken; // Something couldn't be recorded, so don't save.
+    private int messageCount;
+
+    /**
+     * Start recording a bundle.
+     *
+     * @param configName The top-level rule file
+     */
+    RuleBundle(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * Record a file that went into this bundle.
+     *
+     * @param name The name of the file in the rules directory
+     * @param data The contents of the file
+     * @return the hash of the file.
+     */
+    byte[] addSource(String name, byte[] data) {
+        byte[] hash = hash(data);
+        sourceNames.add(name);
+        sourceHashes.add(hash);
+        return hash;
+    }
+
+    /**
+     * Record a file that went into this bundle, without reading all of it
+     * onto the heap.
+     *
+     * @param name The name of the file in the rules directory
+     * @param file The file
+     * @return the hash of the file.
+     */
+    byte[] addSource(String name, File file) throws IOException {
+        byte[] hash = hash(file);
+        sourceNames.add(name);
+        sourceHashes.add(hash);
+        return hash;
+    }
+
+    /**
+     * Give up on this bundle; it won't be saved.
+     */
+    void invalidate() {
+        broken = true;
+    }
+
+    void recordTimeout(int timeoutMillis) {
+        try {
+            out.writeByte(TIMEOUT);
+            out.writeInt(timeoutMillis);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    void recordStepLimit(long stepLimit) {
+        try {
+            out.writeByte(STEP_LIMIT);
+            out.writeLong(stepLimit);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /**
+     * @param name The name of the group
+     * @param actions The name and parameters of each of its actions, or null
+     * if they aren't known.
+     */
+    void recordActionGroup(String name, List<String[]> actions) {
+        try {
+            if (actions == null) throw new IOException("Unknown action");
+            out.writeByte(ACTION_GROUP);
+            out.writeUTF(name);
+            writeActions(actions);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /**
+     * Record a message that was logged, to log again when the bundle is loaded.
+     *
+     * @param warning true for a warning, false for info
+     * @param message The message
+     */
+    void recordMessage(boolean warning, String message) {
+        messageCount++;
+        try {
+            out.writeByte(warning ? WARNING : INFO);
+            out.writeUTF(message);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /**
+     * @return The number of messages recorded by {@link #recordMessage(boolean, String)}
+     */
+    int getMessageCount() {
+        return messageCount;
+    }
+
+    void recordConditionGroup(String name, List<Condition> conditions) {
+        try {
+            out.writeByte(CONDITION_GROUP);
+            out.writeUTF(name);
+            writeConditions(conditions);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /**
+     * @param rule The rule, as added to the chain
+     * @param actions The name and parameters of each of its actions, or null
+     * if they aren't known.
+     */
+    void recordRule(Rule rule, List<String[]> actions) {
+        // writeUTF fails on strings over 64K, so a huge regex just means the file isn't cached.
+        try {
+            if (actions == null) throw new IOException("Unknown action");
+            out.writeByte((rule.getWordList() != null) ? WORD_RULE : RULE);
+            out.writeUTF(rule.getId());
+            out.writeUTF(rule.getDescription());
+            if (rule.getWordList() != null) {
+                out.writeUTF(rule.getWordList().getName());
+            } else {
+                out.writeUTF(rule.getPattern().pattern());
+                out.writeInt(rule.getPattern().flags());
+            }
+            out.writeInt(rule.getTimeout());
+            out.writeLong(rule.getStepLimit());
+            writeConditions(rule.getConditions());
+            writeActions(actions);
+            writeStrings(rule.includeEvents);
+            writeStrings(rule.excludeEvents);
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    private void writeActions(List<String[]> actions) throws IOException {
+        out.writeInt(actions.size());
+        for (String[] action : actions) {
+            out.writeUTF(action[0]);
+            out.writeUTF(action[1]);
+        }
+    }
+
+    private void writeConditions(List<Condition> conditions) throws IOException {
+        out.writeInt(conditions.size());
+        for (Condition condition : conditions) {
+            out.writeUTF(condition.toString());
+        }
+    }
+
+    private void writeStrings(List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Write the bundle to the cache directory.  Failing to write it isn't an
+     * error; the files will just be parsed again next time.
+     */
+    void save() {
+        if (broken) return;
+        File file = bundleFile(configName);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create " + file.getParentFile());
+            }
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeInt(sourceNames.size());
+                for (int i = 0; i < sourceNames.size(); i++) {
+                    dos.writeUTF(sourceNames.get(i));
+                    dos.write(sourceHashes.get(i));
+                }
+                out.flush();
+                content.writeTo(dos);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LogManager.getInstance().debugMedium("Saved compiled rules for " + configName + " to " + file);
+        } catch (IOException e) {
+            LogManager.getInstance().debugLow("Unable to save compiled rules for " + configName + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /**
+     * Load the saved bundle for a rule file into the chain, if there is one,
+     * and none of its files have changed.
+     *
+     * @param configName The top-level rule file
+     * @param chain The chain to add the rules to
+     * @param files Where to add the names of the files the bundle was made from
+     * @param cache Patterns and conditions shared with other chains
+     * @return true if the chain was loaded from the bundle.  If false, the
+     * chain hasn't been touched.
+     */
+    static boolean load(String configName, Chain chain, Collection<String> files, ParseCache cache) {
+        File file = bundleFile(configName);
+        if (!file.isFile()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            File rulesDir = FilterConfig.getInstance().getRulesDir();
+            int sources = in.readInt();
+            List<String> names = new ArrayList<>(sources);
+            Map<String, byte[]> hashes = new HashMap<>();
+            for (int i = 0; i < sources; i++) {
+                names.add(in.readUTF());
+                File source = new File(rulesDir, names.get(i));
+                byte[] expected = new byte[32];
+                in.readFully(expected);
+                if (!source.isFile() || !Arrays.equals(expected, hash(source))) {
+                    return false;
+                }
+                hashes.put(names.get(i), expected);
+            }
+            // Read everything before touching the chain, so a damaged bundle leaves it empty.
+            List<Runnable> steps = new ArrayList<>();
+            int type;
+            while ((type = in.read()) != -1) {
+                steps.add(readStep((byte) type, in, chain, cache, hashes));
+            }
+            for (Runnable step : steps) {
+                step.run();
+            }
+            files.addAll(names);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LogManager.getInstance().debugLow("Unable to use compiled rules for " + configName + ": " + e);
+            return false;
+        }
+    }
+
+    private static Runnable readStep(byte type, DataInputStream in, Chain chain, ParseCache cache,
+                                     Map<String, byte[]> hashes) throws IOException {
+        switch (type) {
+            case TIMEOUT:
+                int timeoutMillis = in.readInt();
+                return () -> chain.setTimeout(timeoutMillis);
+            case STEP_LIMIT:
+                long stepLimit = in.readLong();
+                return () -> chain.setStepLimit(stepLimit);
+            case ACTION_GROUP:
+                String actionGroup = in.readUTF();
+                List<String[]> actions = readActions(in);
+                return () -> chain.addActionGroup(actionGroup, newActions(actions));
+            case CONDITION_GROUP:
+                String conditionGroup = in.readUTF();
+                List<String> conditions = readStrings(in);
+                return () -> chain.addConditionGroup(conditionGroup, newConditions(conditions, cache));
+            case RULE:
+            case WORD_RULE:
+                Rule rule = new Rule(in.readUTF(), in.readUTF());
+                if (type == WORD_RULE) {
+                    // The list's file is one of the sources, so it hasn't changed, and we have its hash.
+                    String name = in.readUTF();
+                    byte[] hash = hashes.get(name);
+                    if (hash == null) throw new IOException("Word list " + name + " is not a source");
+                    File words = new File(FilterConfig.getInstance().getRulesDir(), name);
+                    rule.setWordList(cache.wordList(name, hash, words).join());
+                } else {
+                    rule.setPattern(cache.pattern(in.readUTF(), in.readInt()));
+                }
+                rule.setTimeout(in.readInt());
+                rule.setStepLimit(in.readLong());
+                List<String> ruleConditions = readStrings(in);
+                List<String[]> ruleActions = readActions(in);
+                rule.includeEvents.addAll(readStrings(in));
+                rule.excludeEvents.addAll(readStrings(in));
+                return () -> {
+                    rule.addConditions(newConditions(ruleConditions, cache));
+                    rule.addActions(newActions(ruleActions));
+                    chain.append(rule);
+                };
+            case WARNING:
+                String warning = in.readUTF();
+                return () -> LogManager.warn(warning);
+            case INFO:
+                String info = in.readUTF();
+                return () -> LogManager.info(info);
+            default:
+                throw new IOException("Unknown entry type: " + type);
+        }
+    }
+
+    private static List<String[]> readActions(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String[]> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(new String[]{in.readUTF(), in.readUTF()});
+        }
+        return actions;
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    // Actions are created afresh, as they may read other files (eg: respondfile).
+    private static List<Action> newActions(List<String[]> sources) {
+        List<Action> actions = new ArrayList<>(sources.size());
+        for (String[] source : sources) {
+            Action action = ActionFactory.getAction(source[0], source[1]);
+            if (action != null) actions.add(action);
+        }
+        return actions;
+    }
+
+    private static List<Condition> newConditions(List<String> sources, ParseCache cache) {
+        List<Condition> conditions = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            Condition condition = cache.condition(source);
+            if (condition != null) conditions.add(condition);
+        }
+        return conditions;
+    }
+
+    private static File bundleFile(String configName) {
+        return new File(cacheDirectory(), configName + ".bundle");
+    }
+
+    /* The "rulecache" directory, next to the rules directory. */
+    static File cacheDirectory() {
+        return new File(FilterConfig.getInstance().getRulesDir().getParentFile(), "rulecache");
+    }
+
+    static byte[] hash(byte[] data) {
+        return hash(ByteBuffer.wrap(data));
+    }
+
+    static byte[] hash(ByteBuffer data) {
+        MessageDigest digest = newDigest();
+        digest.update(data.duplicate());
+        return digest.digest();
+    }
+
+    /* Hash a file as it's read, a block at a time. */
+    static byte[] hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
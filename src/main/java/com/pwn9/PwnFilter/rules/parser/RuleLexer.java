@@ -0,0 +1,140 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a rules file into statements, in a single pass over its text.
+ * <p>
+ * Lines are trimmed, and blank lines are returned as empty statements (they
+ * end a section).  Comment lines (starting with #) are skipped.  A statement
+ * ending with &lt;&lt;EOF continues with the following lines, up to an EOF
+ * on a line of its own.
+ * <p>
+ * Each statement is only copied once, out of the decoded text, so parsing
+ * takes time in proportion to the size of the file, however long its
+ * multi-line statements are.
+ */
+final class RuleLexer {
+
+    private static final String MULTILINE = "<<EOF";
+
+    private final char[] text;
+    private final int end;
+    private int pos;
+    private int lineNumber = 1;
+
+    /**
+     * @param data The file, in the platform's default charset
+     */
+    RuleLexer(byte[] data) {
+        this(Charset.defaultCharset().decode(ByteBuffer.wrap(data)));
+    }
+
+    RuleLexer(CharSequence text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        if (chars.hasArray()) {
+            this.text = chars.array();
+            this.pos = chars.arrayOffset() + chars.position();
+            this.end = chars.arrayOffset() + chars.limit();
+        } else {
+            this.text = new char[chars.remaining()];
+            chars.get(this.text);
+            this.pos = 0;
+            this.end = this.text.length;
+        }
+    }
+
+    /**
+     * @return the line number after the last line of the last statement read.
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Scan the file for the next statement (a line that doesn't start with
+     * a #).  If the statement ends with &lt;&lt;EOF, the lines up to an EOF
+     * on a line of its own are appended to it, each followed by a newline,
+     * except the last.
+     *
+     * @return the statement, or null at the end of the file.
+     */
+    String readLine() {
+        StringBuilder block = null;
+
+        while (pos < end) {
+            int start = pos;
+            int stop = start;
+            while (stop < end && text[stop] != '\n' && text[stop] != '\r') stop++;
+            pos = stop;
+            if (pos < end) {
+                if (text[pos] == '\r' && pos + 1 < end && text[pos + 1] == '\n') pos++;
+                pos++;
+            }
+            lineNumber++;
+
+            // Same as String.trim()
+            while (start < stop && text[start] <= ' ') start++;
+            while (stop > start && text[stop - 1] <= ' ') stop--;
+            int length = stop - start;
+
+            // SKIP this line if it is a comment
+            if (length > 0 && text[start] == '#') continue;
+
+            if (block != null && length == 3 && text[start] == 'E' && text[start + 1] == 'O' && text[start + 2] == 'F') {
+                block.setLength(Math.max(block.length() - 1, 0));
+                return block.toString();
+            } else if (endsWith(start, stop, MULTILINE)) {
+                block = new StringBuilder(Math.max(length, 64));
+                block.append(text, start, length - MULTILINE.length());
+            } else if (block != null) {
+                block.append(text, start, length).append('\n');
+            } else {
+                return new String(text, start, length);
+            }
+        }
+        return (block == null) ? null : block.toString();
+    }
+
+    /**
+     * Read through the file until we reach the end, or a blank line.
+     *
+     * @return A List of NumberedLine's containing the lines for this section.
+     */
+    List<NumberedLine> readSection() {
+        List<NumberedLine> result = new ArrayList<>();
+        String line;
+
+        while ((line = readLine()) != null) {
+            if (line.isEmpty()) {
+                break;
+            } else {
+                result.add(new NumberedLine(getLineNumber(), line));
+            }
+        }
+        return result;
+    }
+
+    private boolean endsWith(int start, int stop, String suffix) {
+        int from = stop - suffix.length();
+        if (from < start) return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (text[from + i] != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -10,6 +10,8 @@
 
 package com.pwn9.PwnFilter.rules.parser;
 
+import com.pwn9.PwnFilter.util.Patterns;
+
 /**
  * The <code>TokenString</code> class takes a <code>String</code> object
  * and provides the popToken() method for removing the first word of the
@@ -25,7 +27,9 @@ package com.pwn9.PwnFilter.rules.parser;
 class TokenString {
 
     final private String originalString;
-    private String string;
+    final private String string;
+    // Start of the part of the string that hasn't been popped yet.
+    private int pos;
 
     /**
      * <p>Constructor for TokenString.</p>
@@ -43,26 +47,29 @@ class TokenString {
      * original string, and returns it. Successive calls to popToken() will
      * remove a word at a time.  When there are no words left in the string
      * the token will be an empty string.
+     * <p>
+     * The token ends at the first whitespace character, which is removed
+     * along with it, so a second space in a row gives an empty token.
      *
      * @return A string containing the token.
      */
     public String popToken() {
+        int start = pos;
+        int stop = start;
+        while (stop < string.length() && !Patterns.isRegexSpace(string.charAt(stop))) stop++;
 
-        String[] parts;
-        parts = string.split("\\s", 2);
-
-        string = (parts.length == 2)?parts[1]:"";
+        pos = (stop < string.length()) ? stop + 1 : stop;
 
-        return parts[0];
+        return string.substring(start, stop);
     }
 
     /**
      * <p>Getter for the field <code>string</code>.</p>
      *
-     * @return a {@link java.lang.String} object.
+     * @return the part of the string that hasn't been popped yet.
      */
     public String getString() {
-        return string;
+        return string.substring(pos);
     }
 
     /**
@@ -78,6 +85,6 @@ class TokenString {
      * Reset to the original string.
      */
     public void reset() {
-        string = originalString;
+        pos = 0;
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.WordList;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Word lists, built once, saved in the "rulecache" directory, and read from
+ * there in place through a MappedByteBuffer, so even a list of millions of
+ * words takes up no heap (the OS pages it in and out as needed).
+ * <p>
+ * A saved list is named after the SHA-256 of the file it was built from, so
+ * it's rebuilt when the file changes, and never otherwise.  Every chain
+ * using the same list shares one mapping, across reloads too, for as long
+ * as any of them is using it.
+ * <p>
+ * If a list can't be saved (eg: the directory is read-only) it's kept on
+ * the heap instead.
+ */
+final class WordListStore {
+
+    // Source files bigger than this are mapped to build the list, instead of being read onto the heap.
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    private static final Map<String, WeakReference<WordList>> lists = new HashMap<>();
+
+    private WordListStore() {
+    }
+
+    /**
+     * The file's text is only read if the list has to be built.
+     *
+     * @param name The name of the file, in the rules directory
+     * @param hash The SHA-256 of the file (see {@link RuleBundle#hash(File)})
+     * @param source The file
+     * @return the list, shared if it's already in use
+     */
+    static synchronized WordList get(String name, byte[] hash, File source) {
+        String hex = hex(hash);
+        String key = name + '@' + hex;
+        WeakReference<WordList> reference = lists.get(key);
+        WordList list = (reference != null) ? reference.get() : null;
+        if (list != null) return list;
+
+        File file = new File(RuleBundle.cacheDirectory(), savedName(name) + hex.substring(0, 16) + ".words");
+        list = map(name, file);
+        if (list == null) {
+            list = build(name, hash, source, file);
+        }
+        lists.values().removeIf(r -> r.get() == null);
+        lists.put(key, new WeakReference<>(list));
+        return list;
+    }
+
+    private static WordList build(String name, byte[] hash, File source, File file) {
+        ByteBuffer data;
+        try {
+            data = read(source);
+        } catch (IOException e) {
+            LogManager.warn("Unable to read word list " + name + ": " + e.getMessage());
+            return WordList.build(name, Collections.<String>emptyList());
+        }
+        WordList built = WordList.parse(name, data);
+        // Only save it under this hash if the file hasn't changed since.
+        WordList mapped = (Arrays.equals(hash, RuleBundle.hash(data)) && save(built, file)) ? map(name, file) : null;
+        return (mapped != null) ? mapped : built;
+    }
+
+    /* Read a source file, mapping it if it's large. */
+    private static ByteBuffer read(File source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(source.toPath()));
+    }
+
+    /* The saved list, or null if it isn't there, or can't be used. */
+    private static WordList map(String name, File file) {
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            WordList list = WordList.load(name, buffer);
+            LogManager.getInstance().debugMedium(String.format("Mapped %d words (%d bytes) from %s",
+                    list.size(), list.getByteSize(), file));
+            return list;
+        } catch (IOException e) {
+            LogManager.getInstance().debugLow("Unable to use saved word list " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean save(WordList list, File file) {
+        File directory = file.getParentFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                list.write(out);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LogManager.getInstance().debugLow("Unable to save word list " + list.getName() + ": " + e.getMessage());
+            temp.delete();
+            return false;
+        }
+        // Remove the lists saved from older versions of the file.  One that's
+        // still mapped may not be deleted until the next time.
+        String prefix = savedName(list.getName());
+        File[] old = directory.listFiles((dir, fileName) -> fileName.startsWith(prefix) && fileName.endsWith(".words") &&
+                fileName.length() == file.getName().length() && !fileName.equals(file.getName()));
+        if (old != null) {
+            for (File stale : old) {
+                stale.delete();
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The start of the names a list is saved under, up to the hash of the
+     * file.  Slashes in the name are replaced, so the name also has a hash of
+     * the original name, or "lists/en.txt" and "lists_en.txt" would be saved
+     * (and cleaned up) as the same list.
+     */
+    private static String savedName(String name) {
+        String nameHash = hex(RuleBundle.hash(name.getBytes(StandardCharsets.UTF_8))).substring(0, 8);
+        return name.replaceAll("[/\\\\]", "_") + "-" + nameHash + "-";
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton, which finds every occurrence of a fixed set of
+ * strings in a single pass over the text.
+ * <p>
+ * The automaton is immutable once built, and safe to share between threads.
+ * Transitions are stored in flat, sorted arrays (one slice per node) to keep
+ * large keyword sets compact.
+ */
+public final class AhoCorasick {
+
+    /**
+     * Receives matches found by {@link #scan(CharSequence, MatchHandler)}.
+     */
+    public interface MatchHandler {
+        /**
+         * @param keyIndex Index of the key that matched, in the order given to the constructor.
+         * @param end Offset in the text just past the end of the match.
+         * @return true to continue scanning, false to stop.
+         */
+        boolean onMatch(int keyIndex, int end);
+    }
+
+    private final boolean ignoreAsciiCase;
+    private final int keyCount;
+
+    // Node n's transitions are labels/targets[edgeStart[n] .. edgeStart[n+1]), sorted by label.
+    private final int[] edgeStart;
+    private final char[] labels;
+    private final int[] targets;
+    private final int[] failure;
+    // Keys ending at node n (including those reached through failure links) are
+    // outputs[outputStart[n] .. outputStart[n+1]).
+    private final int[] outputStart;
+    private final int[] outputs;
+
+    /**
+     * Build an automaton for the given keys.
+     *
+     * @param keys The strings to search for.  Empty keys are ignored.
+     * @param ignoreAsciiCase If true, A-Z and a-z are treated as the same char,
+     *                        both in the keys and in the scanned text.
+     */
+    public AhoCorasick(List<String> keys, boolean ignoreAsciiCase) {
+        this.ignoreAsciiCase = ignoreAsciiCase;
+        this.keyCount = keys.size();
+
+        // Build the trie with maps, then flatten it.
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> nodeKeys = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        nodeKeys.add(new ArrayList<>());
+
+        for (int k = 0; k < keys.size(); k++) {
+            String key = keys.get(k);
+            if (key.isEmpty()) continue;
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                char c = fold(key.charAt(i));
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    nodeKeys.add(new ArrayList<>());
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            nodeKeys.get(node).add(k);
+        }
+
+        int nodes = trie.size();
+        edgeStart = new int[nodes + 1];
+        int edges = 0;
+        for (int n = 0; n < nodes; n++) {
+            edgeStart[n] = edges;
+            edges += trie.get(n).size();
+        }
+        edgeStart[nodes] = edges;
+        labels = new char[edges];
+        targets = new int[edges];
+        for (int n = 0; n < nodes; n++) {
+            int e = edgeStart[n];
+            for (Map.Entry<Character, Integer> entry : trie.get(n).entrySet()) {
+                labels[e] = entry.getKey();
+                targets[e] = entry.getValue();
+                e++;
+            }
+        }
+
+        // Breadth-first pass to compute failure links, merging the outputs
+        // of each node's failure target into its own.
+        failure = new int[nodes];
+        List<int[]> merged = new ArrayList<>(nodes);
+        for (int n = 0; n < nodes; n++) merged.add(null);
+        merged.set(0, toArray(nodeKeys.get(0)));
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            failure[targets[e]] = 0;
+            queue.add(targets[e]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int[] own = toArray(nodeKeys.get(node));
+            int[] inherited = merged.get(failure[node]);
+            int[] all = Arrays.copyOf(own, own.length + inherited.length);
+            System.arraycopy(inherited, 0, all, own.length, inherited.length);
+            merged.set(node, all);
+
+            for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+                int child = targets[e];
+                int f = failure[node];
+                int next;
+                while ((next = step(f, labels[e])) < 0 && f != 0) {
+                    f = failure[f];
+                }
+                failure[child] = (next < 0 || next == child) ? 0 : next;
+                queue.add(child);
+            }
+        }
+
+        outputStart = new int[nodes + 1];
+        int total = 0;
+        for (int n = 0; n < nodes; n++) {
+            outputStart[n] = total;
+            total += merged.get(n).length;
+        }
+        outputStart[nodes] = total;
+        outputs = new int[total];
+        for (int n = 0; n < nodes; n++) {
+            int[] out = merged.get(n);
+            System.arraycopy(out, 0, outputs, outputStart[n], out.length);
+        }
+    }
+
+    /**
+     * @return the number of keys this automaton was built with.
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Scan the text, reporting every occurrence of every key.
+     *
+     * @param text Text to scan
+     * @param handler Receives the matches
+     * @return false if the handler stopped the scan, true otherwise.
+     */
+    public boolean scan(CharSequence text, MatchHandler handler) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            int next;
+            while ((next = step(node, c)) < 0 && node != 0) {
+                node = failure[node];
+            }
+            node = (next < 0) ? 0 : next;
+            for (int o = outputStart[node]; o < outputStart[node + 1]; o++) {
+                if (!handler.onMatch(outputs[o], i + 1)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any of the keys occur in the text.
+     */
+    public boolean containsAny(CharSequence text) {
+        return !scan(text, (keyIndex, end) -> false);
+    }
+
+    private int step(int node, char c) {
+        int lo = edgeStart[node], hi = edgeStart[node + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return targets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private char fold(char c) {
+        return (ignoreAsciiCase && c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A read-only CharSequence view of (part of) a char array, so a Matcher can
+ * run over text without it being copied into a String first.
+ * <p>
+ * The array is not copied, so whoever creates the view must not change it
+ * afterwards.  {@link #subSequence(int, int)} returns another view of the
+ * same array.
+ */
+public final class CharArraySequence implements CharSequence {
+
+    private final char[] array;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param array The characters.  Must not be modified while the view is in use.
+     */
+    public CharArraySequence(char[] array) {
+        this(array, 0, array.length);
+    }
+
+    /**
+     * @param array The characters.  Must not be modified while the view is in use.
+     * @param offset Index of the first character of the view
+     * @param length Number of characters in the view
+     */
+    public CharArraySequence(char[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length +
+                    ", array length " + array.length);
+        }
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /* For LimitedRegexCharSequence, which reads the array directly. */
+    char[] array() {
+        return array;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        return array[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new CharArraySequence(array, offset + start, end - start);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return new String(array, offset, length);
+    }
+}
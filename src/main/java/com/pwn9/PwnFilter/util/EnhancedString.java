@@ -20,6 +20,10 @@ import java.util.regex.Pattern;
  * matches and replacements on the text content, independent of any embedded
  * encoding.
  *
+ * Implementations are immutable.  The modifying methods return the same
+ * instance if they don't change anything, so a caller can tell whether a
+ * message was modified by comparing references, without comparing text.
+ *
  * Created by ptoal on 15-09-09.
  */
 public interface EnhancedString extends CharSequence {
@@ -55,4 +59,12 @@ public interface EnhancedString extends CharSequence {
      */
     String getRaw();
 
+    /**
+     * The text content, without any special codes, for regex matching.  This
+     * should not copy the text.
+     *
+     * @return a read-only view of the text content.
+     */
+    CharSequence getPlainText();
+
 }
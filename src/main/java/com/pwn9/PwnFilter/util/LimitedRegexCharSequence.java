@@ -24,19 +24,36 @@ import javax.annotation.Nonnull;
 
 /* NOTE: The goal here is to create a matcher that won't run forever.
  Here's how this works:
- 1. The TimeoutRegexCharSequence has a timeout set in it of the system time + some interval.
- 2. On every charAt access, we check to see if we're past that time.
- 3. If so, then throw an exception, which will halt the regex processing, and notify
- 4. the caller.  In PwnFilter, we can then check for this exception, disable the rule, and log the offending regex and
- string.
+ 1. The sequence is given a time limit and/or a step limit (the number of
+ charAt calls the regex engine may make) for each match.
+ 2. Every charAt access is counted.  The clock is only read every CLOCK_INTERVAL
+ accesses, and the step limit is compared against the count.  Short matches
+ never read the clock at all.
+ 3. If either limit is exceeded, throw a LimitExceededException, which will halt the
+ regex processing, and notify the caller.  In PwnFilter, we can then check for this
+ exception, and log the offending regex and string.
 */
 public class LimitedRegexCharSequence implements CharSequence {
 
-    private final CharSequence inner;
+    /** Number of accesses between reads of the system clock. */
+    public static final int CLOCK_INTERVAL = 256;
 
-    private final int timeoutMillis;
+    private CharSequence inner;
 
-    private final long timeoutTime;
+    // If inner is a CharArraySequence, its array, read directly by charAt().
+    private char[] array;
+
+    private int offset;
+
+    private int arrayLength;
+
+    private int timeoutMillis;
+
+    private long stepLimit;
+
+    private long deadline;
+
+    private long nextCheck;
 
     private long accessCount;
 
@@ -47,25 +64,108 @@ public class LimitedRegexCharSequence implements CharSequence {
      * @param timeoutMillis a int.
      */
     public LimitedRegexCharSequence(CharSequence inner, int timeoutMillis)  {
+        this(inner, timeoutMillis, 0);
+    }
+
+    /**
+     * <p>Constructor for LimitedRegexCharSequence.</p>
+     *
+     * @param inner a {@link java.lang.CharSequence} object.
+     * @param timeoutMillis Time limit for a match, or 0 for none.
+     * @param stepLimit Maximum number of charAt() calls for a match, or 0 for none.
+     */
+    public LimitedRegexCharSequence(CharSequence inner, int timeoutMillis, long stepLimit)  {
         super();
+        this.timeoutMillis = timeoutMillis;
+        this.stepLimit = stepLimit;
+        reset(inner);
+    }
+
+    /**
+     * Create a sequence with no text, to be {@link #reset(CharSequence)} before use.
+     *
+     * @param timeoutMillis a int.
+     */
+    public LimitedRegexCharSequence(int timeoutMillis) {
+        this("", timeoutMillis);
+    }
+
+    /**
+     * Change the limits.  They take effect at the next {@link #reset(CharSequence)}.
+     *
+     * @param timeoutMillis Time limit for a match, or 0 for none.
+     * @param stepLimit Maximum number of charAt() calls for a match, or 0 for none.
+     * @return this object.
+     */
+    public LimitedRegexCharSequence setLimits(int timeoutMillis, long stepLimit) {
+        this.timeoutMillis = timeoutMillis;
+        this.stepLimit = stepLimit;
+        return this;
+    }
+
+    /**
+     * Wrap a new CharSequence, and restart the limits.  This lets one
+     * instance (and a Matcher using it) be reused for many matches.
+     * A {@link CharArraySequence} is read straight from its array.
+     * <p>
+     * The time limit starts counting at the first clock check, CLOCK_INTERVAL
+     * accesses in, so that matches which never get that far cost no clock reads.
+     *
+     * @param inner a {@link java.lang.CharSequence} object.
+     * @return this object.
+     */
+    public LimitedRegexCharSequence reset(CharSequence inner) {
         if ( inner == null ) {
             throw new NullPointerException("CharSequence must not be null");
         }
         this.inner = inner;
-        this.timeoutMillis = timeoutMillis;
-        timeoutTime = System.currentTimeMillis() + timeoutMillis;
+        if (inner instanceof CharArraySequence) {
+            array = ((CharArraySequence) inner).array();
+            offset = ((CharArraySequence) inner).offset();
+            arrayLength = inner.length();
+        } else {
+            array = null;
+        }
         accessCount = 0;
+        deadline = 0;
+        nextCheck = nextCheck(0);
+        return this;
     }
 
     /** {@inheritDoc} */
     public char charAt(int index) {
-        accessCount++ ;
-        if (System.currentTimeMillis() > timeoutTime) {
-            throw new RuntimeException("Timeout occurred after " + timeoutMillis + "ms");
+        if (++accessCount >= nextCheck) {
+            checkLimits();
+        }
+        if (array != null) {
+            if (index < 0 || index >= arrayLength) throw new IndexOutOfBoundsException("index " + index);
+            return array[offset + index];
         }
         return inner.charAt(index);
     }
 
+    private void checkLimits() {
+        if (stepLimit > 0 && accessCount > stepLimit) {
+            throw new LimitExceededException("Step limit of " + stepLimit + " exceeded");
+        }
+        if (timeoutMillis > 0 && accessCount % CLOCK_INTERVAL == 0) {
+            long now = System.currentTimeMillis();
+            if (deadline == 0) {
+                deadline = now + timeoutMillis;
+            } else if (now > deadline) {
+                throw new LimitExceededException("Timeout occurred after " + timeoutMillis + "ms");
+            }
+        }
+        nextCheck = nextCheck(accessCount);
+    }
+
+    private long nextCheck(long count) {
+        long next = Long.MAX_VALUE;
+        if (timeoutMillis > 0) next = (count / CLOCK_INTERVAL + 1) * CLOCK_INTERVAL;
+        if (stepLimit > 0 && stepLimit >= count) next = Math.min(next, stepLimit + 1);
+        return next;
+    }
+
     /**
      * <p>length.</p>
      *
@@ -77,7 +177,7 @@ public class LimitedRegexCharSequence implements CharSequence {
 
     /** {@inheritDoc} */
     public CharSequence subSequence(int start, int end) {
-        return new LimitedRegexCharSequence(inner.subSequence(start, end), timeoutMillis);
+        return new LimitedRegexCharSequence(inner.subSequence(start, end), timeoutMillis, stepLimit);
     }
 
     /**
@@ -95,4 +195,13 @@ public class LimitedRegexCharSequence implements CharSequence {
     public String toString() {
         return inner.toString();
     }
+
+    /**
+     * Thrown from charAt() when a match runs past its time or step limit.
+     */
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
 }
@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -39,10 +40,13 @@ public class LogManager {
     private static Logger logger;
     private static File logFolder;
 
-    private FileHandler logfileHandler;
+    private volatile FileHandler logfileHandler;
 
     private static LogManager _instance;
 
+    // Messages being held back by this thread.  See holdMessages().
+    private static final ThreadLocal<List<Runnable>> heldMessages = new ThreadLocal<>();
+
     private LogManager() {
     }
 
@@ -153,26 +157,83 @@ public class LogManager {
         }
     }
 
+    /**
+     * Until {@link #releaseMessages()} is called, don't write the error, warn
+     * and info messages logged by this thread, but add them to a queue.  This
+     * is used to read several rule files at once, and still report on each
+     * one in order, as if they had been read one at a time.
+     *
+     * @param queue Where to add the messages.  Running them logs them.
+     */
+    public static void holdMessages(List<Runnable> queue) {
+        heldMessages.set(queue);
+    }
+
+    /**
+     * Go back to writing this thread's messages right away.  The messages
+     * already held stay in the queue.
+     */
+    public static void releaseMessages() {
+        heldMessages.remove();
+    }
+
+    private static boolean held(Runnable message) {
+        List<Runnable> queue = heldMessages.get();
+        if (queue == null) return false;
+        queue.add(message);
+        return true;
+    }
+
     public static void error(String s) {
-        getInstance().logfileHandler.publish(new LogRecord(Level.SEVERE, s));
+        if (held(() -> error(s))) return;
+        publish(Level.SEVERE, s);
         logger.error(s);
     }
 
     public static void warn(String s) {
-        getInstance().logfileHandler.publish(new LogRecord(Level.WARNING, s));
+        if (held(() -> warn(s))) return;
+        publish(Level.WARNING, s);
         logger.warn(s);
     }
 
     public static void info(String s) {
-        getInstance().logfileHandler.publish(new LogRecord(Level.INFO, s));
+        if (held(() -> info(s))) return;
+        publish(Level.INFO, s);
         logger.info(s);
     }
 
+    /**
+     * Log a rule message to the logfile at the configured <code>loglevel</code>,
+     * and to the console.
+     *
+     * @param s The message
+     */
     public static void log(String s) {
-        getInstance().logfileHandler.publish(new LogRecord(ruleLogLevel, s));
+        publish((ruleLogLevel == null) ? Level.INFO : ruleLogLevel, s);
         logger.info(s);
     }
 
+    /**
+     * Check whether rule log messages would be written anywhere, so callers
+     * can avoid building them when they wouldn't.
+     *
+     * @param info true if the messages will be logged with {@link #info(String)}
+     *             (the rule has a "then log" action), false for {@link #log(String)}
+     * @return true if the messages would be written to the logfile or console.
+     */
+    public static boolean isRuleLogWanted(boolean info) {
+        return info || debugMode.compareTo(DebugModes.low) >= 0 ||
+                (_instance != null && _instance.logfileHandler != null) || logger.isInfoEnabled();
+    }
+
+    /* The logfile is optional, and may be closed by a reload at any time. */
+    private static void publish(Level level, String s) {
+        FileHandler handler = (_instance == null) ? null : _instance.logfileHandler;
+        if (handler != null) {
+            handler.publish(new LogRecord(level, s));
+        }
+    }
+
     public enum DebugModes {
         off, // Off
         low, // Some debugging
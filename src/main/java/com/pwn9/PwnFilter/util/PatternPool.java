@@ -0,0 +1,138 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * One compiled Pattern for each distinct (hardened) regex in use, by any
+ * chain.
+ * <p>
+ * Patterns are looked up by their source and flags, and also by the regex
+ * they were compiled from, after shortcuts were replaced, so a reload doesn't
+ * compile the lines that haven't changed again.
+ * <p>
+ * Each pattern is counted once for every holder that has retained it (a
+ * published chain snapshot, or a load in progress), and dropped when the
+ * last of them releases it.  Patterns that are no longer in the pool keep
+ * working; they just aren't shared any more.
+ */
+public final class PatternPool {
+
+    private static final Map<String, Entry> patterns = new HashMap<>();
+    private static final Map<String, Entry> regexes = new HashMap<>();
+
+    private PatternPool() {
+    }
+
+    /**
+     * @param regex A regex, as given to {@link Patterns#compile(String)}
+     * @return the pattern compiled from it, or null if it isn't pooled.
+     */
+    public static synchronized Pattern get(String regex) {
+        Entry entry = regexes.get(regex);
+        return (entry == null) ? null : entry.pattern;
+    }
+
+    /**
+     * Retain the pattern compiled from a regex, if it's pooled.
+     *
+     * @param regex A regex, as given to {@link Patterns#compile(String)}
+     * @return the pattern, or null if it isn't pooled.
+     */
+    public static synchronized Pattern acquire(String regex) {
+        Entry entry = regexes.get(regex);
+        if (entry == null) return null;
+        entry.refs++;
+        return entry.pattern;
+    }
+
+    /**
+     * Retain the pattern with this source and flags, if it's pooled.
+     *
+     * @return the pattern, or null if it isn't pooled.
+     */
+    public static synchronized Pattern acquire(String source, int flags) {
+        Entry entry = patterns.get(key(source, flags));
+        if (entry == null) return null;
+        entry.refs++;
+        return entry.pattern;
+    }
+
+    /**
+     * Retain a newly compiled pattern, or the one in the pool with the same
+     * source and flags.
+     *
+     * @param regex The regex it was compiled from, or null if unknown
+     * @param pattern The compiled pattern
+     * @return the shared pattern.
+     */
+    public static synchronized Pattern intern(String regex, Pattern pattern) {
+        Entry entry = retainEntry(pattern);
+        if (regex != null && !regexes.containsKey(regex)) {
+            regexes.put(regex, entry);
+            entry.regexes.add(regex);
+        }
+        return entry.pattern;
+    }
+
+    /**
+     * Retain a pattern that's in use, pooling it if need be.
+     */
+    public static synchronized void retain(Pattern pattern) {
+        retainEntry(pattern);
+    }
+
+    /**
+     * Release a pattern retained by {@link #retain(Pattern)},
+     * {@link #intern(String, Pattern)} or one of the acquire() methods.
+     */
+    public static synchronized void release(Pattern pattern) {
+        String key = key(pattern.pattern(), pattern.flags());
+        Entry entry = patterns.get(key);
+        if (entry == null || --entry.refs > 0) return;
+        patterns.remove(key);
+        for (String regex : entry.regexes) {
+            regexes.remove(regex);
+        }
+    }
+
+    /**
+     * @return the number of distinct patterns in the pool.
+     */
+    public static synchronized int size() {
+        return patterns.size();
+    }
+
+    private static Entry retainEntry(Pattern pattern) {
+        Entry entry = patterns.computeIfAbsent(key(pattern.pattern(), pattern.flags()), key -> new Entry(pattern));
+        entry.refs++;
+        return entry;
+    }
+
+    private static String key(String source, int flags) {
+        return flags + ":" + source;
+    }
+
+    private static final class Entry {
+        final Pattern pattern;
+        final List<String> regexes = new ArrayList<>(1);
+        int refs;
+
+        Entry(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+}
@@ -10,6 +10,8 @@
 
 package com.pwn9.PwnFilter.util;
 
+import com.pwn9.PwnFilter.util.regex.BacktrackingAnalyzer;
+
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -23,14 +25,22 @@ public class Patterns {
 
     /**
      * <p>compilePattern.</p>
+     * <p>
+     * Quantifiers that can never usefully backtrack are made possessive (see
+     * {@link BacktrackingAnalyzer}), so the returned Pattern may differ from
+     * the string given, but always matches the same text.
+     * <p>
+     * If a loaded chain already uses a pattern compiled from the same regex,
+     * that one is returned (see {@link PatternPool}).
      *
      * @param re a {@link java.lang.String} object.
      * @return a java$util$regex$Pattern object.
      */
     public static java.util.regex.Pattern compilePattern(String re) {
-        Pattern pattern = null;
+        Pattern pattern = PatternPool.get(re);
+        if (pattern != null) return pattern;
         try {
-            pattern = Pattern.compile(re, Pattern.CASE_INSENSITIVE);
+            pattern = compile(re);
             LogManager.getInstance().debugMedium("Successfully compiled regex: " + re);
             return pattern;
         }
@@ -45,4 +55,49 @@ public class Patterns {
         return pattern;
     }
 
+    /**
+     * Compile a pattern the same way as {@link #compilePattern(String)}, but
+     * leave reporting errors to the caller.
+     *
+     * @param re The regular expression
+     * @return the (hardened) Pattern
+     * @throws PatternSyntaxException if the expression is invalid.
+     */
+    public static Pattern compile(String re) throws PatternSyntaxException {
+        Pattern pattern = Pattern.compile(re, Pattern.CASE_INSENSITIVE);
+        return harden(pattern, BacktrackingAnalyzer.analyze(pattern));
+    }
+
+    /**
+     * Harden a pattern, given its analysis, for callers that need the
+     * analysis anyway (eg: for the regex cost report), so the pattern is
+     * only analyzed once.
+     *
+     * @param pattern The pattern, as compiled from the rule
+     * @param report {@link BacktrackingAnalyzer#analyze(Pattern)} of the pattern
+     * @return the hardened Pattern, or the same one if it can't be hardened.
+     */
+    public static Pattern harden(Pattern pattern, BacktrackingAnalyzer.Report report) {
+        if (!report.isRewritten()) return pattern;
+        try {
+            Pattern hardened = Pattern.compile(report.getHardened(), pattern.flags());
+            LogManager.getInstance().debugMedium("Hardened regex: " + pattern.pattern() + " to: " + hardened.pattern());
+            return hardened;
+        } catch (PatternSyntaxException e) {
+            LogManager.getInstance().debugLow("Could not harden regex: " + pattern.pattern() + " (" + e.getMessage() + ")");
+            return pattern;
+        }
+    }
+
+    /**
+     * Whether a char is whitespace to a regex: the characters \s matches, for
+     * splitting text the way split("\\s") would, without compiling a Pattern.
+     *
+     * @param c The char
+     * @return true if \s matches c.
+     */
+    public static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
 }
@@ -10,12 +10,20 @@
 
 package com.pwn9.PwnFilter.util;
 
+import com.pwn9.PwnFilter.minecraft.util.ColoredString;
+
 import javax.annotation.Nonnull;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * A Simple wrapper around a String object.
+ * A Simple wrapper around a String object, for text without format codes.
+ * This is what {@link ColoredString#forMessage(String)} returns for the
+ * (many) messages that have no codes in them.
+ * <p/>
+ * Replacement text is inserted literally, as in ColoredString.  If it
+ * contains a format prefix, the result is a {@link ColoredString}, so that
+ * the new codes are handled the same way.
  * <p/>
  * Created by ptoal on 15-09-09.
  */
@@ -28,34 +36,57 @@ public class SimpleString implements EnhancedString {
     }
 
     @Override
-    public SimpleString replaceText(Pattern p, String rText) {
+    public EnhancedString replaceText(Pattern p, String rText) {
         Matcher m = p.matcher(value);
-        return new SimpleString(m.replaceAll(rText));
+        if (!m.find()) return this;
+        if (rText.indexOf('&') >= 0) {
+            // The replacement has codes in it.  Our text is all plain, even
+            // if it contains an '&', so don't parse it.
+            return new ColoredString(value.toCharArray(), new String[0], '&').replaceText(p, rText);
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + rText.length());
+        int currentPosition = 0;
+        do {
+            sb.append(value, currentPosition, m.start()).append(rText);
+            currentPosition = m.end();
+        } while (m.find());
+        sb.append(value, currentPosition, value.length());
+        return new SimpleString(sb.toString());
     }
 
     @Override
     public SimpleString patternToLower(Pattern p) {
-        Matcher m = p.matcher(value);
-
-        StringBuffer buf = new StringBuffer();
-        while (m.find()) {
-            m.appendReplacement(buf, m.group().toLowerCase());
-        }
-        m.appendTail(buf);
-        return new SimpleString(buf.toString());
+        return changeCase(p, false);
     }
 
 
     @Override
     public SimpleString patternToUpper(Pattern p) {
+        return changeCase(p, true);
+    }
+
+    /* Change case one char at a time, like ColoredString, so the length doesn't change. */
+    private SimpleString changeCase(Pattern p, boolean upper) {
         Matcher m = p.matcher(value);
+        char[] modified = null; // Only copied once a char actually changes.
 
-        StringBuffer buf = new StringBuffer();
         while (m.find()) {
-            m.appendReplacement(buf, m.group().toUpperCase());
+            for (int i = m.start(); i < m.end(); i++) {
+                char c = value.charAt(i);
+                char changed = upper ? Character.toUpperCase(c) : Character.toLowerCase(c);
+                if (changed != c) {
+                    if (modified == null) modified = value.toCharArray();
+                    modified[i] = changed;
+                }
+            }
         }
-        m.appendTail(buf);
-        return new SimpleString(buf.toString());
+        return (modified == null) ? this : new SimpleString(new String(modified));
+    }
+
+    @Override
+    public CharSequence getPlainText() {
+        return value;
     }
 
     @Override
@@ -76,13 +107,18 @@ public class SimpleString implements EnhancedString {
     @SuppressWarnings("EqualsWhichDoesntCheckParameterClass")
     @Override
     public boolean equals(Object obj) {
-        if (obj instanceof SimpleString) {
-            return ((SimpleString) obj).getRaw().equals(getRaw());
+        if (obj instanceof EnhancedString) {
+            return ((EnhancedString) obj).getRaw().equals(getRaw());
         } else {
             return getRaw().equals(obj);
         }
     }
 
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
     @Override
     public String getRaw() {
         return value;
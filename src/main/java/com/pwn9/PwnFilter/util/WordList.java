@@ -0,0 +1,538 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * A dictionary of words, which finds whole words from the list in a message,
+ * like <code>\b(word1|word2|...)\b</code> would, but without a regex.
+ * <p>
+ * The words are kept as a DAWG: a trie in which nodes with the same endings
+ * are merged, so "...ing" and "...ed" are only stored once for the whole
+ * list.  Each node's edges are stored together, sorted by label, and
+ * finding a word costs a binary search over the edges at each character,
+ * however many words there are.  Finding the words in a message depends on
+ * the length of the message, not of the list.
+ * <p>
+ * The DAWG is held in a ByteBuffer, in the same format as it's saved in,
+ * so a big list can be written to a file once, and then read in place from
+ * a MappedByteBuffer (see {@link #load(String, ByteBuffer)}), instead of
+ * taking up the heap.
+ * <p>
+ * Words are matched ignoring ASCII case, like the rules' patterns, and only
+ * at word boundaries, as <code>\b</code> defines them.  Where several words
+ * match at the same place, the longest wins.
+ * <p>
+ * The actions that change the message (replace, rewrite, upper, ...) work
+ * with a Pattern, so {@link #patternFor(CharSequence)} builds one from just
+ * the words in the message, which matches exactly where the list does.
+ * <p>
+ * The list is immutable once built, and safe to share between threads.
+ */
+public final class WordList {
+
+    /** Patterns built for messages are kept, up to this many sets of words. */
+    private static final int PATTERN_CACHE_SIZE = 1000;
+
+    private static final int MAGIC = 0x50465744; // "PFWD"
+    private static final int VERSION = 1;
+
+    /*
+     * The format, all big-endian:
+     *   int MAGIC, VERSION, word count, node count, edge count, root node
+     *   int[nodes + 1]  Index of each node's first edge.  The top bit is set if a word ends at the node.
+     *   int[edges]      Node each edge leads to
+     *   char[edges]     Label of each edge
+     */
+    private static final int HEADER_SIZE = 24;
+    private static final int TERMINAL = 0x80000000;
+
+    private final String name;
+    private final ByteBuffer data;
+    private final int wordCount;
+    private final int root;
+    private final int targetsOffset;
+    private final int labelsOffset;
+
+    private final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+    private WordList(String name, ByteBuffer data) throws IOException {
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a word list");
+        }
+        int nodeCount = data.getInt(12), edgeCount = data.getInt(16);
+        long size = HEADER_SIZE + 4L * (nodeCount + 1) + 6L * edgeCount;
+        if (nodeCount < 1 || edgeCount < 0 || size != data.capacity()) {
+            throw new IOException("Damaged word list");
+        }
+        this.name = name;
+        this.data = data;
+        this.wordCount = data.getInt(8);
+        this.root = data.getInt(20);
+        this.targetsOffset = HEADER_SIZE + 4 * (nodeCount + 1);
+        this.labelsOffset = targetsOffset + 4 * edgeCount;
+        if (root < 0 || root >= nodeCount || (edgeStart(nodeCount) & ~TERMINAL) != edgeCount) {
+            throw new IOException("Damaged word list");
+        }
+    }
+
+    /**
+     * Use a word list saved by {@link #write(OutputStream)}, without copying
+     * it.  The buffer must not be changed afterwards.
+     *
+     * @param name The name of the file the list was built from, for messages
+     * @param data The saved list, eg: a MappedByteBuffer
+     * @return a WordList reading from the buffer
+     * @throws IOException if the buffer doesn't hold a word list
+     */
+    public static WordList load(String name, ByteBuffer data) throws IOException {
+        return new WordList(name, data);
+    }
+
+    /**
+     * Build a word list from the contents of a file: one word (or phrase) per
+     * line.  Blank lines, and lines starting with #, are ignored.
+     *
+     * @param name The name of the file, for messages
+     * @param data The contents of the file, in UTF-8
+     * @return a new WordList
+     */
+    public static WordList parse(String name, byte[] data) {
+        return parse(name, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Same as {@link #parse(String, byte[])}, eg: for a mapped file.
+     *
+     * @param name The name of the file, for messages
+     * @param data The contents of the file, in UTF-8
+     * @return a new WordList
+     */
+    public static WordList parse(String name, ByteBuffer data) {
+        CharBuffer chars = StandardCharsets.UTF_8.decode(data.duplicate());
+        char[] pool;
+        int length = chars.remaining();
+        if (chars.hasArray() && chars.arrayOffset() + chars.position() == 0) {
+            pool = chars.array();
+        } else {
+            pool = new char[length];
+            chars.get(pool);
+        }
+        int[] starts = new int[16];
+        int[] lengths = new int[16];
+        int count = 0, start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && pool[end] != '\n') end++;
+            int next = end + 1;
+            // Trim, like String.trim()
+            while (start < end && pool[start] <= ' ') start++;
+            while (end > start && pool[end - 1] <= ' ') end--;
+            if (start < end && pool[start] != '#') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                starts[count] = start;
+                lengths[count++] = end - start;
+            }
+            start = next;
+        }
+        return build(name, pool, starts, lengths, count);
+    }
+
+    /**
+     * @param name The name of the list, for messages
+     * @param words The words.  Empty words are ignored.
+     * @return a new WordList
+     */
+    public static WordList build(String name, List<String> words) {
+        int total = 0;
+        for (String word : words) total += word.length();
+        char[] pool = new char[total];
+        int[] starts = new int[words.size()];
+        int[] lengths = new int[words.size()];
+        int count = 0, offset = 0;
+        for (String word : words) {
+            if (word.isEmpty()) continue;
+            word.getChars(0, word.length(), pool, offset);
+            starts[count] = offset;
+            lengths[count++] = word.length();
+            offset += word.length();
+        }
+        return build(name, pool, starts, lengths, count);
+    }
+
+    /*
+     * Build the trie from words held in one array (which is much quicker to
+     * read from than a million Strings).  Folds the case of the pool, and
+     * reorders starts and lengths.
+     */
+    private static WordList build(String name, char[] pool, int[] starts, int[] lengths, int count) {
+        for (int k = 0; k < pool.length; k++) pool[k] = fold(pool[k]);
+
+        // Each node is a range of the words, those starting with its prefix.
+        // Visiting the nodes breadth-first numbers the children of each node
+        // consecutively.  Sorting each node's words by their next character
+        // (rather than sorting all of the words first) keeps this linear in
+        // the total length of the words.
+        Sorter sorter = new Sorter(pool, starts, lengths, count);
+
+        int capacity = Math.max(16, count * 2);
+        int[] lo = new int[capacity];
+        int[] hi = new int[capacity];
+        char[] labels = new char[capacity];
+        int[] firstChild = new int[capacity + 1];
+        BitSet terminal = new BitSet();
+        int nodes = 1;
+        hi[0] = count;
+
+        int wordCount = 0;
+        int d = 0, levelEnd = 1; // Depth of node n, and the first node of the next level.
+        for (int n = 0; n < nodes; n++) {
+            if (n == levelEnd) {
+                d++;
+                levelEnd = nodes;
+            }
+            int i = lo[n];
+            sorter.sort(i, hi[n], d);
+            if (i < hi[n] && lengths[i] == d) {
+                terminal.set(n);
+                wordCount++;
+                while (i < hi[n] && lengths[i] == d) i++; // Duplicates
+            }
+            firstChild[n] = nodes;
+            while (i < hi[n]) {
+                char c = pool[starts[i] + d];
+                int j = i + 1;
+                while (j < hi[n] && pool[starts[j] + d] == c) j++;
+                if (nodes == lo.length) {
+                    capacity = nodes * 2;
+                    lo = Arrays.copyOf(lo, capacity);
+                    hi = Arrays.copyOf(hi, capacity);
+                    labels = Arrays.copyOf(labels, capacity);
+                    firstChild = Arrays.copyOf(firstChild, capacity + 1);
+                }
+                lo[nodes] = i;
+                hi[nodes] = j;
+                labels[nodes] = c;
+                nodes++;
+                i = j;
+            }
+        }
+        firstChild[nodes] = nodes;
+        return minimize(name, wordCount, nodes, labels, firstChild, terminal);
+    }
+
+    /*
+     * Merge the nodes that have the same endings: the same terminal flag, and
+     * the same labels leading to the same (merged) nodes.  Children are
+     * numbered after their parents, so working backwards, a node's children
+     * have always been merged before it.  Then lay out the DAWG.
+     */
+    private static WordList minimize(String name, int wordCount, int nodes, char[] labels, int[] firstChild, BitSet terminal) {
+        int[] merged = new int[nodes]; // Trie node -> DAWG node
+        int[] representative = new int[nodes]; // DAWG node -> the first trie node merged into it
+        int[] table = new int[Integer.highestOneBit(nodes) * 4];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1, shift = Integer.numberOfLeadingZeros(mask);
+        int dawgNodes = 0, edges = 0;
+        for (int n = nodes - 1; n >= 0; n--) {
+            int hash = terminal.get(n) ? 1 : 0;
+            for (int c = firstChild[n]; c < firstChild[n + 1]; c++) {
+                hash = (hash * 31 + labels[c]) * 31 + merged[c];
+            }
+            int slot = (hash * 0x9E3779B9) >>> shift;
+            while (table[slot] >= 0 && !sameEndings(table[slot], n, labels, firstChild, terminal, merged)) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] >= 0) {
+                merged[n] = merged[table[slot]];
+            } else {
+                table[slot] = n;
+                merged[n] = dawgNodes;
+                representative[dawgNodes++] = n;
+                edges += firstChild[n + 1] - firstChild[n];
+            }
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + 4 * (dawgNodes + 1) + 6 * edges);
+        data.putInt(MAGIC).putInt(VERSION).putInt(wordCount).putInt(dawgNodes).putInt(edges).putInt(merged[0]);
+        int targetsOffset = HEADER_SIZE + 4 * (dawgNodes + 1), labelsOffset = targetsOffset + 4 * edges;
+        int edge = 0;
+        for (int k = 0; k < dawgNodes; k++) {
+            int n = representative[k];
+            data.putInt(HEADER_SIZE + 4 * k, edge | (terminal.get(n) ? TERMINAL : 0));
+            for (int c = firstChild[n]; c < firstChild[n + 1]; c++, edge++) {
+                data.putInt(targetsOffset + 4 * edge, merged[c]);
+                data.putChar(labelsOffset + 2 * edge, labels[c]);
+            }
+        }
+        data.putInt(HEADER_SIZE + 4 * dawgNodes, edge);
+        try {
+            return new WordList(name, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean sameEndings(int a, int b, char[] labels, int[] firstChild, BitSet terminal, int[] merged) {
+        int count = firstChild[a + 1] - firstChild[a];
+        if (terminal.get(a) != terminal.get(b) || count != firstChild[b + 1] - firstChild[b]) return false;
+        for (int k = 0; k < count; k++) {
+            int ca = firstChild[a] + k, cb = firstChild[b] + k;
+            if (labels[ca] != labels[cb] || merged[ca] != merged[cb]) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Sorts a range of the words by the character at some depth, with the
+     * words that end there first.  Most ranges are small, or only use a few
+     * characters (a-z), so a counting sort does most of the work.
+     */
+    private static final class Sorter {
+        private final char[] pool;
+        private final int[] starts;
+        private final int[] lengths;
+        private final int[] scratchStarts;
+        private final int[] scratchLengths;
+        private final int[] counts = new int[258];
+        private long[] keys;
+
+        Sorter(char[] pool, int[] starts, int[] lengths, int count) {
+            this.pool = pool;
+            this.starts = starts;
+            this.lengths = lengths;
+            this.scratchStarts = new int[count];
+            this.scratchLengths = new int[count];
+        }
+
+        /* The character at depth of the i'th word, or -1 if it ends there. */
+        private int key(int i, int depth) {
+            return (depth < lengths[i]) ? pool[starts[i] + depth] : -1;
+        }
+
+        void sort(int from, int to, int depth) {
+            int size = to - from;
+            if (size < 2) return;
+            if (size <= 16) {
+                for (int i = from + 1; i < to; i++) {
+                    int start = starts[i], length = lengths[i], key = key(i, depth), j = i - 1;
+                    while (j >= from && key(j, depth) > key) {
+                        starts[j + 1] = starts[j];
+                        lengths[j + 1] = lengths[j];
+                        j--;
+                    }
+                    starts[j + 1] = start;
+                    lengths[j + 1] = length;
+                }
+                return;
+            }
+            Arrays.fill(counts, 0);
+            boolean narrow = true;
+            for (int i = from; i < to && narrow; i++) {
+                int key = key(i, depth);
+                if (key < 256) counts[key + 2]++;
+                else narrow = false;
+            }
+            if (narrow) {
+                for (int k = 1; k < counts.length; k++) counts[k] += counts[k - 1];
+                for (int i = from; i < to; i++) {
+                    int at = from + counts[key(i, depth) + 1]++;
+                    scratchStarts[at] = starts[i];
+                    scratchLengths[at] = lengths[i];
+                }
+                System.arraycopy(scratchStarts, from, starts, from, size);
+                System.arraycopy(scratchLengths, from, lengths, from, size);
+            } else {
+                // Too many different characters to count: sort (key, word) pairs.
+                if (keys == null || keys.length < size) keys = new long[size];
+                for (int i = from; i < to; i++) keys[i - from] = ((long) (key(i, depth) + 1) << 32) | i;
+                Arrays.sort(keys, 0, size);
+                for (int k = 0; k < size; k++) {
+                    int i = (int) keys[k];
+                    scratchStarts[from + k] = starts[i];
+                    scratchLengths[from + k] = lengths[i];
+                }
+                System.arraycopy(scratchStarts, from, starts, from, size);
+                System.arraycopy(scratchLengths, from, lengths, from, size);
+            }
+        }
+    }
+
+    /**
+     * @return The name of the file the list came from.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of different words in the list.
+     */
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * @return The number of bytes the list takes up, in the heap or in a file.
+     */
+    public int getByteSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Save the list, to be read back with {@link #load(String, ByteBuffer)}.
+     *
+     * @param out Where to write the list
+     * @throws IOException if it can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer copy = data.duplicate();
+        copy.clear();
+        byte[] buffer = new byte[8192];
+        while (copy.hasRemaining()) {
+            int length = Math.min(buffer.length, copy.remaining());
+            copy.get(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Find the first word from the list in the text, starting at from.
+     *
+     * @param text The text to search
+     * @param from Where to start looking
+     * @return the start of the match in the upper 32 bits, and its end in
+     * the lower 32 bits, or -1 if there isn't one.
+     */
+    public long find(CharSequence text, int from) {
+        int length = text.length();
+        for (int start = from; start < length; start++) {
+            if (!isBoundary(text, start)) continue;
+            int node = root, end = -1;
+            for (int i = start; i < length; i++) {
+                node = child(node, fold(text.charAt(i)));
+                if (node < 0) break;
+                if ((edgeStart(node) & TERMINAL) != 0 && isBoundary(text, i + 1)) end = i + 1;
+            }
+            if (end >= 0) return ((long) start << 32) | end;
+        }
+        return -1;
+    }
+
+    /**
+     * Build a Pattern which finds the same words in this text as the list
+     * does, for the actions that need one.
+     *
+     * @param text The text to search
+     * @return A Pattern made of the words found in the text, or null if
+     * there aren't any.
+     */
+    public Pattern patternFor(CharSequence text) {
+        // Longest first, so the pattern prefers the longest word, like find().
+        TreeSet<String> found = new TreeSet<>(Comparator.comparingInt(String::length).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        long match = find(text, 0);
+        while (match >= 0) {
+            int start = (int) (match >>> 32), end = (int) match;
+            found.add(foldCase(text.subSequence(start, end).toString()));
+            match = find(text, end);
+        }
+        if (found.isEmpty()) return null;
+
+        String key = String.join("\n", found);
+        Pattern pattern = patterns.get(key);
+        if (pattern == null) {
+            StringBuilder regex = new StringBuilder();
+            for (String word : found) {
+                regex.append((regex.length() == 0) ? "\\b(?:" : "|").append(Pattern.quote(word));
+            }
+            regex.append(")\\b");
+            pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+            if (patterns.size() >= PATTERN_CACHE_SIZE) patterns.clear();
+            patterns.put(key, pattern);
+        }
+        return pattern;
+    }
+
+    private int edgeStart(int node) {
+        return data.getInt(HEADER_SIZE + 4 * node);
+    }
+
+    /* The node the edge from node with this label leads to, or -1. */
+    private int child(int node, char c) {
+        int lo = edgeStart(node) & ~TERMINAL, hi = (edgeStart(node + 1) & ~TERMINAL) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = data.getChar(labelsOffset + 2 * mid);
+            if (label < c) lo = mid + 1;
+            else if (label > c) hi = mid - 1;
+            else return data.getInt(targetsOffset + 4 * mid);
+        }
+        return -1;
+    }
+
+    /*
+     * Same as \b in a Pattern: one side is a word character, the other isn't.
+     * Like Pattern, an accent (a non-spacing mark) on a letter is part of the
+     * word.
+     */
+    private static boolean isBoundary(CharSequence text, int index) {
+        boolean before = index > 0 && isWordChar(text, index - Character.charCount(Character.codePointBefore(text, index)));
+        boolean after = index < text.length() && isWordChar(text, index);
+        return before != after;
+    }
+
+    private static boolean isWordChar(CharSequence text, int index) {
+        char ch = text.charAt(index);
+        if (ch < 0x300) return ch == '_' || Character.isLetterOrDigit(ch);
+        int c = Character.codePointAt(text, index);
+        if (c == '_' || Character.isLetterOrDigit(c)) return true;
+        if (Character.getType(c) != Character.NON_SPACING_MARK) return false;
+        // Look back for the letter the marks are on.
+        for (int i = index - 1; i >= 0; i--) {
+            c = Character.codePointAt(text, i);
+            if (Character.isLetterOrDigit(c)) return true;
+            if (Character.getType(c) != Character.NON_SPACING_MARK) return false;
+        }
+        return false;
+    }
+
+    private static char fold(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String foldCase(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return "wordlist " + name;
+    }
+}
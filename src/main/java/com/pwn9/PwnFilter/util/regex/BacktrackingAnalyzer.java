@@ -0,0 +1,554 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds rule patterns that are prone to catastrophic backtracking, and makes
+ * them cheaper where that can be done without changing what they match.
+ * <p>
+ * Two kinds of problems are reported:
+ * <ul>
+ * <li>Exponential: a repeated sub-expression that can match the same text in
+ * more than one way, eg: nested quantifiers like <code>(x+x+)+</code>, or
+ * an alternation with overlapping branches like <code>(\w|\d)+</code>.  A
+ * failed match can take 2^n steps.</li>
+ * <li>Polynomial: unbounded quantifiers that can hand the same characters back
+ * and forth, eg: <code>.*a.*</code>.  A failed match can take n^k steps.</li>
+ * </ul>
+ * <p>
+ * A greedy quantifier never needs to backtrack when giving back a repetition
+ * could not let the rest of the pattern match: the repeated element is a
+ * single char class (or a group of fixed literals with distinct first chars),
+ * and nothing that can follow it starts with one of its chars.  Those are
+ * rewritten as possessive quantifiers, eg: <code>\bf+u+c+k+\b</code> becomes
+ * <code>\bf++u++c++k++\b</code>.  Java then drops the backtracking state,
+ * and the pattern matches exactly the same text.
+ * <p>
+ * The analysis works on the tree from {@link RegexParser}; patterns it can't
+ * parse are reported as {@link Risk#UNKNOWN} and left alone.
+ */
+public final class BacktrackingAnalyzer {
+
+    /** Message length used for cost estimates (the longest chat message). */
+    public static final int MESSAGE_LENGTH = 256;
+
+    private static final CharRanges NON_ASCII = CharRanges.range('\u0080', Character.MAX_VALUE);
+
+    public enum Risk {
+        LINEAR, POLYNOMIAL, EXPONENTIAL, UNKNOWN
+    }
+
+    private final String re;
+    private final boolean hasBackrefs;
+    private final Set<RegexNode> safe = Collections.newSetFromMap(new IdentityHashMap<RegexNode, Boolean>());
+    private final Set<RegexNode> trailing = Collections.newSetFromMap(new IdentityHashMap<RegexNode, Boolean>());
+    private final List<String> problems = new ArrayList<>();
+    private boolean exponential;
+    private int longestChain;
+    private RegexNode firstBacktracking;
+
+    private BacktrackingAnalyzer(String re, RegexNode root) {
+        this.re = re;
+        this.hasBackrefs = root.contains(RegexNode.Kind.BACKREF);
+    }
+
+    /**
+     * Analyze a pattern string.
+     *
+     * @param re The pattern.  It must already compile with these flags.
+     * @param flags Flags the pattern is compiled with
+     * @return the analysis, including a hardened form of the pattern.
+     */
+    public static Report analyze(String re, int flags) {
+        RegexNode root;
+        try {
+            root = RegexParser.parse(re, flags);
+        } catch (RegexParser.UnsupportedSyntaxException e) {
+            return new Report(re, re, 0, Risk.UNKNOWN, 0, Collections.singletonList(e.getMessage()));
+        }
+        BacktrackingAnalyzer analyzer = new BacktrackingAnalyzer(re, root);
+        analyzer.findSafe(root, First.END);
+        analyzer.findRisks(root, false);
+
+        // Insert the possessive '+' after each safe greedy quantifier, right to left.
+        List<Integer> inserts = new ArrayList<>();
+        int possessive = 0;
+        for (RegexNode node : analyzer.safe) {
+            if (node.mode == RegexNode.Mode.GREEDY) inserts.add(node.end);
+            possessive++;
+        }
+        Collections.sort(inserts);
+        StringBuilder hardened = new StringBuilder(re);
+        for (int i = inserts.size() - 1; i >= 0; i--) {
+            hardened.insert((int) inserts.get(i), '+');
+        }
+
+        Risk risk;
+        int degree = 0;
+        if (analyzer.exponential) {
+            risk = Risk.EXPONENTIAL;
+        } else {
+            // Without an anchor, find() retries the pattern at every position.
+            degree = analyzer.longestChain + (analyzer.longestChain > 0 && !anchoredAtStart(root) ? 1 : 0);
+            risk = (degree > 1) ? Risk.POLYNOMIAL : Risk.LINEAR;
+            if (degree == 0) degree = 1;
+            if (risk == Risk.POLYNOMIAL && analyzer.problems.isEmpty()) {
+                analyzer.problems.add("quantifier '" + analyzer.span(analyzer.firstBacktracking) +
+                        "' backtracks at every position the pattern is tried");
+            }
+        }
+        return new Report(re, hardened.toString(), possessive, risk, degree, analyzer.problems);
+    }
+
+    /**
+     * Analyze a compiled pattern.
+     */
+    public static Report analyze(Pattern pattern) {
+        return analyze(pattern.pattern(), pattern.flags());
+    }
+
+    /**
+     * Find the quantifiers in a tree that never need to backtrack.  Greedy
+     * ones can be made possessive, and possessive ones can be treated as
+     * greedy, without changing what the pattern matches.
+     *
+     * @param root A tree from {@link RegexParser}
+     * @return the REPEAT nodes, compared by identity.
+     */
+    public static Set<RegexNode> findNonBacktracking(RegexNode root) {
+        BacktrackingAnalyzer analyzer = new BacktrackingAnalyzer(null, root);
+        analyzer.findSafe(root, First.END);
+        return analyzer.safe;
+    }
+
+    /* Walk the tree, with what can follow each node, and collect the safe quantifiers. */
+    private void findSafe(RegexNode node, First follow) {
+        switch (node.kind) {
+            case CONCAT: {
+                First after = follow;
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    RegexNode child = node.children.get(i);
+                    findSafe(child, after);
+                    after = first(child).then(after);
+                }
+                break;
+            }
+            case ALTERNATE:
+                for (RegexNode child : node.children) findSafe(child, follow);
+                break;
+            case GROUP:
+                findSafe(node.child(), follow);
+                break;
+            case LOOKAROUND:
+                // What a lookaround is compared with isn't worth working out.
+                findSafe(node.child(), First.OPAQUE);
+                break;
+            case REPEAT: {
+                First element = first(node.child());
+                First inner = (node.max == RegexNode.UNBOUNDED || node.max > 1) ? element.or(follow) : follow;
+                findSafe(node.child(), inner);
+                if (node.mode != RegexNode.Mode.LAZY && node.min != node.max && isSafe(node, follow)) {
+                    safe.add(node);
+                }
+                if (follow.nullable && !follow.opaque && !follow.asserts()) {
+                    // Nothing after it can fail, so the first way it matches is the one kept.
+                    trailing.add(node);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private boolean isSafe(RegexNode repeat, First follow) {
+        if (hasBackrefs || follow.opaque) return false;
+        CharRanges elementChars = fixedChars(repeat.child());
+        if (elementChars == null) return false;
+        CharRanges elementFirst = first(repeat.child()).chars;
+        if (elementFirst.intersects(follow.chars)) return false;
+        if (follow.nullable) {
+            // The rest of the pattern may match nothing, so check that giving back a repetition
+            // can't make an assertion succeed where it failed after the longest run.
+            if (follow.notWordBoundary) return false;
+            if (follow.wordBoundary) {
+                // java.util.regex decides \b with Character.isLetterOrDigit(), not \w, so
+                // only ASCII chars are known to be word (or non-word) chars for it.
+                if (elementChars.intersects(NON_ASCII)) return false;
+                boolean allWord = RegexParser.WORD.complement().intersect(elementChars).isEmpty();
+                boolean noWord = !RegexParser.WORD.intersects(elementChars);
+                if (repeat.min < 1 || !(allWord || noWord)) return false;
+            }
+            if (follow.endOfInput && elementChars.intersects(RegexParser.LINE_TERMINATORS)) return false;
+        }
+        return true;
+    }
+
+    /*
+     * If every match of this node is a fixed sequence of char classes, picked
+     * by its first char, return all of the chars it can match.  Otherwise null.
+     */
+    private static CharRanges fixedChars(RegexNode node) {
+        switch (node.kind) {
+            case CHARS:
+                return node.chars;
+            case GROUP:
+                if (node.atomic) return null;
+                RegexNode child = node.child();
+                if (child.kind == RegexNode.Kind.ALTERNATE) {
+                    CharRanges all = CharRanges.EMPTY;
+                    CharRanges firsts = CharRanges.EMPTY;
+                    for (RegexNode branch : child.children) {
+                        CharRanges chars = sequenceChars(branch);
+                        if (chars == null) return null;
+                        CharRanges branchFirst = first(branch).chars;
+                        if (branchFirst.intersects(firsts)) return null;
+                        firsts = firsts.union(branchFirst);
+                        all = all.union(chars);
+                    }
+                    return all;
+                }
+                return sequenceChars(child);
+            default:
+                return null;
+        }
+    }
+
+    private static CharRanges sequenceChars(RegexNode node) {
+        if (node.kind == RegexNode.Kind.CHARS) return node.chars;
+        if (node.kind != RegexNode.Kind.CONCAT || node.children.isEmpty()) return null;
+        CharRanges all = CharRanges.EMPTY;
+        for (RegexNode c : node.children) {
+            if (c.kind != RegexNode.Kind.CHARS) return null;
+            all = all.union(c.chars);
+        }
+        return all;
+    }
+
+    /* Look for sub-expressions that can backtrack a lot, ignoring anything inside an atomic part. */
+    private void findRisks(RegexNode node, boolean atomic) {
+        if (atomic) return;
+        switch (node.kind) {
+            case CONCAT:
+                checkChains(node);
+                for (RegexNode c : node.children) findRisks(c, false);
+                break;
+            case ALTERNATE:
+            case LOOKAROUND:
+                for (RegexNode c : node.children) findRisks(c, false);
+                break;
+            case GROUP:
+                findRisks(node.child(), node.atomic);
+                break;
+            case REPEAT:
+                if (backtracks(node)) checkNested(node);
+                findRisks(node.child(), backtracks(node) ? false : node.mode == RegexNode.Mode.POSSESSIVE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private boolean backtracks(RegexNode repeat) {
+        return repeat.mode != RegexNode.Mode.POSSESSIVE && repeat.min != repeat.max
+                && !safe.contains(repeat) && !trailing.contains(repeat);
+    }
+
+    /* An unbounded repeat around something that can split the same text in more than one way. */
+    private void checkNested(RegexNode repeat) {
+        if (repeat.max != RegexNode.UNBOUNDED) return;
+        RegexNode body = unwrap(repeat.child());
+        CharRanges bodyFirst = first(body).chars;
+
+        RegexNode inner = findInnerRepeat(body, bodyFirst);
+        if (inner != null) {
+            exponential = true;
+            problems.add("nested quantifier '" + span(inner) + "' inside '" + span(repeat) + "'");
+            return;
+        }
+        if (body.kind == RegexNode.Kind.ALTERNATE) {
+            List<RegexNode> branches = body.children;
+            for (int i = 0; i < branches.size(); i++) {
+                for (int j = i + 1; j < branches.size(); j++) {
+                    if (first(branches.get(i)).chars.intersects(first(branches.get(j)).chars)) {
+                        exponential = true;
+                        problems.add("overlapping alternatives '" + span(branches.get(i)) + "' and '" +
+                                span(branches.get(j)) + "' inside '" + span(repeat) + "'");
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private RegexNode findInnerRepeat(RegexNode node, CharRanges outerFirst) {
+        if (node.kind == RegexNode.Kind.GROUP && node.atomic) return null;
+        if (node.kind == RegexNode.Kind.LOOKAROUND) return null;
+        if (node.kind == RegexNode.Kind.REPEAT && backtracks(node)
+                && (node.max == RegexNode.UNBOUNDED || node.max > 1)
+                && first(node.child()).chars.intersects(outerFirst)) {
+            return node;
+        }
+        for (RegexNode c : node.children) {
+            RegexNode found = findInnerRepeat(c, outerFirst);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    /* Unbounded repeats in sequence that can trade characters with each other. */
+    private void checkChains(RegexNode concat) {
+        int chain = 0;
+        RegexNode previous = null;
+        for (RegexNode c : concat.children) {
+            RegexNode item = unwrap(c);
+            if (item.kind != RegexNode.Kind.REPEAT) continue;
+            if (item.max != RegexNode.UNBOUNDED || !backtracks(item)) continue;
+            CharRanges chars = first(item.child()).chars;
+            if (firstBacktracking == null) firstBacktracking = item;
+            if (previous != null && first(previous.child()).chars.intersects(chars)) {
+                chain++;
+                if (chain == 2) problems.add("quantifiers '" + span(previous) + "' and '" + span(item) +
+                        "' can match the same text");
+            } else {
+                chain = 1;
+            }
+            previous = item;
+            longestChain = Math.max(longestChain, chain);
+        }
+    }
+
+    private static RegexNode unwrap(RegexNode node) {
+        while (node.kind == RegexNode.Kind.GROUP && !node.atomic) node = node.child();
+        if (node.kind == RegexNode.Kind.CONCAT && node.children.size() == 1) return unwrap(node.children.get(0));
+        return node;
+    }
+
+    private static boolean anchoredAtStart(RegexNode node) {
+        switch (node.kind) {
+            case ASSERT:
+                return node.anchor == RegexNode.Anchor.BEGIN_INPUT;
+            case CONCAT:
+                return !node.children.isEmpty() && anchoredAtStart(node.children.get(0));
+            case GROUP:
+                return anchoredAtStart(node.child());
+            case ALTERNATE:
+                for (RegexNode c : node.children) {
+                    if (!anchoredAtStart(c)) return false;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String span(RegexNode node) {
+        return re.substring(node.start, node.end);
+    }
+
+    /* What the first char of a match of this node can be. */
+    private static First first(RegexNode node) {
+        switch (node.kind) {
+            case CHARS:
+                return new First(node.chars, false, false, false, false, false);
+            case CONCAT: {
+                First result = First.EMPTY;
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    result = first(node.children.get(i)).then(result);
+                }
+                return result;
+            }
+            case ALTERNATE: {
+                First result = null;
+                for (RegexNode c : node.children) {
+                    result = (result == null) ? first(c) : result.or(first(c));
+                }
+                return result;
+            }
+            case GROUP:
+                return first(node.child());
+            case REPEAT: {
+                First child = first(node.child());
+                return (node.min == 0) ? child.or(First.EMPTY) : child;
+            }
+            case ASSERT:
+                switch (node.anchor) {
+                    case WORD_BOUNDARY:
+                        return new First(CharRanges.EMPTY, true, false, true, false, false);
+                    case NOT_WORD_BOUNDARY:
+                        return new First(CharRanges.EMPTY, true, false, false, true, false);
+                    case END_INPUT:
+                    case END_INPUT_TERMINATOR:
+                        return new First(CharRanges.EMPTY, true, false, false, false, true);
+                    default:
+                        return First.OPAQUE;
+                }
+            default:
+                return First.OPAQUE;
+        }
+    }
+
+    /*
+     * The chars a match can start with, whether it can be empty, and which
+     * assertions it may have to pass when it is.  Opaque means it can't be
+     * worked out.
+     */
+    private static final class First {
+        static final First EMPTY = new First(CharRanges.EMPTY, true, false, false, false, false);
+        static final First END = EMPTY;
+        static final First OPAQUE = new First(CharRanges.ALL, true, true, false, false, false);
+
+        final CharRanges chars;
+        final boolean nullable;
+        final boolean opaque;
+        final boolean wordBoundary;
+        final boolean notWordBoundary;
+        final boolean endOfInput;
+
+        First(CharRanges chars, boolean nullable, boolean opaque,
+              boolean wordBoundary, boolean notWordBoundary, boolean endOfInput) {
+            this.chars = chars;
+            this.nullable = nullable;
+            this.opaque = opaque;
+            this.wordBoundary = wordBoundary;
+            this.notWordBoundary = notWordBoundary;
+            this.endOfInput = endOfInput;
+        }
+
+        boolean asserts() {
+            return wordBoundary || notWordBoundary || endOfInput;
+        }
+
+        /* This, followed by next. */
+        First then(First next) {
+            if (!nullable) return this;
+            return new First(chars.union(next.chars), next.nullable, opaque || next.opaque,
+                    wordBoundary || next.wordBoundary, notWordBoundary || next.notWordBoundary,
+                    endOfInput || next.endOfInput);
+        }
+
+        /* Either this, or other. */
+        First or(First other) {
+            return new First(chars.union(other.chars), nullable || other.nullable, opaque || other.opaque,
+                    wordBoundary || other.wordBoundary, notWordBoundary || other.notWordBoundary,
+                    endOfInput || other.endOfInput);
+        }
+    }
+
+    /**
+     * The result of analyzing one pattern.
+     */
+    public static final class Report {
+        private final String pattern;
+        private final String hardened;
+        private final int possessiveCount;
+        private final Risk risk;
+        private final int degree;
+        private final List<String> problems;
+
+        Report(String pattern, String hardened, int possessiveCount, Risk risk, int degree, List<String> problems) {
+            this.pattern = pattern;
+            this.hardened = hardened;
+            this.possessiveCount = possessiveCount;
+            this.risk = risk;
+            this.degree = degree;
+            this.problems = Collections.unmodifiableList(problems);
+        }
+
+        /**
+         * @return the pattern as analyzed.
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return the pattern with safe quantifiers made possessive.  Matches
+         * exactly what the original pattern does.
+         */
+        public String getHardened() {
+            return hardened;
+        }
+
+        /**
+         * @return true if the hardened pattern differs from the original.
+         */
+        public boolean isRewritten() {
+            return !hardened.equals(pattern);
+        }
+
+        /**
+         * @return the number of quantifiers in the hardened pattern that don't backtrack.
+         */
+        public int getPossessiveCount() {
+            return possessiveCount;
+        }
+
+        /**
+         * @return the worst case of the hardened pattern.
+         */
+        public Risk getRisk() {
+            return risk;
+        }
+
+        /**
+         * @return for a polynomial pattern, the exponent of its worst case.
+         */
+        public int getDegree() {
+            return degree;
+        }
+
+        /**
+         * @return descriptions of the sub-expressions that cause the risk.
+         */
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        /**
+         * @return a rough count of the steps a failed match of a message of
+         * {@link #MESSAGE_LENGTH} chars could take.
+         */
+        public double getEstimatedSteps() {
+            switch (risk) {
+                case EXPONENTIAL:
+                    return Math.pow(2, MESSAGE_LENGTH);
+                case POLYNOMIAL:
+                    return Math.pow(MESSAGE_LENGTH, degree);
+                default:
+                    return MESSAGE_LENGTH * (double) Math.max(1, pattern.length());
+            }
+        }
+
+        /**
+         * @return the worst case in big-O notation, eg: O(n^2)
+         */
+        public String getComplexity() {
+            switch (risk) {
+                case EXPONENTIAL:
+                    return "O(2^n)";
+                case POLYNOMIAL:
+                    return "O(n^" + degree + ")";
+                case LINEAR:
+                    return "O(n)";
+                default:
+                    return "unknown";
+            }
+        }
+    }
+}
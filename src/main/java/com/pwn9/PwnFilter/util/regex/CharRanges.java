@@ -0,0 +1,204 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of chars, stored as sorted, non-overlapping, inclusive
+ * ranges: {lo0, hi0, lo1, hi1, ...}.
+ */
+public final class CharRanges {
+
+    public static final CharRanges EMPTY = new CharRanges(new int[0]);
+    public static final CharRanges ALL = new CharRanges(new int[]{0, Character.MAX_VALUE});
+
+    private final int[] ranges;
+
+    private CharRanges(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    public static CharRanges of(char c) {
+        return new CharRanges(new int[]{c, c});
+    }
+
+    public static CharRanges range(char lo, char hi) {
+        return new CharRanges(new int[]{lo, hi});
+    }
+
+    /**
+     * Build a set from pairs of range endpoints, eg: "az09__" is [a-z0-9_].
+     */
+    public static CharRanges ofRanges(String pairs) {
+        CharRanges result = EMPTY;
+        for (int i = 0; i + 1 < pairs.length(); i += 2) {
+            result = result.union(range(pairs.charAt(i), pairs.charAt(i + 1)));
+        }
+        return result;
+    }
+
+    public static CharRanges ofChars(String chars) {
+        CharRanges result = EMPTY;
+        for (int i = 0; i < chars.length(); i++) {
+            result = result.union(of(chars.charAt(i)));
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * @return the number of chars in this set.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    public boolean contains(int c) {
+        // Binary search over the range starts.
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[mid * 2]) {
+                hi = mid - 1;
+            } else if (c > ranges[mid * 2 + 1]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CharRanges union(CharRanges other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        int[] merged = new int[ranges.length + other.ranges.length];
+        // Merge the two sorted lists of ranges by their start.
+        int i = 0, j = 0, k = 0;
+        while (i < ranges.length || j < other.ranges.length) {
+            if (j >= other.ranges.length || (i < ranges.length && ranges[i] <= other.ranges[j])) {
+                merged[k++] = ranges[i++];
+                merged[k++] = ranges[i++];
+            } else {
+                merged[k++] = other.ranges[j++];
+                merged[k++] = other.ranges[j++];
+            }
+        }
+        return new CharRanges(normalize(merged, k));
+    }
+
+    public CharRanges intersect(CharRanges other) {
+        return complement().union(other.complement()).complement();
+    }
+
+    public boolean intersects(CharRanges other) {
+        int i = 0, j = 0;
+        while (i < ranges.length && j < other.ranges.length) {
+            if (ranges[i + 1] < other.ranges[j]) {
+                i += 2;
+            } else if (other.ranges[j + 1] < ranges[i]) {
+                j += 2;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CharRanges complement() {
+        int[] result = new int[ranges.length + 2];
+        int k = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[k++] = next;
+                result[k++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            result[k++] = next;
+            result[k++] = Character.MAX_VALUE;
+        }
+        return new CharRanges(Arrays.copyOf(result, k));
+    }
+
+    /**
+     * Close this set over US-ASCII case, which is how java.util.regex treats
+     * Pattern.CASE_INSENSITIVE without Pattern.UNICODE_CASE.
+     */
+    public CharRanges foldAsciiCase() {
+        CharRanges result = this;
+        CharRanges upper = intersect(range('A', 'Z'));
+        CharRanges lower = intersect(range('a', 'z'));
+        for (int i = 0; i < upper.ranges.length; i += 2) {
+            result = result.union(range((char) (upper.ranges[i] + 32), (char) (upper.ranges[i + 1] + 32)));
+        }
+        for (int i = 0; i < lower.ranges.length; i += 2) {
+            result = result.union(range((char) (lower.ranges[i] - 32), (char) (lower.ranges[i + 1] - 32)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the inclusive ranges of this set as {lo0, hi0, lo1, hi1, ...}.
+     */
+    public int[] getRanges() {
+        return ranges.clone();
+    }
+
+    /**
+     * @return the chars in this set, in ascending order.  Only sensible for
+     * small sets.
+     */
+    public char[] toCharArray() {
+        char[] result = new char[size()];
+        int k = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                result[k++] = (char) c;
+            }
+        }
+        return result;
+    }
+
+    private static int[] normalize(int[] sorted, int length) {
+        int[] result = new int[length];
+        int k = 0;
+        for (int i = 0; i < length; i += 2) {
+            if (k > 0 && sorted[i] <= result[k - 1] + 1) {
+                result[k - 1] = Math.max(result[k - 1], sorted[i + 1]);
+            } else {
+                result[k++] = sorted[i];
+                result[k++] = sorted[i + 1];
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CharRanges && Arrays.equals(ranges, ((CharRanges) obj).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a whole list of patterns against a text in a single pass.
+ * <p>
+ * Every pattern that can be expressed as a regular language is compiled into
+ * one NFA, with an accept state tagged with the index of its pattern.  The NFA
+ * is run as a lazily built DFA: states are created the first time a message
+ * needs them, and cached for later messages.  One pass over the text reports
+ * every pattern that has a match in it (the same answer Matcher.find() would
+ * give), and where the first match ends.
+ * <p>
+ * Patterns using backreferences, lookaround, atomic groups or possessive
+ * quantifiers are not supported (except possessive quantifiers that
+ * {@link BacktrackingAnalyzer} finds would never backtrack anyway), nor are
+ * repeats of anything that can match the empty string, such as ^+ or (a*)+,
+ * except with ?.  {@link #supports(int)} returns false for those, and they
+ * must be matched with their Pattern as usual.  Texts that
+ * {@link #canScan(CharSequence)} rejects (line terminators, surrogate pairs,
+ * and non-ASCII letters next to \b) must also use the regular Pattern path.
+ * <p>
+ * Instances are safe to use from multiple threads; each thread builds its own
+ * DFA cache.
+ */
+public final class MultiPatternAutomaton {
+
+    /**
+     * Receives matches found by {@link #scan(CharSequence, MatchHandler)}.
+     */
+    public interface MatchHandler {
+        /**
+         * Called once for each pattern that matches the text.
+         *
+         * @param index Index of the pattern, in the list given to {@link #compile(List)}.
+         * @param end Offset in the text just past the end of the first match found.
+         * @return true to continue scanning, false to stop.
+         */
+        boolean onMatch(int index, int end);
+    }
+
+    // Limits, to keep compiled chains and per-thread caches bounded.
+    private static final int MAX_NFA_STATES = 1 << 16;
+    private static final int MAX_PATTERN_STATES = 4096;
+    private static final int MAX_DFA_STATES = 2048;
+
+    // NFA state types
+    private static final byte CHAR = 0;
+    private static final byte SPLIT = 1;
+    private static final byte ASSERT = 2;
+    private static final byte MATCH = 3;
+
+    private final int patternCount;
+    private final boolean[] supported;
+    private final int[] starts;
+
+    private final byte[] type;
+    private final int[] out1;
+    private final int[] out2;  // SPLIT: second branch, MATCH: pattern index
+    private final RegexNode.Anchor[] anchors;
+    private final CharRanges[] charSets;
+
+    private final boolean usesWordBoundary;
+
+    // The alphabet: chars are grouped into classes that no pattern can tell apart.
+    private final int[] classStart;
+    private final int[] asciiClass;
+    private final boolean[] classIsWord;
+
+    private final ThreadLocal<Cache> caches = ThreadLocal.withInitial(() -> new Cache(this));
+
+    private MultiPatternAutomaton(int patternCount, boolean[] supported, List<Integer> starts, NfaBuilder nfa) {
+        this.patternCount = patternCount;
+        this.supported = supported;
+        this.starts = toArray(starts);
+
+        int size = nfa.type.size();
+        type = new byte[size];
+        out1 = new int[size];
+        out2 = new int[size];
+        anchors = new RegexNode.Anchor[size];
+        charSets = new CharRanges[size];
+        boolean wordBoundary = false;
+        for (int s = 0; s < size; s++) {
+            type[s] = nfa.type.get(s);
+            out1[s] = nfa.out1.get(s);
+            out2[s] = nfa.out2.get(s);
+            anchors[s] = nfa.anchors.get(s);
+            charSets[s] = nfa.charSets.get(s);
+            if (anchors[s] == RegexNode.Anchor.WORD_BOUNDARY || anchors[s] == RegexNode.Anchor.NOT_WORD_BOUNDARY) {
+                wordBoundary = true;
+            }
+        }
+        usesWordBoundary = wordBoundary;
+
+        // Every range endpoint in the NFA (and in \w, for \b) starts a new class.
+        TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        List<CharRanges> sets = new ArrayList<>();
+        sets.add(RegexParser.WORD);
+        for (CharRanges set : charSets) {
+            if (set != null) sets.add(set);
+        }
+        for (CharRanges set : sets) {
+            int[] ranges = set.getRanges();
+            for (int i = 0; i < ranges.length; i += 2) {
+                boundaries.add(ranges[i]);
+                if (ranges[i + 1] < Character.MAX_VALUE) boundaries.add(ranges[i + 1] + 1);
+            }
+        }
+        classStart = toArray(new ArrayList<>(boundaries));
+        classIsWord = new boolean[classStart.length];
+        for (int k = 0; k < classStart.length; k++) {
+            classIsWord[k] = RegexParser.WORD.contains(classStart[k]);
+        }
+        asciiClass = new int[128];
+        for (int c = 0; c < 128; c++) {
+            asciiClass[c] = searchClass(c);
+        }
+    }
+
+    /**
+     * Compile a list of patterns into a single automaton.
+     *
+     * @param patterns The patterns to match.  Null entries are allowed, and
+     *                 are treated as unsupported.
+     * @return An automaton, where pattern indexes correspond to the list given.
+     */
+    public static MultiPatternAutomaton compile(List<Pattern> patterns) {
+        NfaBuilder nfa = new NfaBuilder();
+        boolean[] supported = new boolean[patterns.size()];
+        List<Integer> starts = new ArrayList<>();
+
+        for (int i = 0; i < patterns.size(); i++) {
+            Pattern p = patterns.get(i);
+            if (p == null) continue;
+            int mark = nfa.size();
+            try {
+                RegexNode root = RegexParser.parse(p);
+                nfa.greedyPossessives = BacktrackingAnalyzer.findNonBacktracking(root);
+                int start = nfa.compile(root, nfa.add(MATCH, -1, i, null, null));
+                if (nfa.size() - mark > MAX_PATTERN_STATES || nfa.size() > MAX_NFA_STATES) {
+                    throw new RegexParser.UnsupportedSyntaxException("Pattern is too large for the automaton");
+                }
+                starts.add(start);
+                supported[i] = true;
+            } catch (RegexParser.UnsupportedSyntaxException e) {
+                nfa.truncate(mark);
+            }
+        }
+        return new MultiPatternAutomaton(patterns.size(), supported, starts, nfa);
+    }
+
+    /**
+     * @return true if the pattern at this index is matched by the automaton.
+     */
+    public boolean supports(int index) {
+        return index < patternCount && supported[index];
+    }
+
+    /**
+     * @return the number of patterns matched by the automaton.
+     */
+    public int supportedCount() {
+        return starts.length;
+    }
+
+    /**
+     * Check whether the automaton gives exactly the same results as
+     * java.util.regex for this text.
+     *
+     * @param text Text to be scanned
+     * @return false if the text must be matched with the regular Patterns.
+     */
+    public boolean canScan(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                if (c == '\n' || c == '\r') return false;
+                continue;
+            }
+            if (Character.isSurrogate(c) || RegexParser.LINE_TERMINATORS.contains(c)) return false;
+            // java.util.regex decides \b with Character.isLetterOrDigit(), and skips
+            // over combining marks; the automaton only knows about \w.
+            if (usesWordBoundary && (Character.isLetterOrDigit(c) ||
+                    Character.getType(c) == Character.NON_SPACING_MARK)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scan the text, reporting every supported pattern that matches it.
+     * Only call this if {@link #canScan(CharSequence)} returned true.
+     *
+     * @param text Text to scan
+     * @param handler Receives the matches
+     */
+    public void scan(CharSequence text, MatchHandler handler) {
+        if (starts.length == 0) return;
+        Cache cache = caches.get();
+        cache.newScan();
+
+        int state = cache.initial();
+        for (int i = 0; i < text.length(); i++) {
+            int k = classOf(text.charAt(i));
+            DState d = cache.states.get(state);
+            int next = d.next[k];
+            if (next < 0) {
+                next = cache.transition(state, k);
+                d = cache.states.get(cache.current);
+            }
+            if (!cache.report(d.accepts[k], i, handler)) return;
+            state = next;
+        }
+        DState d = cache.states.get(state);
+        if (d.endAccepts == null) cache.computeEnd(d);
+        cache.report(d.endAccepts, text.length(), handler);
+    }
+
+    private int classOf(char c) {
+        return (c < 128) ? asciiClass[c] : searchClass(c);
+    }
+
+    private int searchClass(int c) {
+        int k = Arrays.binarySearch(classStart, c);
+        return (k >= 0) ? k : -k - 2;
+    }
+
+    private static boolean assertionHolds(RegexNode.Anchor anchor, boolean atStart, boolean prevWord,
+                                   boolean atEnd, boolean nextWord) {
+        switch (anchor) {
+            case BEGIN_INPUT:
+                return atStart;
+            case END_INPUT:
+            case END_INPUT_TERMINATOR:
+                // canScan() rejects line terminators, so $ and \Z are just the end.
+                return atEnd;
+            case WORD_BOUNDARY:
+                return prevWord != nextWord;
+            case NOT_WORD_BOUNDARY:
+                return prevWord == nextWord;
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) result[i] = list.get(i);
+        return result;
+    }
+
+    /* Thompson construction, built back to front. */
+    private static final class NfaBuilder {
+        final List<Byte> type = new ArrayList<>();
+        final List<Integer> out1 = new ArrayList<>();
+        final List<Integer> out2 = new ArrayList<>();
+        final List<RegexNode.Anchor> anchors = new ArrayList<>();
+        final List<CharRanges> charSets = new ArrayList<>();
+        // Possessive quantifiers in the current pattern that match the same as greedy ones.
+        Set<RegexNode> greedyPossessives = Collections.emptySet();
+
+        int size() {
+            return type.size();
+        }
+
+        int add(byte t, int o1, int o2, RegexNode.Anchor anchor, CharRanges chars) {
+            type.add(t);
+            out1.add(o1);
+            out2.add(o2);
+            anchors.add(anchor);
+            charSets.add(chars);
+            return type.size() - 1;
+        }
+
+        void truncate(int mark) {
+            while (type.size() > mark) {
+                int last = type.size() - 1;
+                type.remove(last);
+                out1.remove(last);
+                out2.remove(last);
+                anchors.remove(last);
+                charSets.remove(last);
+            }
+        }
+
+        /* Returns the start state of an NFA for node, which continues to next. */
+        int compile(RegexNode node, int next) throws RegexParser.UnsupportedSyntaxException {
+            if (size() > MAX_NFA_STATES) {
+                throw new RegexParser.UnsupportedSyntaxException("Pattern is too large for the automaton");
+            }
+            switch (node.kind) {
+                case CHARS:
+                    return add(CHAR, next, -1, null, node.chars);
+                case CONCAT:
+                    for (int i = node.children.size() - 1; i >= 0; i--) {
+                        next = compile(node.children.get(i), next);
+                    }
+                    return next;
+                case ALTERNATE: {
+                    int last = node.children.size() - 1;
+                    int start = compile(node.children.get(last), next);
+                    for (int i = last - 1; i >= 0; i--) {
+                        start = add(SPLIT, compile(node.children.get(i), next), start, null, null);
+                    }
+                    return start;
+                }
+                case GROUP:
+                    if (node.atomic) {
+                        throw new RegexParser.UnsupportedSyntaxException("Atomic groups are not supported");
+                    }
+                    return compile(node.child(), next);
+                case REPEAT:
+                    return repeat(node, next);
+                case ASSERT:
+                    return add(ASSERT, next, -1, node.anchor, null);
+                case LOOKAROUND:
+                    throw new RegexParser.UnsupportedSyntaxException("Lookaround is not supported");
+                case BACKREF:
+                    throw new RegexParser.UnsupportedSyntaxException("Backreferences are not supported");
+            }
+            throw new RegexParser.UnsupportedSyntaxException("Unknown node: " + node.kind);
+        }
+
+        // Whether a repeat is greedy or lazy doesn't change whether it can match.
+        private int repeat(RegexNode node, int next) throws RegexParser.UnsupportedSyntaxException {
+            if (node.mode == RegexNode.Mode.POSSESSIVE && !greedyPossessives.contains(node)) {
+                throw new RegexParser.UnsupportedSyntaxException("Possessive quantifiers are not supported");
+            }
+            // java.util.regex cuts a loop short when an iteration matches nothing,
+            // and quantified anchors (^+, \b{2}) behave in ways of their own, so
+            // only ? may apply to something that can match the empty string.
+            if (node.max != 1 && node.child().canMatchEmpty()) {
+                throw new RegexParser.UnsupportedSyntaxException("Repeats of empty matches are not supported");
+            }
+            int tail;
+            if (node.max == RegexNode.UNBOUNDED) {
+                int loop = add(SPLIT, -1, next, null, null);
+                out1.set(loop, compile(node.child(), loop));
+                tail = loop;
+            } else {
+                tail = next;
+                for (int i = node.min; i < node.max; i++) {
+                    tail = add(SPLIT, compile(node.child(), tail), next, null, null);
+                }
+            }
+            for (int i = 0; i < node.min; i++) {
+                tail = compile(node.child(), tail);
+            }
+            return tail;
+        }
+    }
+
+    /* A DFA state: the NFA states waiting to read the next char, and what we know about the previous one. */
+    private static final class DState {
+        final int[] kernel;
+        final boolean atStart;
+        final boolean prevWord;
+        final int[] next;
+        final int[][] accepts;
+        int[] endAccepts;
+
+        DState(int[] kernel, boolean atStart, boolean prevWord, int classes) {
+            this.kernel = kernel;
+            this.atStart = atStart;
+            this.prevWord = prevWord;
+            this.next = new int[classes];
+            Arrays.fill(next, -1);
+            this.accepts = new int[classes][];
+        }
+    }
+
+    private static final class StateKey {
+        final int[] kernel;
+        final boolean atStart;
+        final boolean prevWord;
+
+        StateKey(int[] kernel, boolean atStart, boolean prevWord) {
+            this.kernel = kernel;
+            this.atStart = atStart;
+            this.prevWord = prevWord;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StateKey)) return false;
+            StateKey other = (StateKey) obj;
+            return atStart == other.atStart && prevWord == other.prevWord && Arrays.equals(kernel, other.kernel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(kernel) * 4 + (atStart ? 2 : 0) + (prevWord ? 1 : 0);
+        }
+    }
+
+    private static final int[] NONE = new int[0];
+
+    /*
+     * One thread's lazily built DFA.  It's static, and only holds on to the
+     * automaton's tables, so a thread that has scanned with an automaton
+     * doesn't keep it from being collected.
+     */
+    private static final class Cache {
+        final List<DState> states = new ArrayList<>();
+        final Map<StateKey, Integer> index = new HashMap<>();
+        int current; // Index of the source state after the last transition() call.
+
+        // The automaton's tables.
+        final int[] starts;
+        final byte[] type;
+        final int[] out1;
+        final int[] out2;
+        final RegexNode.Anchor[] anchors;
+        final CharRanges[] charSets;
+        final int[] classStart;
+        final boolean[] classIsWord;
+
+        // Scratch space for closures.
+        final int[] visited;
+        int visitGeneration;
+        final int[] stack;
+        // Patterns already reported in this scan.
+        final int[] reported;
+        int scanGeneration;
+
+        Cache(MultiPatternAutomaton automaton) {
+            starts = automaton.starts;
+            type = automaton.type;
+            out1 = automaton.out1;
+            out2 = automaton.out2;
+            anchors = automaton.anchors;
+            charSets = automaton.charSets;
+            classStart = automaton.classStart;
+            classIsWord = automaton.classIsWord;
+            visited = new int[type.length];
+            stack = new int[type.length];
+            reported = new int[automaton.patternCount];
+        }
+
+        void newScan() {
+            if (++scanGeneration == 0) {
+                Arrays.fill(reported, 0);
+                scanGeneration = 1;
+            }
+        }
+
+        boolean report(int[] accepts, int end, MatchHandler handler) {
+            for (int p : accepts) {
+                if (reported[p] != scanGeneration) {
+                    reported[p] = scanGeneration;
+                    if (!handler.onMatch(p, end)) return false;
+                }
+            }
+            return true;
+        }
+
+        int initial() {
+            return intern(NONE, true, false);
+        }
+
+        int intern(int[] kernel, boolean atStart, boolean prevWord) {
+            StateKey key = new StateKey(kernel, atStart, prevWord);
+            Integer existing = index.get(key);
+            if (existing != null) return existing;
+            states.add(new DState(kernel, atStart, prevWord, classStart.length));
+            index.put(key, states.size() - 1);
+            return states.size() - 1;
+        }
+
+        /* Compute, cache and return the transition from state on class k. */
+        int transition(int state, int k) {
+            DState d = states.get(state);
+            if (states.size() >= MAX_DFA_STATES) {
+                // Start over, keeping only the state we're in.
+                states.clear();
+                index.clear();
+                state = intern(d.kernel, d.atStart, d.prevWord);
+                d = states.get(state);
+            }
+            current = state;
+
+            boolean nextWord = classIsWord[k];
+            int[] reached = closure(d, false, nextWord);
+            List<Integer> accepts = new ArrayList<>();
+            TreeSet<Integer> kernel = new TreeSet<>();
+            int rep = classStart[k];
+            for (int s : reached) {
+                if (type[s] == MATCH) {
+                    accepts.add(out2[s]);
+                } else if (type[s] == CHAR && charSets[s].contains(rep)) {
+                    kernel.add(out1[s]);
+                }
+            }
+            int next = intern(toArray(new ArrayList<>(kernel)), false, nextWord);
+            d.accepts[k] = toArray(accepts);
+            d.next[k] = next;
+            return next;
+        }
+
+        void computeEnd(DState d) {
+            List<Integer> accepts = new ArrayList<>();
+            for (int s : closure(d, true, false)) {
+                if (type[s] == MATCH) accepts.add(out2[s]);
+            }
+            d.endAccepts = toArray(accepts);
+        }
+
+        /*
+         * Follow empty transitions from the kernel and every pattern's start state,
+         * returning the CHAR and MATCH states reached.
+         */
+        int[] closure(DState d, boolean atEnd, boolean nextWord) {
+            if (++visitGeneration == 0) {
+                Arrays.fill(visited, 0);
+                visitGeneration = 1;
+            }
+            List<Integer> result = new ArrayList<>();
+            int sp = 0;
+            for (int s : d.kernel) sp = push(s, sp);
+            for (int s : starts) sp = push(s, sp);
+
+            while (sp > 0) {
+                int s = stack[--sp];
+                switch (type[s]) {
+                    case CHAR:
+                    case MATCH:
+                        result.add(s);
+                        break;
+                    case SPLIT:
+                        sp = push(out2[s], sp);
+                        sp = push(out1[s], sp);
+                        break;
+                    case ASSERT:
+                        if (assertionHolds(anchors[s], d.atStart, d.prevWord, atEnd, nextWord)) {
+                            sp = push(out1[s], sp);
+                        }
+                        break;
+                }
+            }
+            return toArray(result);
+        }
+
+        private int push(int s, int sp) {
+            if (visited[s] == visitGeneration) return sp;
+            visited[s] = visitGeneration;
+            stack[sp] = s;
+            return sp + 1;
+        }
+    }
+}
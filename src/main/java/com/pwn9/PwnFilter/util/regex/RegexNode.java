@@ -0,0 +1,181 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the syntax tree produced by {@link RegexParser}.
+ * <p>
+ * Every node remembers the span of the source pattern it was parsed from
+ * (start inclusive, end exclusive), so that analyzers can point at, or
+ * rewrite, the exact text of a sub-expression.
+ */
+public final class RegexNode {
+
+    public enum Kind {
+        CHARS,      // A single char from a set (literals, classes, '.', \w, etc.)
+        CONCAT,     // Children in sequence.
+        ALTERNATE,  // One of the children.
+        REPEAT,     // Child repeated min..max times.
+        GROUP,      // Capturing, non-capturing or atomic group.
+        ASSERT,     // Zero-width anchor (^, $, \b, etc.)
+        LOOKAROUND, // Zero-width lookahead / lookbehind around a child.
+        BACKREF     // \1, \k<name>
+    }
+
+    public enum Anchor {
+        BEGIN_INPUT,          // ^ or \A
+        END_INPUT,            // \z
+        END_INPUT_TERMINATOR, // $ or \Z (end, or before a final line terminator)
+        WORD_BOUNDARY,        // \b
+        NOT_WORD_BOUNDARY     // \B
+    }
+
+    public enum Mode {
+        GREEDY, LAZY, POSSESSIVE
+    }
+
+    public static final int UNBOUNDED = -1;
+
+    public final Kind kind;
+    public final int start;
+    public final int end;
+
+    // CHARS
+    public final CharRanges chars;
+    // CONCAT, ALTERNATE, REPEAT, GROUP, LOOKAROUND
+    public final List<RegexNode> children;
+    // REPEAT
+    public final int min;
+    public final int max;
+    public final Mode mode;
+    // GROUP
+    public final boolean capturing;
+    public final boolean atomic;
+    // ASSERT
+    public final Anchor anchor;
+    // LOOKAROUND
+    public final boolean ahead;
+    public final boolean negative;
+
+    private RegexNode(Kind kind, int start, int end, CharRanges chars, List<RegexNode> children,
+                      int min, int max, Mode mode, boolean capturing, boolean atomic,
+                      Anchor anchor, boolean ahead, boolean negative) {
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+        this.chars = chars;
+        this.children = (children == null) ? Collections.<RegexNode>emptyList() : Collections.unmodifiableList(children);
+        this.min = min;
+        this.max = max;
+        this.mode = mode;
+        this.capturing = capturing;
+        this.atomic = atomic;
+        this.anchor = anchor;
+        this.ahead = ahead;
+        this.negative = negative;
+    }
+
+    static RegexNode chars(CharRanges chars, int start, int end) {
+        return new RegexNode(Kind.CHARS, start, end, chars, null, 1, 1, null, false, false, null, false, false);
+    }
+
+    static RegexNode concat(List<RegexNode> children, int start, int end) {
+        return new RegexNode(Kind.CONCAT, start, end, null, children, 1, 1, null, false, false, null, false, false);
+    }
+
+    static RegexNode alternate(List<RegexNode> children, int start, int end) {
+        return new RegexNode(Kind.ALTERNATE, start, end, null, children, 1, 1, null, false, false, null, false, false);
+    }
+
+    static RegexNode repeat(RegexNode child, int min, int max, Mode mode, int start, int end) {
+        return new RegexNode(Kind.REPEAT, start, end, null, Collections.singletonList(child), min, max, mode,
+                false, false, null, false, false);
+    }
+
+    static RegexNode group(RegexNode child, boolean capturing, boolean atomic, int start, int end) {
+        return new RegexNode(Kind.GROUP, start, end, null, Collections.singletonList(child), 1, 1, null,
+                capturing, atomic, null, false, false);
+    }
+
+    static RegexNode anchor(Anchor anchor, int start, int end) {
+        return new RegexNode(Kind.ASSERT, start, end, null, null, 1, 1, null, false, false, anchor, false, false);
+    }
+
+    static RegexNode lookaround(RegexNode child, boolean ahead, boolean negative, int start, int end) {
+        return new RegexNode(Kind.LOOKAROUND, start, end, null, Collections.singletonList(child), 1, 1, null,
+                false, false, null, ahead, negative);
+    }
+
+    static RegexNode backref(int start, int end) {
+        return new RegexNode(Kind.BACKREF, start, end, null, null, 1, 1, null, false, false, null, false, false);
+    }
+
+    /**
+     * @return the only child of a REPEAT, GROUP or LOOKAROUND node.
+     */
+    public RegexNode child() {
+        return children.get(0);
+    }
+
+    /**
+     * @return true if this node, or any node below it, is of the given kind.
+     */
+    public boolean contains(Kind k) {
+        if (kind == k) return true;
+        for (RegexNode c : children) {
+            if (c.contains(k)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this node can match without consuming any chars (eg:
+     * an anchor, x*, or (a|^)).
+     */
+    public boolean canMatchEmpty() {
+        switch (kind) {
+            case CHARS:
+                return false;
+            case CONCAT:
+                for (RegexNode c : children) {
+                    if (!c.canMatchEmpty()) return false;
+                }
+                return true;
+            case ALTERNATE:
+                for (RegexNode c : children) {
+                    if (c.canMatchEmpty()) return true;
+                }
+                return false;
+            case REPEAT:
+                return min == 0 || child().canMatchEmpty();
+            case GROUP:
+                return child().canMatchEmpty();
+            default:
+                // Anchors, lookaround, and back references (to a group that matched nothing)
+                return true;
+        }
+    }
+
+    /**
+     * @return true if this is an atomic group, possessive quantifier, or
+     * contains one.
+     */
+    public boolean containsAtomic() {
+        if ((kind == Kind.GROUP && atomic) || (kind == Kind.REPEAT && mode == Mode.POSSESSIVE)) return true;
+        for (RegexNode c : children) {
+            if (c.containsAtomic()) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A parser for the subset of java.util.regex syntax used in rule files.
+ * <p>
+ * The resulting tree is used to analyze rule patterns at load time; it is
+ * never used to match text by itself.  Anything this parser doesn't fully
+ * understand (embedded flags, unicode properties, nested classes, etc.)
+ * raises an {@link UnsupportedSyntaxException}, and callers fall back to
+ * treating the pattern as opaque.
+ * <p>
+ * Patterns handed to this parser must already compile with
+ * {@link Pattern#compile(String, int)}, so it is permissive about errors
+ * that java.util.regex would have caught.
+ */
+public class RegexParser {
+
+    /** Line terminators, as used by '.' and '$' without DOTALL / UNIX_LINES */
+    public static final CharRanges LINE_TERMINATORS = CharRanges.ofChars("\n\r\u0085" + '\u2028' + '\u2029');
+    static final CharRanges DOT = LINE_TERMINATORS.complement();
+    static final CharRanges DIGIT = CharRanges.range('0', '9');
+    static final CharRanges WORD = CharRanges.ofRanges("az" + "AZ" + "09" + "__");
+    static final CharRanges SPACE = CharRanges.ofChars(" \t\n\u000B\f\r");
+
+    private final String re;
+    private final boolean caseInsensitive;
+    private int pos;
+
+    private RegexParser(String re, boolean caseInsensitive) {
+        this.re = re;
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    /**
+     * Parse a regular expression.
+     *
+     * @param re The pattern string
+     * @param flags Pattern flags it was (or will be) compiled with
+     * @return the root of the syntax tree.
+     * @throws UnsupportedSyntaxException if the pattern uses syntax the parser does not handle.
+     */
+    public static RegexNode parse(String re, int flags) throws UnsupportedSyntaxException {
+        if ((flags & ~Pattern.CASE_INSENSITIVE) != 0) {
+            throw new UnsupportedSyntaxException("Unsupported pattern flags: " + flags);
+        }
+        for (int i = 0; i < re.length(); i++) {
+            if (Character.isSurrogate(re.charAt(i))) {
+                throw new UnsupportedSyntaxException("Supplementary characters are not supported");
+            }
+        }
+        RegexParser parser = new RegexParser(re, (flags & Pattern.CASE_INSENSITIVE) != 0);
+        RegexNode root = parser.parseAlternation();
+        if (parser.pos != re.length()) {
+            throw parser.unsupported("Unmatched ')'");
+        }
+        return root;
+    }
+
+    /**
+     * Parse an already compiled pattern, honouring its flags.
+     *
+     * @param pattern The compiled pattern
+     * @return the root of the syntax tree.
+     * @throws UnsupportedSyntaxException if the pattern uses syntax the parser does not handle.
+     */
+    public static RegexNode parse(Pattern pattern) throws UnsupportedSyntaxException {
+        return parse(pattern.pattern(), pattern.flags());
+    }
+
+    private RegexNode parseAlternation() throws UnsupportedSyntaxException {
+        int start = pos;
+        List<RegexNode> branches = new ArrayList<>();
+        branches.add(parseConcat());
+        while (more() && peek() == '|') {
+            pos++;
+            branches.add(parseConcat());
+        }
+        return (branches.size() == 1) ? branches.get(0) : RegexNode.alternate(branches, start, pos);
+    }
+
+    private RegexNode parseConcat() throws UnsupportedSyntaxException {
+        int start = pos;
+        List<RegexNode> items = new ArrayList<>();
+        while (more() && peek() != '|' && peek() != ')') {
+            int atomStart = pos;
+            RegexNode atom = parseAtom();
+            items.add(parseQuantifier(atom, atomStart));
+        }
+        return RegexNode.concat(items, start, pos);
+    }
+
+    private RegexNode parseAtom() throws UnsupportedSyntaxException {
+        int start = pos;
+        char c = re.charAt(pos);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return RegexNode.chars(parseClass(), start, pos);
+            case '.':
+                pos++;
+                return RegexNode.chars(DOT, start, pos);
+            case '^':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.BEGIN_INPUT, start, pos);
+            case '$':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.END_INPUT_TERMINATOR, start, pos);
+            case '\\':
+                return parseEscape();
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw unsupported("Dangling meta character '" + c + "'");
+            default:
+                pos++;
+                return RegexNode.chars(literal(c), start, pos);
+        }
+    }
+
+    private RegexNode parseQuantifier(RegexNode atom, int start) throws UnsupportedSyntaxException {
+        if (!more()) return atom;
+        int min, max;
+        switch (peek()) {
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '*':
+                min = 0;
+                max = RegexNode.UNBOUNDED;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = RegexNode.UNBOUNDED;
+                pos++;
+                break;
+            case '{':
+                pos++;
+                min = parseNumber();
+                if (more() && peek() == ',') {
+                    pos++;
+                    max = (more() && peek() == '}') ? RegexNode.UNBOUNDED : parseNumber();
+                } else {
+                    max = min;
+                }
+                expect('}');
+                break;
+            default:
+                return atom;
+        }
+        RegexNode.Mode mode = RegexNode.Mode.GREEDY;
+        if (more() && peek() == '?') {
+            mode = RegexNode.Mode.LAZY;
+            pos++;
+        } else if (more() && peek() == '+') {
+            mode = RegexNode.Mode.POSSESSIVE;
+            pos++;
+        }
+        return RegexNode.repeat(atom, min, max, mode, start, pos);
+    }
+
+    private RegexNode parseGroup() throws UnsupportedSyntaxException {
+        int start = pos;
+        pos++; // '('
+        boolean capturing = true, atomic = false;
+        Boolean ahead = null;
+        boolean negative = false;
+
+        if (re.startsWith("?:", pos)) {
+            capturing = false;
+            pos += 2;
+        } else if (re.startsWith("?>", pos)) {
+            capturing = false;
+            atomic = true;
+            pos += 2;
+        } else if (re.startsWith("?=", pos) || re.startsWith("?!", pos)) {
+            ahead = true;
+            negative = re.charAt(pos + 1) == '!';
+            pos += 2;
+        } else if (re.startsWith("?<=", pos) || re.startsWith("?<!", pos)) {
+            ahead = false;
+            negative = re.charAt(pos + 2) == '!';
+            pos += 3;
+        } else if (re.startsWith("?<", pos)) {
+            // Named capturing group
+            int close = re.indexOf('>', pos);
+            if (close < 0) throw unsupported("Bad named group");
+            pos = close + 1;
+        } else if (more() && peek() == '?') {
+            throw unsupported("Embedded flags are not supported");
+        }
+
+        RegexNode child = parseAlternation();
+        expect(')');
+        if (ahead != null) {
+            return RegexNode.lookaround(child, ahead, negative, start, pos);
+        }
+        return RegexNode.group(child, capturing, atomic, start, pos);
+    }
+
+    private RegexNode parseEscape() throws UnsupportedSyntaxException {
+        int start = pos;
+        pos++; // '\'
+        if (!more()) throw unsupported("Trailing backslash");
+        char c = re.charAt(pos);
+        switch (c) {
+            case 'b':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.WORD_BOUNDARY, start, pos);
+            case 'B':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.NOT_WORD_BOUNDARY, start, pos);
+            case 'A':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.BEGIN_INPUT, start, pos);
+            case 'z':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.END_INPUT, start, pos);
+            case 'Z':
+                pos++;
+                return RegexNode.anchor(RegexNode.Anchor.END_INPUT_TERMINATOR, start, pos);
+            case 'k':
+                int close = re.indexOf('>', pos);
+                if (close < 0) throw unsupported("Bad named back reference");
+                pos = close + 1;
+                return RegexNode.backref(start, pos);
+            case 'Q':
+                pos++;
+                int end = re.indexOf("\\E", pos);
+                if (end < 0) end = re.length();
+                List<RegexNode> quoted = new ArrayList<>();
+                for (int i = pos; i < end; i++) {
+                    quoted.add(RegexNode.chars(literal(re.charAt(i)), i, i + 1));
+                }
+                pos = Math.min(end + 2, re.length());
+                return RegexNode.concat(quoted, start, pos);
+            default:
+                if (c >= '1' && c <= '9') {
+                    // Back references consume as many digits as they can.  Taking them all
+                    // is the conservative choice for analysis.
+                    while (more() && Character.isDigit(peek())) pos++;
+                    return RegexNode.backref(start, pos);
+                }
+                pos--;
+                CharRanges chars = parseEscapedChars();
+                return RegexNode.chars(chars, start, pos);
+        }
+    }
+
+    /**
+     * Parse an escape that stands for a set of chars, valid both inside and
+     * outside of a character class.
+     */
+    private CharRanges parseEscapedChars() throws UnsupportedSyntaxException {
+        pos++; // '\'
+        if (!more()) throw unsupported("Trailing backslash");
+        char c = re.charAt(pos++);
+        switch (c) {
+            case 'd':
+                return DIGIT;
+            case 'D':
+                return DIGIT.complement();
+            case 'w':
+                return WORD;
+            case 'W':
+                return WORD.complement();
+            case 's':
+                return SPACE;
+            case 'S':
+                return SPACE.complement();
+            case 't':
+                return literal('\t');
+            case 'n':
+                return literal('\n');
+            case 'r':
+                return literal('\r');
+            case 'f':
+                return literal('\f');
+            case 'a':
+                return literal('\u0007');
+            case 'e':
+                return literal('\u001B');
+            case 'x':
+                return literal((char) parseHex(2));
+            case 'u':
+                return literal((char) parseHex(4));
+            case '0':
+                int value = 0, digits = 0;
+                while (more() && digits < 3 && peek() >= '0' && peek() <= '7') {
+                    int next = value * 8 + (peek() - '0');
+                    if (next > 0377) break;
+                    value = next;
+                    digits++;
+                    pos++;
+                }
+                if (digits == 0) throw unsupported("Bad octal escape");
+                return literal((char) value);
+            default:
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                    throw unsupported("Unsupported escape '\\" + c + "'");
+                }
+                return literal(c);
+        }
+    }
+
+    private CharRanges parseClass() throws UnsupportedSyntaxException {
+        pos++; // '['
+        boolean negate = false;
+        if (more() && peek() == '^') {
+            negate = true;
+            pos++;
+        }
+        if (more() && peek() == ']') throw unsupported("Leading ']' in character class");
+
+        CharRanges set = CharRanges.EMPTY;
+        while (true) {
+            if (!more()) throw unsupported("Unclosed character class");
+            char c = peek();
+            if (c == ']') {
+                pos++;
+                break;
+            }
+            if (c == '[') throw unsupported("Nested character classes are not supported");
+            if (c == '&' && re.startsWith("&&", pos)) throw unsupported("Class intersections are not supported");
+
+            CharRanges element;
+            if (c == '\\') {
+                element = parseEscapedChars();
+            } else {
+                element = CharRanges.of(c);
+                pos++;
+            }
+
+            // Range?
+            if (element.size() == 1 && more() && peek() == '-' && pos + 1 < re.length() && re.charAt(pos + 1) != ']') {
+                pos++; // '-'
+                CharRanges hi;
+                if (peek() == '\\') {
+                    hi = parseEscapedChars();
+                } else if (peek() == '[') {
+                    throw unsupported("Nested character classes are not supported");
+                } else {
+                    hi = CharRanges.of(re.charAt(pos++));
+                }
+                if (hi.size() != 1) throw unsupported("Bad character range");
+                char lo = element.toCharArray()[0];
+                char top = hi.toCharArray()[0];
+                if (lo > top) throw unsupported("Illegal character range");
+                element = CharRanges.range(lo, top);
+            }
+            set = set.union(element);
+        }
+        if (caseInsensitive) set = set.foldAsciiCase();
+        return negate ? set.complement() : set;
+    }
+
+    private CharRanges literal(char c) {
+        CharRanges set = CharRanges.of(c);
+        return caseInsensitive ? set.foldAsciiCase() : set;
+    }
+
+    private int parseNumber() throws UnsupportedSyntaxException {
+        int start = pos;
+        while (more() && Character.isDigit(peek())) pos++;
+        if (start == pos || pos - start > 6) throw unsupported("Bad repetition count");
+        return Integer.parseInt(re.substring(start, pos));
+    }
+
+    private int parseHex(int digits) throws UnsupportedSyntaxException {
+        if (pos + digits > re.length()) throw unsupported("Bad hex escape");
+        try {
+            int value = Integer.parseInt(re.substring(pos, pos + digits), 16);
+            pos += digits;
+            return value;
+        } catch (NumberFormatException e) {
+            throw unsupported("Bad hex escape");
+        }
+    }
+
+    private void expect(char c) throws UnsupportedSyntaxException {
+        if (!more() || peek() != c) throw unsupported("Expected '" + c + "'");
+        pos++;
+    }
+
+    private boolean more() {
+        return pos < re.length();
+    }
+
+    private char peek() {
+        return re.charAt(pos);
+    }
+
+    private UnsupportedSyntaxException unsupported(String message) {
+        return new UnsupportedSyntaxException(message + " at index " + pos + " of: " + re);
+    }
+
+    /**
+     * Thrown when a pattern uses syntax the parser does not handle.
+     */
+    public static class UnsupportedSyntaxException extends Exception {
+        public UnsupportedSyntaxException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out which literal strings a regular expression needs to see before
+ * it can possibly match.
+ * <p>
+ * The result is a set of strings, at least one of which must be a substring
+ * of any text the pattern matches.  For example, "fag+(s)?" requires "fag",
+ * and "(i hate|fuck)+ this server|server sucks" requires one of "i hate this
+ * server", "fuck this server" or "server sucks".  A null result means no useful requirement could
+ * be found, and the pattern has to be tried against every message.
+ * <p>
+ * All strings are lower-cased in the US-ASCII range only, and must be
+ * compared against text folded the same way.
+ */
+public final class RequiredLiterals {
+
+    // Limits on how large the exact / alternative sets can grow.
+    private static final int MAX_EXACT = 16;
+    private static final int MAX_CLASS = 10;
+    private static final int MAX_ANY = 256;
+
+    private RequiredLiterals() {}
+
+    /**
+     * @param root The parsed pattern
+     * @return A set of lower-case literals, one of which must appear in any
+     * matching text, or null if there is no such set.
+     */
+    public static Set<String> of(RegexNode root) {
+        Set<String> result = requirement(info(root));
+        return (result == null) ? null : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Fold a char the same way as the literals returned by this class.
+     */
+    public static char fold(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+    }
+
+    /* What we know about a sub-expression */
+    private static final class Info {
+        final Set<String> exact; // Every string the node can match, or null if unknown / too many.
+        final Set<String> any;   // One of these must appear in the match, or null.
+
+        Info(Set<String> exact, Set<String> any) {
+            this.exact = exact;
+            this.any = any;
+        }
+    }
+
+    private static final Info UNKNOWN = new Info(null, null);
+    private static final Info EMPTY = new Info(Collections.singleton(""), null);
+
+    private static Info info(RegexNode node) {
+        switch (node.kind) {
+            case CHARS:
+                Set<String> chars = chars(node.chars);
+                return (chars == null) ? UNKNOWN : new Info(chars, chars);
+            case ASSERT:
+            case LOOKAROUND:
+                // Zero-width; they don't add anything to the matched text.
+                return EMPTY;
+            case BACKREF:
+                return UNKNOWN;
+            case GROUP:
+                return info(node.child());
+            case REPEAT:
+                return repeat(node);
+            case ALTERNATE:
+                return alternate(node);
+            case CONCAT:
+                return concat(node);
+        }
+        return UNKNOWN;
+    }
+
+    private static Set<String> chars(CharRanges set) {
+        // Case-insensitive classes are up to twice the size of their folded form.
+        if (set.isEmpty() || set.size() > MAX_CLASS * 2) return null;
+        Set<String> result = new HashSet<>();
+        for (char c : set.toCharArray()) {
+            result.add(String.valueOf(fold(c)));
+        }
+        return (result.size() > MAX_CLASS) ? null : result;
+    }
+
+    private static Info repeat(RegexNode node) {
+        Info child = info(node.child());
+        if (node.min == 0) {
+            if (node.max == 1 && child.exact != null && child.exact.size() < MAX_EXACT) {
+                Set<String> exact = new HashSet<>(child.exact);
+                exact.add("");
+                return new Info(exact, null);
+            }
+            return UNKNOWN;
+        }
+        if (node.min == 1 && node.max == 1) return child;
+        return new Info(null, requirement(child));
+    }
+
+    private static Info alternate(RegexNode node) {
+        Set<String> exact = new HashSet<>();
+        Set<String> any = new HashSet<>();
+        for (RegexNode branch : node.children) {
+            Info info = info(branch);
+            if (exact != null) {
+                if (info.exact == null) {
+                    exact = null;
+                } else {
+                    exact.addAll(info.exact);
+                    if (exact.size() > MAX_EXACT) exact = null;
+                }
+            }
+            if (any != null) {
+                Set<String> required = requirement(info);
+                if (required == null) {
+                    any = null;
+                } else {
+                    any.addAll(required);
+                    if (any.size() > MAX_ANY) any = null;
+                }
+            }
+        }
+        return new Info(exact, any);
+    }
+
+    private static Info concat(RegexNode node) {
+        List<Set<String>> candidates = new ArrayList<>();
+        Set<String> run = Collections.singleton(""); // The exact strings matched by the current run of nodes.
+        boolean allExact = true;
+
+        for (RegexNode child : node.children) {
+            if (child.kind == RegexNode.Kind.REPEAT && child.min >= 1 && !(child.min == 1 && child.max == 1)) {
+                // x{n,m} both starts and ends with x, so x can extend the run
+                // before it, and start the run after it.
+                Info inner = info(child.child());
+                if (inner.exact != null) {
+                    Set<String> extended = cross(run, inner.exact);
+                    addCandidate(candidates, (extended == null) ? run : extended);
+                    run = inner.exact;
+                    allExact = false;
+                    continue;
+                }
+            }
+
+            Info info = info(child);
+            if (info.exact != null) {
+                Set<String> extended = cross(run, info.exact);
+                if (extended == null) {
+                    addCandidate(candidates, run);
+                    run = info.exact;
+                    allExact = false;
+                } else {
+                    run = extended;
+                }
+            } else {
+                addCandidate(candidates, run);
+                addCandidate(candidates, info.any);
+                run = Collections.singleton("");
+                allExact = false;
+            }
+        }
+        addCandidate(candidates, run);
+
+        return new Info(allExact ? run : null, best(candidates));
+    }
+
+    private static Set<String> cross(Set<String> a, Set<String> b) {
+        if ((long) a.size() * b.size() > MAX_EXACT) return null;
+        Set<String> result = new HashSet<>();
+        for (String x : a) {
+            for (String y : b) {
+                result.add(x + y);
+            }
+        }
+        return result;
+    }
+
+    private static void addCandidate(List<Set<String>> candidates, Set<String> set) {
+        if (set != null && !set.isEmpty() && !set.contains("")) candidates.add(set);
+    }
+
+    private static Set<String> requirement(Info info) {
+        List<Set<String>> candidates = new ArrayList<>(2);
+        addCandidate(candidates, info.exact);
+        addCandidate(candidates, info.any);
+        return best(candidates);
+    }
+
+    /*
+     * Pick the most selective set: the one whose shortest literal is longest,
+     * then the one with the fewest literals.
+     */
+    private static Set<String> best(List<Set<String>> candidates) {
+        Set<String> best = null;
+        int bestMin = -1;
+        for (Set<String> set : candidates) {
+            int min = Integer.MAX_VALUE;
+            for (String s : set) {
+                min = Math.min(min, s.length());
+            }
+            if (min > bestMin || (min == bestMin && set.size() < best.size())) {
+                best = set;
+                bestMin = min;
+            }
+        }
+        return best;
+    }
+}
@@ -180,6 +180,17 @@ public class ColoredStringTest {
                 testCs.patternToUpper(Pattern.compile("This")));
     }
 
+    @Test
+    public void testManyCodesInARow() {
+        // More codes than fit in one packed entry.
+        String test = "&1&2&3&4&5&k&lbold&r&A&b";
+        ColoredString cs = new ColoredString(test);
+        assertEquals(test, cs.getColoredString());
+        assertEquals("&1&2&3&4&5&k&l", cs.getCodeArray()[0]);
+        assertEquals("&r&A&b", cs.getCodeArray()[4]);
+        assertEquals("&1&2&3&4&5&k&lBOLD&r&A&b", cs.replaceText(Pattern.compile("bold"), "BOLD").getRaw());
+    }
+
     @Test
     public void testGetRaw() throws Exception {
         assertEquals(testCs.getRaw(), original);
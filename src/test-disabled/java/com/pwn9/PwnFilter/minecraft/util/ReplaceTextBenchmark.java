@@ -0,0 +1,62 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.minecraft.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * Times ColoredString.replaceText on messages with 1, 10 and 100 matches.
+ * Not a unit test; run the main method by hand:
+ * <pre>
+ *   java -cp ... com.pwn9.PwnFilter.minecraft.util.ReplaceTextBenchmark
+ * </pre>
+ */
+public class ReplaceTextBenchmark {
+
+    private static final Pattern SWEAR = Pattern.compile("\\bdarn\\b", Pattern.CASE_INSENSITIVE);
+    private static final String REPLACEMENT = "&c****&r";
+
+    /* A colored rant with the given number of swears in it. */
+    static ColoredString message(int swears) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < swears; i++) {
+            sb.append((i % 3 == 0) ? "&a" : "").append("this is darn annoying, ");
+        }
+        return new ColoredString(sb.toString());
+    }
+
+    static long nanosPerReplace(ColoredString message, int iterations) {
+        int sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += message.replaceText(SWEAR, REPLACEMENT).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.println(); // Keep the result alive.
+        return elapsed / iterations;
+    }
+
+    public static void main(String[] args) {
+        int[] counts = {1, 10, 100};
+        // Warm up, so the JIT has compiled everything before we measure.
+        for (int count : counts) {
+            nanosPerReplace(message(count), 200000 / count);
+        }
+        for (int count : counts) {
+            ColoredString message = message(count);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 5; run++) {
+                best = Math.min(best, nanosPerReplace(message, 1000000 / count));
+            }
+            System.out.printf("%3d replacements, %5d chars: %8d ns/op%n", count, message.length(), best);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.util.regex.RegexParser;
+import com.pwn9.PwnFilter.util.regex.RequiredLiterals;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the LiteralPrefilter, which must only skip a rule when none of the
+ * literals its pattern requires are in the message.
+ */
+public class LiteralPrefilterTest {
+
+    private static final String[] PATTERNS = {
+            "fudge", "(cat|dog)s?", ".*", "\\bheck+\\b", "sh[i1]t", "(?<!b)itch", "\\w+\\W\\w",
+    };
+
+    private static final String[] MESSAGES = {
+            "", "fudge", "FUDGE!", "I like Dogs", "cats and dogs", "heck", "heckkk no", "what the h eck", "sh1t",
+            "SHIT", "ship", "itch", "bitch", "witch", "a 1", "nothing to see", "catfudge", "shheck",
+    };
+
+    private static Rule rule(String re) {
+        Rule rule = new Rule();
+        rule.setPattern(Pattern.compile(re, Pattern.CASE_INSENSITIVE));
+        return rule;
+    }
+
+    private static List<ChainEntry> entries() {
+        List<ChainEntry> entries = new ArrayList<>();
+        for (String re : PATTERNS) {
+            entries.add(rule(re));
+        }
+        // Entries that aren't rules with patterns can't be filtered.
+        entries.add(new Rule());
+        entries.add(new ChainEntry() {
+            public boolean isValid() { return true; }
+            public void apply(FilterTask state) {}
+            public Set<String> getPermissionList() { return Collections.emptySet(); }
+        });
+        return entries;
+    }
+
+    private static String fold(String text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            folded.append(RequiredLiterals.fold(text.charAt(i)));
+        }
+        return folded.toString();
+    }
+
+    @Test
+    public void testFilteredEntries() {
+        LiteralPrefilter prefilter = LiteralPrefilter.build(entries());
+        boolean[] filtered = {true, true, false, true, true, true, false, false, false};
+        for (int i = 0; i < filtered.length; i++) {
+            Assert.assertEquals("Entry " + i, filtered[i], prefilter.isFiltered(i));
+        }
+        Assert.assertEquals(5, prefilter.filteredCount());
+    }
+
+    @Test
+    public void testCandidates() {
+        LiteralPrefilter.Scanner scanner = LiteralPrefilter.build(entries()).newScanner();
+        Assert.assertEquals(BitSet.valueOf(new long[]{0b10}), scanner.scan("I like Dogs"));
+        Assert.assertEquals(BitSet.valueOf(new long[]{0b1001}), scanner.scan("FUDGE heckk"));
+        Assert.assertTrue(scanner.scan("nothing to see").isEmpty());
+    }
+
+    @Test
+    public void testSkipsOnlyRulesWithoutLiterals() throws Exception {
+        List<ChainEntry> entries = entries();
+        LiteralPrefilter prefilter = LiteralPrefilter.build(entries);
+        LiteralPrefilter.Scanner scanner = prefilter.newScanner();
+        for (String message : MESSAGES) {
+            BitSet candidates = scanner.scan(message);
+            for (int i = 0; i < entries.size(); i++) {
+                if (!prefilter.isFiltered(i)) continue;
+                Pattern pattern = ((Rule) entries.get(i)).getPattern();
+                boolean present = false;
+                for (String literal : RequiredLiterals.of(RegexParser.parse(pattern))) {
+                    present |= fold(message).contains(literal);
+                }
+                Assert.assertEquals(pattern + " on \"" + message + "\"", present, candidates.get(i));
+                if (!candidates.get(i)) {
+                    Assert.assertFalse(pattern + " skipped on \"" + message + "\"", pattern.matcher(message).find());
+                }
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -129,6 +130,22 @@ public class ParserTest {
         assertEquals(cTest.parameters, "me");
     }
 
+    @Test
+    public void testReloadMatchesSingleLoad() {
+        rs = ruleManager.getRuleChain("testrules.txt");
+        ruleManager.getRuleChain("actiongroup.txt");
+        ruleManager.getRuleChain("conditiongroup.txt");
+        assertTrue(rs.loadConfigFile());
+        List<String> loaded = new ArrayList<>();
+        for (ChainEntry e : rs.getChain()) loaded.add(e.toString());
+
+        // Reloading reads all the files at once, but must give the same chain.
+        ruleManager.reloadAllConfigs();
+        List<String> reloaded = new ArrayList<>();
+        for (ChainEntry e : rs.getChain()) reloaded.add(e.toString());
+        assertEquals(loaded, reloaded);
+    }
+
 
 
 }
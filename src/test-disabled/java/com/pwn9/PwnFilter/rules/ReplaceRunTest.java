@@ -0,0 +1,141 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.api.FilterClient;
+import com.pwn9.PwnFilter.api.MessageAuthor;
+import com.pwn9.PwnFilter.minecraft.util.ColoredString;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.core.Abort;
+import com.pwn9.PwnFilter.rules.action.core.Deny;
+import com.pwn9.PwnFilter.rules.action.core.Log;
+import com.pwn9.PwnFilter.rules.action.core.Replace;
+import com.pwn9.PwnFilter.rules.action.core.Rewrite;
+import com.pwn9.PwnFilter.util.EnhancedString;
+import com.pwn9.PwnFilter.util.LogManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that runs of replace rules, which share a SplicedString, give the
+ * same result as applying each rule to the message in turn.
+ */
+public class ReplaceRunTest {
+
+    private static final String[] MESSAGES = {
+            "", "nothing here", "&", "fudge", "&afudge &bthe heck", "he&ack fudge", "heckheck", "&cFUDGE&r heck darn",
+            "darn &lgosh&r stop gosh", "ababab&1abx", "a&&b stop heck", "drat fudge darn gosh", "fudge&", "&4&lhe&rck&r",
+            "fudgefudge stop fudge", "gosh gosh, abheckab",
+    };
+
+    final FilterClient client = new FilterClient() {
+        public String getShortName() { return "TEST"; }
+        public RuleChain getRuleChain() { return null; }
+        public boolean isActive() { return true; }
+        public void activate() {}
+        public void shutdown() {}
+    };
+    final MessageAuthor author = new MessageAuthor() {
+        public boolean hasPermission(String permString) { return false; }
+        @Nonnull public String getName() { return "tester"; }
+        @Nonnull public UUID getID() { return UUID.randomUUID(); }
+        public void sendMessage(String message) {}
+        public void sendMessages(List<String> messages) {}
+    };
+
+    @Before
+    public void setUp() {
+        LogManager.getInstance(LoggerFactory.getLogger("PwnFilter"), new File("/tmp/"));
+    }
+
+    @After
+    public void tearDown() {
+        CompiledChain.spliceRuns = true;
+    }
+
+    private static Rule rule(String pattern, Action... actions) {
+        Rule rule = new Rule();
+        rule.setPattern(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+        for (Action action : actions) {
+            rule.addAction(action);
+        }
+        return rule;
+    }
+
+    private static <T extends Action> T action(T action, String data) {
+        action.init(data);
+        return action;
+    }
+
+    private static CompiledChain chain(boolean spliceRuns) {
+        CompiledChain.spliceRuns = spliceRuns;
+        ChainBuilder builder = new ChainBuilder("runs.txt");
+        for (Rule rule : Arrays.asList(
+                rule("fudge", action(new Replace(), "f***e")),
+                // Matches what the last rule put in.
+                rule("f\\*+e", action(new Rewrite(), "&cCENSORED&r")),
+                rule("heck", action(new Replace(), "&4h&5e&6c&7k")),
+                // Matches across the codes the last rule put in.
+                rule("ecks?", action(new Replace(), "x")),
+                rule("darn", action(new Log(), ""), action(new Replace(), "d**n")),
+                rule("(?:ab)+", action(new Replace(), "")),
+                rule("d\\*\\*n|hx", action(new Replace(), "&lbleep")),
+                // Ends the run, and the next one.
+                rule("drat", action(new Deny(), "")),
+                rule("stop", action(new Abort(), "")),
+                rule("gosh", action(new Replace(), "g**h")),
+                rule("g\\*\\*h|bleep", action(new Rewrite(), "&9$0")))) {
+            builder.append(rule);
+        }
+        return builder.build();
+    }
+
+    private String describe(CompiledChain chain, EnhancedString message) {
+        FilterTask task = new FilterTask(message, author, client);
+        chain.apply(task);
+        return task.getModifiedMessage().getRaw() + " | " + task.getModifiedMessage().getPlainText() +
+                " | aborted=" + task.isAborted() + " cancelled=" + task.isCancelled() + " logging=" +
+                task.loggingOn() + " " + task.getLogMessages();
+    }
+
+    @Test
+    public void testRunsMatchSingleReplacements() {
+        CompiledChain spliced = chain(true);
+        CompiledChain single = chain(false);
+        for (String message : MESSAGES) {
+            assertEquals(message, describe(single, ColoredString.forMessage(message)),
+                    describe(spliced, ColoredString.forMessage(message)));
+        }
+    }
+
+    @Test
+    public void testRunsKeepFormatPrefix() {
+        CompiledChain spliced = chain(true);
+        CompiledChain single = chain(false);
+        for (String message : MESSAGES) {
+            String sectioned = message.replace('&', '\u00a7');
+            assertEquals(sectioned, describe(single, new ColoredString(sectioned, '\u00a7')),
+                    describe(spliced, new ColoredString(sectioned, '\u00a7')));
+        }
+    }
+}
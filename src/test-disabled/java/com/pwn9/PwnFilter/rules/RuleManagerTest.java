@@ -0,0 +1,66 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.rules.action.RegisterActions;
+import com.pwn9.PwnFilter.util.LogManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for reloading the chains that depend on changed rule files.
+ */
+public class RuleManagerTest {
+
+    private File rulesDir;
+
+    @Before
+    public void setUp() throws Exception {
+        RegisterActions.all();
+        LogManager.getInstance(LoggerFactory.getLogger("PwnFilter"), new File("/tmp/"));
+        rulesDir = new File(Files.createTempDirectory("pwnfilter").toFile(), "rules");
+        rulesDir.mkdir();
+        FilterConfig.getInstance().setRulesDir(rulesDir);
+    }
+
+    @Test
+    public void testChangedFileWithBadRuleKeepsRules() throws Exception {
+        RuleManager ruleManager = RuleManager.getInstance();
+        write("watched.txt", "match foo\nthen replace bar\n\nmatch baz\nthen deny\n");
+        RuleChain chain = ruleManager.getRuleChain("watched.txt");
+        chain.loadConfigFile();
+        CompiledChain before = chain.getCompiledChain();
+        assertEquals(2, chain.ruleCount());
+
+        // The second rule has a typo, so it would be dropped.
+        write("watched.txt", "match foo\nthen replace bar\n\nmatch (baz\nthen deny\n\nmatch qux\nthen deny\n");
+        ruleManager.reloadChangedFiles(Collections.singleton("watched.txt"));
+        assertSame(before, chain.getCompiledChain());
+
+        write("watched.txt", "match foo\nthen replace bar\n\nmatch baz\nthen deny\n\nmatch qux\nthen deny\n");
+        ruleManager.reloadChangedFiles(Collections.singleton("watched.txt"));
+        assertEquals(3, chain.ruleCount());
+    }
+
+    private void write(String name, String text) throws Exception {
+        Files.write(new File(rulesDir, name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
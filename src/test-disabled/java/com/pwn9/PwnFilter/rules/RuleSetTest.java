@@ -15,6 +15,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Logger;
@@ -122,5 +123,21 @@ public class RuleSetTest {
         Assert.assertEquals("Replaced", testState.getModifiedMessage().toString());
     }
 
+    @Test
+    public void testReplacedSnapshotCanBeCollected() throws Exception {
+        CompiledChain snapshot = rs.getCompiledChain();
+        snapshot.apply(new FilterTask("This is a test", author, mockClient));
+        WeakReference<CompiledChain> reference = new WeakReference<>(snapshot);
+        snapshot = null;
+
+        // Replace the snapshot; this thread's matchers for it mustn't keep it alive.
+        rs.loadConfigFile();
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(reference.get());
+    }
+
 
 }
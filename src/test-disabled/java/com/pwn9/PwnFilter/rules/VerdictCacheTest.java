@@ -0,0 +1,189 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterTask;
+import com.pwn9.PwnFilter.api.FilterClient;
+import com.pwn9.PwnFilter.api.MessageAuthor;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.core.Deny;
+import com.pwn9.PwnFilter.rules.action.core.RandomReplace;
+import com.pwn9.PwnFilter.rules.action.core.Replace;
+import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.SimpleString;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the VerdictCache in front of {@link RuleChain#execute(FilterTask)}.
+ */
+public class VerdictCacheTest {
+
+    final FilterClient client = new FilterClient() {
+        public String getShortName() { return "TEST"; }
+        public RuleChain getRuleChain() { return null; }
+        public boolean isActive() { return true; }
+        public void activate() {}
+        public void shutdown() {}
+    };
+    final MessageAuthor author = new MessageAuthor() {
+        public boolean hasPermission(String permString) { return false; }
+        @Nonnull public String getName() { return "tester"; }
+        @Nonnull public UUID getID() { return UUID.randomUUID(); }
+        public void sendMessage(String message) {}
+        public void sendMessages(List<String> messages) {}
+    };
+
+    /* An action with a side effect: it counts how often it runs. */
+    static class Counter implements Action {
+        int count;
+        public void init(String s) {}
+        public void execute(FilterTask state) { count++; }
+    }
+
+    /* An action that rewrites the message differently every time. */
+    static class Changing implements Action {
+        int count;
+        public void init(String s) {}
+        public void execute(FilterTask state) { state.setModifiedMessage(new SimpleString("changed " + ++count)); }
+    }
+
+    @Before
+    public void setUp() {
+        LogManager.getInstance(LoggerFactory.getLogger("PwnFilter"), new File("/tmp/"));
+    }
+
+    private static Rule rule(String pattern, Action... actions) {
+        Rule rule = new Rule();
+        rule.setPattern(pattern);
+        for (Action action : actions) {
+            rule.addAction(action);
+        }
+        return rule;
+    }
+
+    private static <T extends Action> T action(T action, String data) {
+        action.init(data);
+        return action;
+    }
+
+    private static CompiledChain chain(Rule... rules) {
+        ChainBuilder builder = new ChainBuilder("verdicts.txt");
+        for (Rule rule : rules) {
+            builder.append(rule);
+        }
+        return builder.build();
+    }
+
+    private FilterTask apply(VerdictCache cache, CompiledChain chain, String message) {
+        FilterTask task = new FilterTask(message, author, client);
+        cache.apply(chain, task);
+        return task;
+    }
+
+    @Test
+    public void testHitReplaysVerdict() {
+        Counter counter = new Counter();
+        CompiledChain chain = chain(
+                rule("fudge", action(new Replace(), "f***e"), counter),
+                rule("heck", action(new Deny(), "")),
+                rule("nothing", counter));
+        VerdictCache cache = new VerdictCache(10);
+
+        FilterTask first = apply(cache, chain, "fudge this heck");
+        FilterTask second = apply(cache, chain, "fudge this heck");
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals("f***e this heck", first.getModifiedMessage().getRaw());
+        assertEquals(first.getModifiedMessage().getRaw(), second.getModifiedMessage().getRaw());
+        assertTrue(second.isCancelled());
+        // The actions ran again for the hit.
+        assertEquals(2, counter.count);
+
+        // A different message, or listener, is a miss.
+        apply(cache, chain, "fudge that heck");
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testUncacheableOutcomes() {
+        Rule timedOut = rule("a.*z");
+        timedOut.setStepLimit(10);
+        Rule user = rule("fudge", action(new Replace(), "f***e"));
+        user.addCondition(Condition.newCondition("ignore", "user tester"));
+        Rule permission = rule("heck", action(new Deny(), ""));
+        permission.addCondition(Condition.newCondition("require", "permission pwnfilter.test"));
+
+        String[] messages = {"fudge", "heck", "shoot", "a" + new String(new char[100]).replace('\0', 'b')};
+        CompiledChain chain = chain(user, permission, rule("shoot", action(new RandomReplace(), "darn|drat")),
+                timedOut);
+        VerdictCache cache = new VerdictCache(10);
+        for (String message : messages) {
+            apply(cache, chain, message);
+            apply(cache, chain, message);
+        }
+        assertEquals(0, cache.getHitCount());
+        assertEquals(messages.length * 2, cache.getUncacheableCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNewSnapshotMisses() {
+        Rule rule = rule("fudge", action(new Replace(), "f***e"));
+        CompiledChain before = chain(rule);
+        CompiledChain after = chain(rule);
+        assertNotEquals(before.getEpoch(), after.getEpoch());
+
+        VerdictCache cache = new VerdictCache(10);
+        apply(cache, before, "fudge");
+        apply(cache, before, "fudge");
+        apply(cache, after, "fudge");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // Publishing a chain starts a new cache, for the new epoch.
+        RuleChain ruleChain = new RuleChain("verdicts.txt");
+        ruleChain.publish(before);
+        VerdictCache published = ruleChain.getVerdictCache();
+        ruleChain.execute(new FilterTask("fudge", author, client));
+        ruleChain.publish(after);
+        ruleChain.execute(new FilterTask("fudge", author, client));
+        assertEquals(0, ruleChain.getVerdictCache().getHitCount());
+        assertEquals(1, ruleChain.getVerdictCache().getMissCount());
+        assertFalse(published == ruleChain.getVerdictCache());
+    }
+
+    @Test
+    public void testChangedReplayInvalidates() {
+        CompiledChain chain = chain(rule("fudge", new Changing()));
+        VerdictCache cache = new VerdictCache(10);
+
+        assertEquals("changed 1", apply(cache, chain, "fudge").getModifiedMessage().getRaw());
+        assertEquals(1, cache.size());
+        // The replay comes out differently, so the entry is dropped, and the next one runs the chain.
+        assertEquals("changed 2", apply(cache, chain, "fudge").getModifiedMessage().getRaw());
+        assertEquals(0, cache.size());
+        apply(cache, chain, "fudge");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
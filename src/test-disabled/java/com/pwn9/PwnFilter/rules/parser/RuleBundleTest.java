@@ -0,0 +1,221 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.rules.ChainBuilder;
+import com.pwn9.PwnFilter.rules.CompiledChain;
+import com.pwn9.PwnFilter.rules.Condition;
+import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.rules.ShortCutManager;
+import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.RegisterActions;
+import com.pwn9.PwnFilter.util.LogManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a saved RuleBundle loads the same chain as the rule files it was
+ * made from, and is only used while they're unchanged.
+ */
+public class RuleBundleTest {
+
+    private static final String[] SOURCES = {"bundled.txt", "included.txt", "bundlecuts.txt", "words.txt"};
+
+    private File rulesDir;
+
+    @Before
+    public void setUp() throws Exception {
+        RegisterActions.all();
+        LogManager.getInstance(LoggerFactory.getLogger("PwnFilter"), new File("/tmp/"));
+        rulesDir = new File(Files.createTempDirectory("pwnfilter").toFile(), "rules");
+        rulesDir.mkdir();
+        FilterConfig.getInstance().setRulesDir(rulesDir);
+        ShortCutManager.getInstance().reloadFiles();
+
+        write("bundled.txt",
+                "timeout 200\n" +
+                "steplimit 5000\n" +
+                "\n" +
+                "actiongroup warn\n" +
+                "then lower\n" +
+                "then log\n" +
+                "\n" +
+                "conditiongroup notadmin\n" +
+                "ignore permission pwnfilter.admin\n" +
+                "ignore user Admin\n" +
+                "\n" +
+                "shortcuts bundlecuts.txt\n" +
+                "match <vw>d\n" +
+                "rule V1 Vowel words\n" +
+                "conditions notadmin\n" +
+                "then replace ***\n" +
+                "\n" +
+                "shortcuts\n" +
+                "match (?i)\\bfudge\\b\n" +
+                "timeout 50\n" +
+                "steplimit 100\n" +
+                "require command\n" +
+                "actions warn\n" +
+                "then deny\n" +
+                "\n" +
+                "include included.txt\n" +
+                "\n" +
+                "wordlist words.txt\n" +
+                "events not chat\n" +
+                "then rewrite *\n");
+        write("included.txt",
+                "match heck+\n" +
+                "events chat, sign\n" +
+                "then upper\n" +
+                "then points 2.5\n");
+        write("bundlecuts.txt", "vw [aeiou]\n");
+        write("words.txt", "darn\ndrat\ngosh darn it\n");
+    }
+
+    private void write(String name, String text) throws Exception {
+        Files.write(new File(rulesDir, name).toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CompiledChain parse() {
+        ChainBuilder builder = new ChainBuilder("bundled.txt");
+        FileParser parser = new FileParser("bundled.txt", new ParseCache());
+        parser.read(builder);
+        assertTrue(parser.finish());
+        assertTrue(parser.isClean());
+        builder.addFiles(parser.getFiles());
+        return builder.build();
+    }
+
+    private static CompiledChain load(Set<String> files) {
+        ChainBuilder builder = new ChainBuilder("bundled.txt");
+        ParseCache cache = new ParseCache();
+        try {
+            if (!RuleBundle.load("bundled.txt", builder, files, cache)) return null;
+        } finally {
+            cache.release();
+        }
+        builder.addFiles(files);
+        return builder.build();
+    }
+
+    /* The class, and the values of the fields, of an action. */
+    private static String describe(Action action) throws Exception {
+        List<String> fields = new ArrayList<>();
+        for (Class<?> c = action.getClass(); c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+                field.setAccessible(true);
+                fields.add(field.getName() + "=" + Arrays.deepToString(new Object[]{field.get(action)}));
+            }
+        }
+        return action.getClass().getName() + fields;
+    }
+
+    private static List<String> describe(List<Action> actions) throws Exception {
+        List<String> described = new ArrayList<>();
+        for (Action action : actions) {
+            described.add(describe(action));
+        }
+        return described;
+    }
+
+    private static List<String> conditions(List<Condition> conditions) {
+        List<String> described = new ArrayList<>();
+        for (Condition condition : conditions) {
+            described.add(condition.toString());
+        }
+        return described;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        CompiledChain parsed = parse();
+        assertEquals(4, parsed.size());
+        assertTrue(RuleBundle.cacheDirectory().listFiles().length > 0);
+
+        Set<String> files = new LinkedHashSet<>();
+        CompiledChain loaded = load(files);
+        assertTrue("The bundle was saved and loaded", loaded != null);
+        assertEquals(new LinkedHashSet<>(Arrays.asList(SOURCES)), files);
+        assertEquals(parsed.getFiles(), loaded.getFiles());
+        assertEquals(parsed.getTimeout(), loaded.getTimeout());
+        assertEquals(parsed.getStepLimit(), loaded.getStepLimit());
+        assertEquals(parsed.getActionGroups().keySet(), loaded.getActionGroups().keySet());
+        assertEquals(describe(parsed.getActionGroups().get("warn")), describe(loaded.getActionGroups().get("warn")));
+        assertEquals(conditions(parsed.getConditionGroups().get("notadmin")),
+                conditions(loaded.getConditionGroups().get("notadmin")));
+
+        assertEquals(parsed.size(), loaded.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            Rule expected = (Rule) parsed.getEntry(i);
+            Rule actual = (Rule) loaded.getEntry(i);
+            String at = "Rule " + i;
+            assertEquals(at, expected.getId(), actual.getId());
+            assertEquals(at, expected.getDescription(), actual.getDescription());
+            if (expected.getWordList() != null) {
+                assertEquals(at, expected.getWordList().getName(), actual.getWordList().getName());
+                assertEquals(at, expected.getWordList().size(), actual.getWordList().size());
+            } else {
+                assertEquals(at, expected.getPattern().pattern(), actual.getPattern().pattern());
+                assertEquals(at, expected.getPattern().flags(), actual.getPattern().flags());
+            }
+            assertEquals(at, conditions(expected.getConditions()), conditions(actual.getConditions()));
+            assertEquals(at, describe(expected.getActions()), describe(actual.getActions()));
+            assertEquals(at, expected.includeEvents, actual.includeEvents);
+            assertEquals(at, expected.excludeEvents, actual.excludeEvents);
+            assertEquals(at, expected.getTimeout(), actual.getTimeout());
+            assertEquals(at, expected.getStepLimit(), actual.getStepLimit());
+            assertEquals(at, parsed.getTimeout(i), loaded.getTimeout(i));
+            assertEquals(at, parsed.getStepLimit(i), loaded.getStepLimit(i));
+        }
+        // The shortcut was expanded before the pattern was saved.
+        assertEquals("[aeiou]d", ((Rule) loaded.getEntry(0)).getPattern().pattern());
+    }
+
+    @Test
+    public void testChangedSourceInvalidates() throws Exception {
+        parse();
+        for (String source : SOURCES) {
+            File file = new File(rulesDir, source);
+            byte[] original = Files.readAllBytes(file.toPath());
+            byte[] changed = Arrays.copyOf(original, original.length);
+            // Change one byte, and keep the length, so only the hash can tell.
+            changed[changed.length - 2] ^= 1;
+            Files.write(file.toPath(), changed);
+            Set<String> files = new LinkedHashSet<>();
+            assertTrue(source, load(files) == null);
+            assertTrue(source, files.isEmpty());
+
+            Files.write(file.toPath(), original);
+            assertFalse(source, load(new LinkedHashSet<>()) == null);
+        }
+
+        assertTrue(new File(rulesDir, "words.txt").delete());
+        assertTrue(load(new LinkedHashSet<>()) == null);
+    }
+}
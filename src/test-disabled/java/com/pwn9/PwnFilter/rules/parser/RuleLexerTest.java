@@ -0,0 +1,51 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for RuleLexer, which splits rule files into statements.
+ */
+public class RuleLexerTest {
+
+    @Test
+    public void testStatements() throws Exception {
+        RuleLexer lexer = new RuleLexer("  # comment\r\nmatch  foo \r\n\n\tthen deny");
+        assertEquals("match  foo", lexer.readLine());
+        assertEquals("", lexer.readLine());
+        assertEquals("then deny", lexer.readLine());
+        assertNull(lexer.readLine());
+    }
+
+    @Test
+    public void testMultiline() throws Exception {
+        RuleLexer lexer = new RuleLexer("then notify <<EOF\n  one\n# skipped\n\ntwo\nEOF\nnext");
+        assertEquals("then notify one\n\ntwo", lexer.readLine());
+        assertEquals("next", lexer.readLine());
+    }
+
+    @Test
+    public void testSection() throws Exception {
+        RuleLexer lexer = new RuleLexer("match foo\nthen deny\nthen log\n\nmatch bar");
+        lexer.readLine();
+        List<NumberedLine> section = lexer.readSection();
+        assertEquals(2, section.size());
+        assertEquals("then log", section.get(1).string);
+        assertEquals(Integer.valueOf(4), section.get(1).number);
+        assertEquals("match bar", lexer.readLine());
+    }
+}
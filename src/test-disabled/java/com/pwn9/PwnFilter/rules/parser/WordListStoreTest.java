@@ -0,0 +1,132 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.parser;
+
+import com.pwn9.PwnFilter.config.FilterConfig;
+import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.WordList;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for saving word lists in the rule cache, and mapping them back.
+ */
+public class WordListStoreTest {
+
+    private File rulesDir;
+
+    @Before
+    public void setUp() throws Exception {
+        LogManager.getInstance(LoggerFactory.getLogger("PwnFilter"), new File("/tmp/"));
+        rulesDir = new File(Files.createTempDirectory("pwnfilter").toFile(), "rules");
+        new File(rulesDir, "lists").mkdirs();
+        FilterConfig.getInstance().setRulesDir(rulesDir);
+        forget();
+    }
+
+    /* Forget the lists in use, so the next get() has to map (or build) them. */
+    private static void forget() throws Exception {
+        Field lists = WordListStore.class.getDeclaredField("lists");
+        lists.setAccessible(true);
+        ((Map<?, ?>) lists.get(null)).clear();
+    }
+
+    private File write(String name, String text) throws Exception {
+        File file = new File(rulesDir, name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static WordList get(String name, File source) throws Exception {
+        return WordListStore.get(name, RuleBundle.hash(source), source);
+    }
+
+    private static String[] saved() {
+        String[] names = RuleBundle.cacheDirectory().list((dir, name) -> name.endsWith(".words"));
+        return (names != null) ? names : new String[0];
+    }
+
+    @Test
+    public void testSaveMapLoad() throws Exception {
+        File source = write("words.txt", "darn\ndrat\n# not a word\n\ngosh darn it\n");
+        WordList built = get("words.txt", source);
+        assertEquals(3, built.size());
+        assertEquals(1, saved().length);
+        // Lists in use are shared.
+        assertSame(built, get("words.txt", source));
+
+        // Without the source, the list can only come from the saved file.
+        byte[] hash = RuleBundle.hash(source);
+        assertTrue(source.delete());
+        forget();
+        WordList mapped = WordListStore.get("words.txt", hash, source);
+        assertNotSame(built, mapped);
+        assertEquals(3, mapped.size());
+        assertEquals((3L << 32) | 15, mapped.find("oh gosh darn it!", 0));
+    }
+
+    @Test
+    public void testRebuiltWhenSourceChanges() throws Exception {
+        File source = write("words.txt", "darn\ndrat\n");
+        WordList before = get("words.txt", source);
+        String[] savedBefore = saved();
+
+        write("words.txt", "darn\ndrat\nheck\n");
+        WordList after = get("words.txt", source);
+        assertNotSame(before, after);
+        assertEquals(3, after.size());
+        // The list saved from the old file is gone.
+        assertEquals(1, saved().length);
+        assertFalse(savedBefore[0].equals(saved()[0]));
+
+        forget();
+        assertEquals(3, get("words.txt", source).size());
+    }
+
+    @Test
+    public void testSimilarNamesDontCollide() throws Exception {
+        File nested = write("lists/en.txt", "darn\n");
+        File flat = write("lists_en.txt", "heck\nshoot\n");
+        assertEquals(1, get("lists/en.txt", nested).size());
+        assertEquals(2, get("lists_en.txt", flat).size());
+        // Saving one list doesn't clean up the other.
+        assertEquals(2, saved().length);
+
+        forget();
+        assertEquals(1, get("lists/en.txt", nested).size());
+        assertEquals(2, get("lists_en.txt", flat).size());
+    }
+
+    @Test
+    public void testHeapFallback() throws Exception {
+        // A file where the cache directory should be, so nothing can be saved.
+        // (A read-only directory wouldn't do, if the test runs as root.)
+        assertTrue(RuleBundle.cacheDirectory().createNewFile());
+        File source = write("words.txt", "darn\ndrat\n");
+        WordList list = get("words.txt", source);
+        assertEquals(2, list.size());
+        assertEquals(0, saved().length);
+        assertTrue(RuleBundle.cacheDirectory().isFile());
+    }
+}
@@ -42,4 +42,47 @@ public class LimitedRegexCharSequenceTest {
 //            System.out.println("PASS: " + ex.getMessage());
         }
     }
+
+    @Test
+    public void testStepLimit() throws Exception {
+        LimitedRegexCharSequence limitedString = new LimitedRegexCharSequence("xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx",0,10000);
+        Pattern pattern = Pattern.compile("(x+x+)+\\1y");
+        Matcher matcher = pattern.matcher(limitedString);
+
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            matcher.matches();
+            Assert.fail("Shouldn't get here!");
+        } catch (LimitedRegexCharSequence.LimitExceededException ex) {
+            Assert.assertEquals(10001, limitedString.getAccessCount());
+        }
+
+        // After a reset, the count starts over.
+        Assert.assertTrue(Pattern.compile("x+y").matcher(limitedString.reset("xxy")).find());
+        Assert.assertTrue(limitedString.getAccessCount() < 10);
+    }
+
+    @Test
+    public void testCharArrayView() throws Exception {
+        char[] chars = "xxThis is a pretty simple test string.xx".toCharArray();
+        CharArraySequence view = new CharArraySequence(chars, 2, simpleString.length());
+        LimitedRegexCharSequence limitedString = new LimitedRegexCharSequence(view, 0, 10000);
+        Assert.assertEquals(simpleString, view.toString());
+        Assert.assertEquals('i', limitedString.charAt(18));
+
+        Matcher matcher = Pattern.compile("simple (\\w+)").matcher(limitedString);
+        Assert.assertTrue(matcher.find());
+        Assert.assertEquals("test", matcher.group(1));
+        Assert.assertFalse(Pattern.compile("x").matcher(limitedString.reset(view)).find());
+
+        // The limits still apply.
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            Pattern.compile("(x+x+)+\\1y").matcher(limitedString.reset(
+                    new CharArraySequence("xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx".toCharArray()))).matches();
+            Assert.fail("Shouldn't get here!");
+        } catch (LimitedRegexCharSequence.LimitExceededException ex) {
+            Assert.assertEquals(10001, limitedString.getAccessCount());
+        }
+    }
 }
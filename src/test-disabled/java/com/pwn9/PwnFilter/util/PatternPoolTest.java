@@ -0,0 +1,48 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for PatternPool, which shares patterns while they're retained.
+ */
+public class PatternPoolTest {
+
+    @Test
+    public void testSharedUntilReleased() throws Exception {
+        Pattern first = PatternPool.intern("po(o|l)l", Patterns.compile("po(o|l)l"));
+        Pattern second = PatternPool.intern(null, Pattern.compile(first.pattern(), first.flags()));
+        assertSame(first, second);
+        assertSame(first, PatternPool.acquire("po(o|l)l"));
+        assertSame(first, PatternPool.acquire(first.pattern(), first.flags()));
+
+        for (int i = 0; i < 3; i++) {
+            PatternPool.release(first);
+        }
+        assertSame(first, PatternPool.get("po(o|l)l"));
+        PatternPool.release(second);
+        assertNull(PatternPool.get("po(o|l)l"));
+        assertNull(PatternPool.acquire(first.pattern(), first.flags()));
+    }
+
+    @Test
+    public void testCompilePatternUsesPool() throws Exception {
+        Pattern pooled = PatternPool.intern("sh(a|4)red", Patterns.compile("sh(a|4)red"));
+        assertSame(pooled, Patterns.compilePattern("sh(a|4)red"));
+        PatternPool.release(pooled);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for WordList, which should find the same words as the equivalent
+ * <code>\b(...)\b</code> regex.
+ */
+public class WordListTest {
+
+    final WordList words = WordList.build("test", Arrays.asList("darn", "heck", "ice", "ice cream", "DARN"));
+
+    private String matches(String text) {
+        StringBuilder result = new StringBuilder();
+        long match = words.find(text, 0);
+        while (match >= 0) {
+            int start = (int) (match >>> 32), end = (int) match;
+            result.append('[').append(text, start, end).append(']');
+            match = words.find(text, end);
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testWholeWordsOnly() throws Exception {
+        assertEquals("[darn][heck]", matches("darn it, what the heck"));
+        assertEquals("", matches("darned hecks, icebergs and _darn"));
+        assertEquals("[Darn]", matches("Darn!"));
+    }
+
+    @Test
+    public void testLongestWordWins() throws Exception {
+        assertEquals("[ice cream][ice]", matches("ice cream, ice creamy"));
+    }
+
+    @Test
+    public void testDuplicatesCountOnce() throws Exception {
+        assertEquals(4, words.size());
+    }
+
+    @Test
+    public void testPatternFor() throws Exception {
+        String text = "Ice cream?  Heck, ice creamery.";
+        Pattern pattern = words.patternFor(text);
+        assertEquals("*?  *, * creamery.", pattern.matcher(text).replaceAll("*"));
+        assertNull(words.patternFor("nothing to see here"));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        byte[] data = "# Comment\n\n  darn  \r\nheck\n".getBytes(StandardCharsets.UTF_8);
+        WordList parsed = WordList.parse("test", data);
+        assertEquals(2, parsed.size());
+        assertEquals(0L << 32 | 4, parsed.find("darn", 0));
+        assertEquals(-1, parsed.find("# Comment", 0));
+    }
+}
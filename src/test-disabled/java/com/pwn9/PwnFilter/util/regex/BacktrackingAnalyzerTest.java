@@ -0,0 +1,67 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+/**
+ * Tests the BacktrackingAnalyzer
+ */
+public class BacktrackingAnalyzerTest {
+
+    private static BacktrackingAnalyzer.Report analyze(String re) {
+        return BacktrackingAnalyzer.analyze(re, Pattern.CASE_INSENSITIVE);
+    }
+
+    @Test
+    public void testHardening() {
+        Assert.assertEquals("\\bf++u++c++k++\\b", analyze("\\bf+u+c+k+\\b").getHardened());
+        Assert.assertEquals("(a|er|uh)++", analyze("(a|er|uh)+").getHardened());
+        Assert.assertEquals(BacktrackingAnalyzer.Risk.LINEAR, analyze("\\bf+u+c+k+\\b").getRisk());
+
+        // Giving back an 'a' could let the rest match, so these must stay greedy.
+        Assert.assertFalse(analyze("a+ab").isRewritten());
+        Assert.assertFalse(analyze("(a|ab)+c").isRewritten());
+        Assert.assertFalse(analyze("\\w*\\B").isRewritten());
+        // \b counts letters outside ASCII as word chars, though \W matches them.
+        Assert.assertFalse(analyze("\\W+\\b").isRewritten());
+    }
+
+    @Test
+    public void testHardenedPatternsMatchTheSame() {
+        String[] patterns = {"\\bf+u+c+k+\\b", "(a|er|uh)+x", "\\w+\\s+\\w+", "a{2,4}b?$", ".*foo.*", "\\W+\\b"};
+        String[] texts = {"", "fuuck", "fuck!", "aeruhx", "aa b", "aaaa", "aaaaab", "xfoox", "f u c k", "hi \u00e9cole"};
+        for (String re : patterns) {
+            Pattern original = Pattern.compile(re, Pattern.CASE_INSENSITIVE);
+            Pattern hardened = Pattern.compile(analyze(re).getHardened(), Pattern.CASE_INSENSITIVE);
+            for (String text : texts) {
+                Assert.assertEquals(re + " on " + text, original.matcher(text).find(), hardened.matcher(text).find());
+            }
+        }
+    }
+
+    @Test
+    public void testRisks() {
+        BacktrackingAnalyzer.Report nested = analyze("(x+x+)+y");
+        Assert.assertEquals(BacktrackingAnalyzer.Risk.EXPONENTIAL, nested.getRisk());
+        Assert.assertFalse(nested.getProblems().isEmpty());
+
+        BacktrackingAnalyzer.Report dots = analyze(".*a.*a.*b");
+        Assert.assertEquals(BacktrackingAnalyzer.Risk.POLYNOMIAL, dots.getRisk());
+        Assert.assertEquals(4, dots.getDegree());
+
+        Assert.assertEquals(BacktrackingAnalyzer.Risk.LINEAR, analyze("^.*foo").getRisk());
+        Assert.assertEquals(BacktrackingAnalyzer.Risk.UNKNOWN, analyze("\\p{L}+").getRisk());
+    }
+}
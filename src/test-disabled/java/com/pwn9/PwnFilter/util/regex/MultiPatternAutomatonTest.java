@@ -0,0 +1,142 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the MultiPatternAutomaton against java.util.regex.
+ */
+public class MultiPatternAutomatonTest {
+
+    private static final String[] PATTERNS = {
+            // Literals and classes
+            "fudge", "[a-c]x", "[^a-z ]+", "\\d{2,3}", "\\w\\W\\w", "\\s+", "f.o", "[\\-_.]", "\\x41\\u0062", "\\Qa.b\\E",
+            // Word boundaries
+            "\\bcat\\b", "\\Bat\\b", "\\bat\\B", "\\b\\w+\\b!",
+            // Anchors
+            "^hi", "bye$", "^$", "\\Ahello\\z", "end\\Z",
+            // Repeats
+            "a{3}", "a{2,}b", "x{0,2}y", "(ab){2}", "(?:d|e){1,2}?f", "b+?c", "o*",
+            // Alternation, and groups
+            "cat|dog", "(hot|cold) (tea|coffee)", "(?<name>n+)o", "(a|ab)(c|bcd)",
+            // Possessives that never give anything back
+            "\\bf++u++\\b",
+    };
+
+    private static final String[] TEXTS = {
+            "", "fudge", "FUDGE", "Fudgey", "bx", "Bx ", "12", "1234", "a b", "a-b", "   ", "foo", "f o", "a.b", "Ab",
+            "cat", "concat", "the cat!", "bat", "at", "that", "hi there", "oh hi", "bye", "bye now", "hello", "the end",
+            "aaa", "aab", "aaab", "yy", "xxy", "abab", "deef", "ddf", "bbbc", "cat dog", "hot coffee", "cold  tea",
+            "nno", "abcd", "abc", "fuu", "ffuu!", "the fu", "_x_", "x.y",
+    };
+
+    private static MultiPatternAutomaton compile(int flags, String... patterns) {
+        List<Pattern> compiled = new ArrayList<>();
+        for (String re : patterns) {
+            compiled.add(Pattern.compile(re, flags));
+        }
+        return MultiPatternAutomaton.compile(compiled);
+    }
+
+    private static TreeSet<Integer> scan(MultiPatternAutomaton automaton, String text) {
+        TreeSet<Integer> found = new TreeSet<>();
+        automaton.scan(text, (index, end) -> {
+            Assert.assertTrue("Reported twice: " + index, found.add(index));
+            return true;
+        });
+        return found;
+    }
+
+    private static void assertMatchesLikePatterns(int flags) {
+        MultiPatternAutomaton automaton = compile(flags, PATTERNS);
+        for (int i = 0; i < PATTERNS.length; i++) {
+            Assert.assertTrue(PATTERNS[i], automaton.supports(i));
+        }
+        for (String text : TEXTS) {
+            Assert.assertTrue(text, automaton.canScan(text));
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < PATTERNS.length; i++) {
+                if (Pattern.compile(PATTERNS[i], flags).matcher(text).find()) expected.add(i);
+            }
+            Assert.assertEquals("Matches in \"" + text + "\"", expected, scan(automaton, text));
+        }
+    }
+
+    @Test
+    public void testMatchesLikePatterns() {
+        assertMatchesLikePatterns(0);
+    }
+
+    @Test
+    public void testMatchesLikePatternsCaseInsensitive() {
+        assertMatchesLikePatterns(Pattern.CASE_INSENSITIVE);
+    }
+
+    @Test
+    public void testStopsWhenAsked() {
+        MultiPatternAutomaton automaton = compile(0, "a", "b", "c");
+        List<Integer> found = new ArrayList<>();
+        automaton.scan("cba", (index, end) -> {
+            found.add(index);
+            return false;
+        });
+        Assert.assertEquals(Collections.singletonList(2), found);
+    }
+
+    @Test
+    public void testUnsupportedPatterns() {
+        String[] unsupported = {
+                "(a)\\1", "a(?=b)", "(?<!x)a", "(?>a|ab)c", "a++a", "(?i)a", "\\p{Lu}", "[a[b]]", "[a&&b]",
+                // Java cuts these loops short in ways of its own, so they'd give false positives.
+                "^+a", "x\\b{2}y", "(a*)+b", "(?:^|a){2}b",
+        };
+        MultiPatternAutomaton automaton = compile(0, unsupported);
+        Assert.assertEquals(0, automaton.supportedCount());
+        for (int i = 0; i < unsupported.length; i++) {
+            Assert.assertFalse(unsupported[i], automaton.supports(i));
+        }
+
+        // Only CASE_INSENSITIVE is understood, and null entries are skipped.
+        MultiPatternAutomaton flags = MultiPatternAutomaton.compile(Arrays.asList(
+                Pattern.compile("a", Pattern.MULTILINE), null, Pattern.compile("a")));
+        Assert.assertFalse(flags.supports(0));
+        Assert.assertFalse(flags.supports(1));
+        Assert.assertTrue(flags.supports(2));
+        Assert.assertFalse(flags.supports(3));
+    }
+
+    @Test
+    public void testCanScan() {
+        MultiPatternAutomaton plain = compile(0, "caf.");
+        Assert.assertTrue(plain.canScan("caf\u00e9"));
+        Assert.assertFalse(plain.canScan("line\nbreak"));
+        Assert.assertFalse(plain.canScan("line\rbreak"));
+        Assert.assertFalse(plain.canScan("line\u2028break"));
+        Assert.assertFalse(plain.canScan("smile \ud83d\ude00"));
+
+        // java.util.regex's \b knows about letters outside ASCII, and the automaton doesn't.
+        MultiPatternAutomaton boundary = compile(0, "\\bcaf");
+        Assert.assertTrue(boundary.canScan("caf!"));
+        Assert.assertFalse(boundary.canScan("caf\u00e9"));
+        // A combining mark isn't a letter, but \b skips over it.
+        Assert.assertFalse(boundary.canScan("e\u0301caf"));
+        Assert.assertTrue(boundary.canScan("caf \u00bf"));
+    }
+}
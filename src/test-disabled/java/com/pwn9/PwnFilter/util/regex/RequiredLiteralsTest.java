@@ -0,0 +1,109 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2016 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests RequiredLiterals.  Its one safety property is that every string a
+ * pattern matches contains one of the literals, or a rule could be skipped
+ * when it would have matched.
+ */
+public class RequiredLiteralsTest {
+
+    private static final String[] PATTERNS = {
+            "fag+(s)?", "(i hate|fuck)+ this server|server sucks", "\\bf+u+c+k+\\b", "sh[i1!]t", "d(a|4)mn?",
+            "(ab){2,3}c", "x?y?z", "cat|dog|(bird|fish)s", "a.b.c", "\\bass(es)?\\b", "(?<!b)itch", "w(?=ow)",
+            "(?:a|ab)(?:c|bcd)", "[a-c]{2}d", "h\\W*e\\W*c\\W*k", "s+p+a+m+", "(?:no|yes){1,}!",
+    };
+
+    // Texts are made of these, so that every pattern gets to match some of them.
+    private static final String[] FRAGMENTS = {
+            "a", "b", "c", "d", "x", "y", "z", "s", "4", "!", " ", "-", "A", "FU", "fuck", "fuuck", "i hate", " this server",
+            "server sucks", "fag", "gg", "sh1t", "shIt", "dam", "mn", "ab", "bcd", "cat", "dog", "fish", "bird", "ass",
+            "es", "itch", "bitch", "w", "ow", "h", "e", "k", "spam", "pp", "no", "yes", "a-b-c", "h e-ck",
+    };
+
+    private static Set<String> literals(String re, int flags) throws Exception {
+        return RequiredLiterals.of(RegexParser.parse(re, flags));
+    }
+
+    private static Set<String> set(String... strings) {
+        return new HashSet<>(Arrays.asList(strings));
+    }
+
+    private static String fold(CharSequence text) {
+        StringBuilder folded = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            folded.append(RequiredLiterals.fold(text.charAt(i)));
+        }
+        return folded.toString();
+    }
+
+    @Test
+    public void testLiterals() throws Exception {
+        Assert.assertEquals(set("fag"), literals("fag+(s)?", 0));
+        // The last "fuck" is always followed by " this server".
+        Assert.assertEquals(set("i hate this server", "fuck this server", "server sucks"),
+                literals("(i hate|fuck)+ this server|server sucks", 0));
+        Assert.assertEquals(set("shit", "sh1t", "sh!t"), literals("sh[i1!]t", 0));
+        Assert.assertEquals(set("damn"), literals("DAMN", Pattern.CASE_INSENSITIVE));
+    }
+
+    @Test
+    public void testNoLiterals() throws Exception {
+        Assert.assertNull(literals(".*", 0));
+        Assert.assertNull(literals("\\w+\\W\\w", 0));
+        Assert.assertNull(literals("a?b*", 0));
+        Assert.assertNull(literals("(a?)\\1", 0));
+    }
+
+    @Test
+    public void testEveryMatchContainsALiteral() throws Exception {
+        Random random = new Random(42);
+        for (String re : PATTERNS) {
+            for (int flags : new int[]{0, Pattern.CASE_INSENSITIVE}) {
+                Pattern pattern = Pattern.compile(re, flags);
+                Set<String> literals = literals(re, flags);
+                Assert.assertNotNull(re, literals);
+
+                int matched = 0;
+                for (int t = 0; t < 20000; t++) {
+                    StringBuilder text = new StringBuilder();
+                    int length = random.nextInt(6);
+                    for (int i = 0; i < length; i++) {
+                        text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                    }
+                    Matcher matcher = pattern.matcher(text);
+                    while (matcher.find()) {
+                        matched++;
+                        String match = fold(matcher.group());
+                        boolean found = false;
+                        for (String literal : literals) {
+                            found |= match.contains(literal);
+                        }
+                        Assert.assertTrue(re + " matched \"" + matcher.group() + "\" without any of " + literals, found);
+                        if (matcher.end() == matcher.start()) break;
+                    }
+                }
+                Assert.assertTrue(re + " never matched", matched > 0);
+            }
+        }
+    }
+}